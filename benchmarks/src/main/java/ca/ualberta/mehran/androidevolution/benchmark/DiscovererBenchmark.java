@@ -0,0 +1,99 @@
+package ca.ualberta.mehran.androidevolution.benchmark;
+
+import ca.ualberta.mehran.androidevolution.mapping.MethodMapping;
+import ca.ualberta.mehran.androidevolution.mapping.MethodModel;
+import ca.ualberta.mehran.androidevolution.mapping.discovery.SpoonHelper;
+import ca.ualberta.mehran.androidevolution.mapping.discovery.implementation.BodyChangeOnlyHelper;
+import ca.ualberta.mehran.androidevolution.mapping.discovery.implementation.ChangeDistillerHelper;
+import ca.ualberta.mehran.androidevolution.mapping.discovery.implementation.RefactoringMinerHelper;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs each discoverer on its own over the AOSP old and new versions of a synthetic subsystem. Methods are
+ * extracted once per trial so only the discoverer itself is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DiscovererBenchmark {
+
+    @Param({"SMALL", "MEDIUM", "LARGE"})
+    private Scale scale;
+
+    private SyntheticWorkspace workspace;
+    private String oldPath;
+    private String newPath;
+    private Map<String, MethodModel> oldMethods;
+    private Map<String, MethodModel> newMethods;
+    private Map<String, String> oldClasses = new HashMap<>();
+    private Map<String, String> newClasses = new HashMap<>();
+    private List<MethodMapping[]> mappingPairs = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        workspace = new SyntheticWorkspace(scale);
+        oldPath = workspace.getOldPath(workspace.getAndroidOldAndNewPath());
+        newPath = workspace.getNewPath(workspace.getAndroidOldAndNewPath());
+        SpoonHelper spoonHelper = new SpoonHelper();
+        oldMethods = spoonHelper.extractAllMethodsBySignature(oldPath, oldClasses);
+        newMethods = spoonHelper.extractAllMethodsBySignature(newPath, newClasses);
+
+        // Pairs of mappings with the same destination signature, as compared when purging duplicate changes
+        for (String signature : newMethods.keySet()) {
+            if (oldMethods.containsKey(signature)) {
+                mappingPairs.add(new MethodMapping[]{
+                        new MethodMapping(oldMethods.get(signature), MethodMapping.Type.BODY_CHANGE_ONLY),
+                        new MethodMapping(newMethods.get(signature), MethodMapping.Type.BODY_CHANGE_ONLY)});
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        workspace.delete();
+    }
+
+    @Benchmark
+    public Map<MethodModel, MethodMapping> bodyChangeOnly() {
+        return new BodyChangeOnlyHelper().identifyBodyChanges(oldMethods.values(), newMethods.values());
+    }
+
+    @Benchmark
+    public Map<MethodModel, MethodMapping> changeDistiller() {
+        return new ChangeDistillerHelper().identifyMethodArgumentChanges(oldPath, newPath,
+                oldMethods.values(), newMethods.values(),
+                Collections.emptySet(), Collections.emptySet(), new HashMap<>());
+    }
+
+    @Benchmark
+    public Map<MethodModel, MethodMapping> refactoringMiner() {
+        return new RefactoringMinerHelper().identifyRefactoring(oldPath, newPath,
+                oldMethods.values(), newMethods.values(),
+                Collections.emptySet(), Collections.emptySet(),
+                oldClasses, newClasses, new HashMap<>());
+    }
+
+    @Benchmark
+    public void methodMappingEquals(Blackhole blackhole) {
+        for (MethodMapping[] pair : mappingPairs) {
+            blackhole.consume(pair[0].equals(pair[1]));
+        }
+    }
+
+    @Benchmark
+    public Map<String, MethodModel> umlFormSignatureIndex() {
+        Map<String, MethodModel> index = new HashMap<>();
+        for (MethodModel method : newMethods.values()) {
+            index.put(method.getUMLFormSignature(), method);
+        }
+        return index;
+    }
+}
@@ -0,0 +1,48 @@
+package ca.ualberta.mehran.androidevolution.benchmark;
+
+import ca.ualberta.mehran.androidevolution.mapping.EvolutionAnalyser;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The whole analysis of one synthetic subsystem. SourcererCC is taken from the "benchmark.sourcerercc" system
+ * property, and defaults to the copy in the main project.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class EvolutionAnalyserBenchmark {
+
+    @Param({"SMALL", "MEDIUM", "LARGE"})
+    private Scale scale;
+
+    private SyntheticWorkspace workspace;
+    private String sourcererCCPath;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        workspace = new SyntheticWorkspace(scale);
+        sourcererCCPath = new File(System.getProperty("benchmark.sourcerercc", "../sourcerercc")).getAbsolutePath();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        workspace.delete();
+    }
+
+    @Benchmark
+    public void run() {
+        String aospPath = workspace.getAndroidOldAndNewPath();
+        String modifiedPath = workspace.getAndroidOldAndModifiedPath();
+        new EvolutionAnalyser().run("benchmark_" + scale,
+                aospPath, workspace.getOldPath(aospPath), workspace.getNewPath(aospPath),
+                modifiedPath, workspace.getOldPath(modifiedPath), workspace.getNewPath(modifiedPath),
+                sourcererCCPath, new File(workspace.getRoot(), "output").getAbsolutePath());
+    }
+}
@@ -0,0 +1,40 @@
+package ca.ualberta.mehran.androidevolution.benchmark;
+
+import ca.ualberta.mehran.androidevolution.mapping.MethodModel;
+import ca.ualberta.mehran.androidevolution.mapping.discovery.SpoonHelper;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ExtractionBenchmark {
+
+    @Param({"SMALL", "MEDIUM", "LARGE"})
+    private Scale scale;
+
+    private SyntheticWorkspace workspace;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        workspace = new SyntheticWorkspace(scale);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        workspace.delete();
+    }
+
+    @Benchmark
+    public Map<String, MethodModel> spoonExtraction() {
+        return new SpoonHelper().extractAllMethodsBySignature(
+                workspace.getOldPath(workspace.getAndroidOldAndNewPath()), new HashMap<>());
+    }
+}
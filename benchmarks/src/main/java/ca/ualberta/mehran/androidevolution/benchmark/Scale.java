@@ -0,0 +1,24 @@
+package ca.ualberta.mehran.androidevolution.benchmark;
+
+/**
+ * Sizes of the generated source trees used by the benchmarks.
+ */
+public enum Scale {
+    SMALL(25, 8), MEDIUM(250, 12), LARGE(1500, 16);
+
+    private final int classCount;
+    private final int methodsPerClass;
+
+    Scale(int classCount, int methodsPerClass) {
+        this.classCount = classCount;
+        this.methodsPerClass = methodsPerClass;
+    }
+
+    public int getClassCount() {
+        return classCount;
+    }
+
+    public int getMethodsPerClass() {
+        return methodsPerClass;
+    }
+}
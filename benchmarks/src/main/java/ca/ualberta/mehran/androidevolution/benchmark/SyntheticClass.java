@@ -0,0 +1,53 @@
+package ca.ualberta.mehran.androidevolution.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class SyntheticClass {
+
+    private final String packageName;
+    private final String name;
+    final List<SyntheticMethod> methods = new ArrayList<>();
+
+    SyntheticClass(String packageName, String name) {
+        this.packageName = packageName;
+        this.name = name;
+    }
+
+    SyntheticClass copy() {
+        SyntheticClass copy = new SyntheticClass(packageName, name);
+        for (SyntheticMethod method : methods) {
+            copy.methods.add(method.copy());
+        }
+        return copy;
+    }
+
+    public String getPackageName() {
+        return packageName;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public List<SyntheticMethod> getMethods() {
+        return methods;
+    }
+
+    String getRelativePath() {
+        return packageName.replace('.', '/') + "/" + name + ".java";
+    }
+
+    String render() {
+        StringBuilder out = new StringBuilder();
+        out.append("package ").append(packageName).append(";\n\n");
+        out.append("public class ").append(name).append(" {\n\n");
+        out.append("    private int counter;\n\n");
+        for (SyntheticMethod method : methods) {
+            method.render(out, name);
+            out.append("\n");
+        }
+        out.append("}\n");
+        return out.toString();
+    }
+}
@@ -0,0 +1,90 @@
+package ca.ualberta.mehran.androidevolution.benchmark;
+
+import ca.ualberta.mehran.androidevolution.Utils;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * A generated Java code base whose methods carry stable ids, so that two mutated copies of it can be compared
+ * against a known ground truth.
+ */
+public class SyntheticCodebase {
+
+    private static final String[] RETURN_TYPES = new String[]{"void", "int", "String", "boolean"};
+    private static final String[] PARAMETER_TYPES = new String[]{"int", "long", "String", "boolean"};
+    private static final String[] VERBS = new String[]{"process", "compute", "update", "load", "handle", "resolve"};
+
+    final List<SyntheticClass> classes = new ArrayList<>();
+    int nextId;
+
+    private SyntheticCodebase() {
+    }
+
+    public static SyntheticCodebase generate(String basePackage, int classCount, int methodsPerClass, long seed) {
+        Random random = new Random(seed);
+        SyntheticCodebase codebase = new SyntheticCodebase();
+        int packageCount = Math.max(1, (int) Math.sqrt(classCount));
+        for (int i = 0; i < classCount; i++) {
+            String className = "Component" + i;
+            SyntheticClass cls = new SyntheticClass(basePackage + ".p" + (i % packageCount), className);
+            cls.methods.add(new SyntheticMethod(codebase.nextId++, true, className, "void", Collections.emptyList()));
+            for (int j = 0; j < methodsPerClass; j++) {
+                cls.methods.add(codebase.newMethod(random));
+            }
+            codebase.classes.add(cls);
+        }
+        return codebase;
+    }
+
+    SyntheticMethod newMethod(Random random) {
+        int id = nextId++;
+        int parameterCount = random.nextInt(4);
+        List<String> parameterTypes = new ArrayList<>();
+        for (int i = 0; i < parameterCount; i++) {
+            parameterTypes.add(PARAMETER_TYPES[random.nextInt(PARAMETER_TYPES.length)]);
+        }
+        return new SyntheticMethod(id, false, VERBS[random.nextInt(VERBS.length)] + id,
+                RETURN_TYPES[random.nextInt(RETURN_TYPES.length)], parameterTypes);
+    }
+
+    public SyntheticCodebase copy() {
+        SyntheticCodebase copy = new SyntheticCodebase();
+        copy.nextId = nextId;
+        for (SyntheticClass cls : classes) {
+            copy.classes.add(cls.copy());
+        }
+        return copy;
+    }
+
+    public List<SyntheticClass> getClasses() {
+        return classes;
+    }
+
+    public int getMethodsCount() {
+        int count = 0;
+        for (SyntheticClass cls : classes) {
+            count += cls.methods.size();
+        }
+        return count;
+    }
+
+    /**
+     * Signatures of all methods in UML form, by method id.
+     */
+    public Map<Integer, String> getSignaturesById() {
+        Map<Integer, String> result = new HashMap<>();
+        for (SyntheticClass cls : classes) {
+            for (SyntheticMethod method : cls.methods) {
+                result.put(method.getId(), method.getUMLFormSignature(cls.getPackageName(), cls.getName()));
+            }
+        }
+        return result;
+    }
+
+    public void writeTo(File sourceRoot) {
+        for (SyntheticClass cls : classes) {
+            Utils.writeToFile(new File(sourceRoot, cls.getRelativePath()), cls.render());
+        }
+    }
+}
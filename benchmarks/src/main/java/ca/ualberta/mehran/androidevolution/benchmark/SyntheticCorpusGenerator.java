@@ -0,0 +1,217 @@
+package ca.ualberta.mehran.androidevolution.benchmark;
+
+import ca.ualberta.mehran.androidevolution.CSVUtils;
+import ca.ualberta.mehran.androidevolution.Utils;
+import ca.ualberta.mehran.androidevolution.mapping.MethodMapping;
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.PersonIdent;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.*;
+
+import static ca.ualberta.mehran.androidevolution.Utils.log;
+
+/**
+ * Writes an offline corpus shaped like the input of RepositoryAutomation: local AOSP and proprietary git
+ * repositories with tagged versions, the project input CSV pointing at them, and a ground truth file with the
+ * expected mapping type of every method.
+ * <p>
+ * Run it with the corpus folder as the working directory of RepositoryAutomation afterwards.
+ */
+public class SyntheticCorpusGenerator {
+
+    public static final String PROJECT_NAME = "SYNTHETIC";
+    public static final String GROUND_TRUTH_FILE = "ground_truth.csv";
+
+    private static final String MANIFEST = "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n" +
+            "<manifest xmlns:android=\"http://schemas.android.com/apk/res/android\" package=\"%s\" />\n";
+    private static final PersonIdent AUTHOR = new PersonIdent("Synthetic Corpus", "corpus@localhost");
+
+    private int repositoriesCount = 1;
+    private int subsystemsPerRepository = 3;
+    private int classesPerSubsystem = 50;
+    private int methodsPerClass = 10;
+    private int versionsCount = 2;
+    private long seed = 42;
+    private SyntheticMutator androidMutator = SyntheticMutator.defaultMix();
+    private SyntheticMutator proprietaryMutator = SyntheticMutator.defaultMix().addedIdOffset(1_000_000);
+
+    /**
+     * Arguments: output folder, then optionally the number of repositories, subsystems per repository, classes per
+     * subsystem, methods per class and version triples, followed by a change mix such as
+     * "BODY_CHANGE_ONLY:0.2,REFACTORED_RENAME:0.05" applied to both AOSP and proprietary versions.
+     */
+    public static void main(String[] args) throws IOException, GitAPIException {
+        if (args.length < 1) {
+            System.err.println("Usage: SyntheticCorpusGenerator <output dir> [repositories] [subsystems] [classes] [methods] [versions] [mix]");
+            return;
+        }
+        SyntheticCorpusGenerator generator = new SyntheticCorpusGenerator();
+        if (args.length > 1) generator.repositoriesCount = Integer.parseInt(args[1]);
+        if (args.length > 2) generator.subsystemsPerRepository = Integer.parseInt(args[2]);
+        if (args.length > 3) generator.classesPerSubsystem = Integer.parseInt(args[3]);
+        if (args.length > 4) generator.methodsPerClass = Integer.parseInt(args[4]);
+        if (args.length > 5) generator.versionsCount = Integer.parseInt(args[5]);
+        if (args.length > 6) {
+            generator.androidMutator = parseMix(args[6]);
+            generator.proprietaryMutator = parseMix(args[6]).addedIdOffset(1_000_000);
+        }
+        generator.generate(new File(args[0]));
+    }
+
+    static SyntheticMutator parseMix(String mix) {
+        SyntheticMutator mutator = new SyntheticMutator();
+        for (String entry : mix.split(",")) {
+            String[] parts = entry.split(":");
+            mutator.rate(MethodMapping.Type.valueOf(parts[0].trim()), Double.parseDouble(parts[1].trim()));
+        }
+        return mutator;
+    }
+
+    public void generate(File corpusDir) throws IOException, GitAPIException {
+        File remotesDir = new File(corpusDir, "remotes");
+        File csvDir = new File(corpusDir, "input/csv/" + PROJECT_NAME);
+        csvDir.mkdirs();
+
+        StringBuilder inputCsv = new StringBuilder();
+        for (int version = 0; version < versionsCount; version++) {
+            inputCsv.append("versions:").append(androidVersion(version)).append(",")
+                    .append(androidVersion(version + 1)).append(",").append(proprietaryVersion(version)).append("\n");
+        }
+
+        try (Writer groundTruth = new FileWriter(new File(corpusDir, GROUND_TRUTH_FILE))) {
+            writeLine(groundTruth, Arrays.asList("analysis", "old signature", "new type", "new signature",
+                    "proprietary type", "proprietary signature"));
+            for (int repository = 0; repository < repositoriesCount; repository++) {
+                String repositoryName = "platform_synthetic_" + repository;
+                File aospDir = new File(remotesDir, repositoryName + "/aosp");
+                File proprietaryDir = new File(remotesDir, repositoryName + "/" + PROJECT_NAME);
+                log("Generating " + repositoryName + "...");
+                generateRepository(repository, aospDir, proprietaryDir, groundTruth);
+                inputCsv.append(repositoryName).append(",").append(fileUrl(aospDir))
+                        .append(",").append(fileUrl(proprietaryDir)).append("\n");
+            }
+        }
+        Utils.writeToFile(new File(csvDir, "synthetic.csv"), inputCsv.toString());
+        log("Corpus written to " + corpusDir.getAbsolutePath());
+    }
+
+    private void generateRepository(int repository, File aospDir, File proprietaryDir, Writer groundTruth)
+            throws IOException, GitAPIException {
+        Random random = new Random(seed + repository);
+        List<String> subsystemPaths = new ArrayList<>();
+        List<SyntheticCodebase> androidVersions = new ArrayList<>();
+        List<List<SyntheticMutator.Mutation>> androidMutations = new ArrayList<>();
+
+        // AOSP history: one commit and tag per version, each version a mutation of the previous one
+        try (Git aosp = Git.init().setDirectory(aospDir).call()) {
+            List<SyntheticCodebase> current = new ArrayList<>();
+            for (int subsystem = 0; subsystem < subsystemsPerRepository; subsystem++) {
+                subsystemPaths.add("packages/apps/Synthetic" + repository + "x" + subsystem);
+                current.add(SyntheticCodebase.generate("com.android.synthetic.r" + repository + ".s" + subsystem,
+                        classesPerSubsystem, methodsPerClass, random.nextLong()));
+            }
+            for (int version = 0; version <= versionsCount; version++) {
+                if (version > 0) {
+                    List<SyntheticMutator.Mutation> mutations = new ArrayList<>();
+                    List<SyntheticCodebase> next = new ArrayList<>();
+                    for (SyntheticCodebase codebase : current) {
+                        SyntheticMutator.Mutation mutation = androidMutator.apply(codebase, random.nextLong());
+                        mutations.add(mutation);
+                        next.add(mutation.getMutated());
+                    }
+                    androidMutations.add(mutations);
+                    current = next;
+                }
+                androidVersions.addAll(current);
+                writeSubsystems(aospDir, subsystemPaths, current);
+                commitAndTag(aosp, androidVersion(version));
+            }
+        }
+
+        // Proprietary fork: shares the AOSP history and branches off every old AOSP version
+        try (Git proprietary = Git.cloneRepository().setURI(fileUrl(aospDir))
+                .setDirectory(proprietaryDir).call()) {
+            for (int version = 0; version < versionsCount; version++) {
+                proprietary.checkout().setCreateBranch(true).setName(proprietaryVersion(version) + "-branch")
+                        .setStartPoint("refs/tags/" + androidVersion(version)).call();
+                List<SyntheticCodebase> modified = new ArrayList<>();
+                for (int subsystem = 0; subsystem < subsystemsPerRepository; subsystem++) {
+                    SyntheticCodebase androidOld = androidVersions.get(version * subsystemsPerRepository + subsystem);
+                    SyntheticMutator.Mutation proprietaryMutation = proprietaryMutator.apply(androidOld, random.nextLong());
+                    modified.add(proprietaryMutation.getMutated());
+                    writeGroundTruth(groundTruth, subsystemPaths.get(subsystem), version,
+                            androidMutations.get(version).get(subsystem), proprietaryMutation);
+                }
+                writeSubsystems(proprietaryDir, subsystemPaths, modified);
+                commitAndTag(proprietary, proprietaryVersion(version));
+            }
+        }
+    }
+
+    private void writeSubsystems(File repositoryDir, List<String> subsystemPaths, List<SyntheticCodebase> codebases)
+            throws IOException {
+        for (int i = 0; i < subsystemPaths.size(); i++) {
+            File subsystemDir = new File(repositoryDir, subsystemPaths.get(i));
+            FileUtils.deleteDirectory(new File(subsystemDir, "src"));
+            Utils.writeToFile(new File(subsystemDir, "AndroidManifest.xml"),
+                    String.format(MANIFEST, codebases.get(i).getClasses().get(0).getPackageName()));
+            codebases.get(i).writeTo(new File(subsystemDir, "src"));
+        }
+    }
+
+    private void commitAndTag(Git git, String tagName) throws GitAPIException {
+        git.add().addFilepattern(".").call();
+        git.add().setUpdate(true).addFilepattern(".").call();
+        git.commit().setMessage(tagName).setAuthor(AUTHOR).setCommitter(AUTHOR).call();
+        git.tag().setName(tagName).call();
+    }
+
+    private void writeGroundTruth(Writer groundTruth, String subsystemPath, int version,
+                                  SyntheticMutator.Mutation androidMutation,
+                                  SyntheticMutator.Mutation proprietaryMutation) throws IOException {
+        // Same name RepositoryAutomation gives the analysis and its output file
+        String analysisName = subsystemPath.substring(subsystemPath.lastIndexOf('/') + 1) + "_" +
+                androidVersion(version) + "_" + androidVersion(version + 1) + "_" +
+                PROJECT_NAME + "_" + proprietaryVersion(version);
+        Map<Integer, String> oldSignatures = androidMutation.getOriginal().getSignaturesById();
+        Map<Integer, String> newSignatures = androidMutation.getMutated().getSignaturesById();
+        Map<Integer, String> proprietarySignatures = proprietaryMutation.getMutated().getSignaturesById();
+
+        for (Integer methodId : oldSignatures.keySet()) {
+            writeLine(groundTruth, Arrays.asList(analysisName, oldSignatures.get(methodId),
+                    androidMutation.getExpectedType(methodId).toString(), newSignatures.getOrDefault(methodId, ""),
+                    proprietaryMutation.getExpectedType(methodId).toString(), proprietarySignatures.getOrDefault(methodId, "")));
+        }
+        for (Integer methodId : androidMutation.getAddedMethodIds()) {
+            writeLine(groundTruth, Arrays.asList(analysisName, "",
+                    MethodMapping.Type.ADDED.toString(), newSignatures.get(methodId), "", ""));
+        }
+        for (Integer methodId : proprietaryMutation.getAddedMethodIds()) {
+            writeLine(groundTruth, Arrays.asList(analysisName, "", "", "",
+                    MethodMapping.Type.ADDED.toString(), proprietarySignatures.get(methodId)));
+        }
+    }
+
+    // Signatures contain commas, so every cell is quoted
+    private void writeLine(Writer writer, List<String> values) throws IOException {
+        CSVUtils.writeLine(writer, values, ',', '"');
+    }
+
+    private static String fileUrl(File dir) {
+        return "file://" + dir.getAbsolutePath();
+    }
+
+    private static String androidVersion(int version) {
+        return "android-synthetic-" + version + "_r1";
+    }
+
+    private static String proprietaryVersion(int version) {
+        return "synthetic-" + version;
+    }
+}
@@ -0,0 +1,97 @@
+package ca.ualberta.mehran.androidevolution.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class SyntheticMethod {
+
+    private final int id;
+    private final boolean constructor;
+    String name;
+    String returnType;
+    List<String> parameterTypes;
+    int bodyVariant;
+
+    SyntheticMethod(int id, boolean constructor, String name, String returnType, List<String> parameterTypes) {
+        this.id = id;
+        this.constructor = constructor;
+        this.name = name;
+        this.returnType = returnType;
+        this.parameterTypes = new ArrayList<>(parameterTypes);
+    }
+
+    SyntheticMethod copy() {
+        SyntheticMethod copy = new SyntheticMethod(id, constructor, name, returnType, parameterTypes);
+        copy.bodyVariant = bodyVariant;
+        return copy;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public boolean isConstructor() {
+        return constructor;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public List<String> getParameterTypes() {
+        return parameterTypes;
+    }
+
+    /**
+     * Same format as MethodModel.getUMLFormSignature(), so generated ground truth can be compared with the analysis.
+     */
+    public String getUMLFormSignature(String packageName, String className) {
+        return packageName + "." + className + "." + name + "(" + String.join(",", parameterTypes) + "):" +
+                (constructor ? "void" : returnType);
+    }
+
+    void render(StringBuilder out, String className) {
+        out.append("    public ");
+        if (constructor) {
+            out.append(className);
+        } else {
+            out.append(returnType).append(" ").append(name);
+        }
+        out.append("(");
+        for (int i = 0; i < parameterTypes.size(); i++) {
+            if (i > 0) out.append(", ");
+            out.append(parameterTypes.get(i)).append(" p").append(i);
+        }
+        out.append(") {\n");
+        out.append("        int value = ").append(id).append(";\n");
+        for (int i = 0; i < parameterTypes.size(); i++) {
+            out.append("        value = value * 31 + ").append(parameterAsInt(parameterTypes.get(i), "p" + i)).append(";\n");
+        }
+        for (int i = 0; i < bodyVariant; i++) {
+            out.append("        value = value ^ ").append(id * 7 + i + 1).append(";\n");
+        }
+        if (constructor || returnType.equals("void")) {
+            out.append("        counter += value;\n");
+        } else if (returnType.equals("int")) {
+            out.append("        return value;\n");
+        } else if (returnType.equals("boolean")) {
+            out.append("        return value > 0;\n");
+        } else {
+            out.append("        return String.valueOf(value);\n");
+        }
+        out.append("    }\n");
+    }
+
+    private static String parameterAsInt(String type, String name) {
+        switch (type) {
+            case "int":
+                return name;
+            case "long":
+                return "(int) " + name;
+            case "boolean":
+                return "(" + name + " ? 1 : 0)";
+            default:
+                return name + ".length()";
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package ca.ualberta.mehran.androidevolution.benchmark;
+
+import ca.ualberta.mehran.androidevolution.mapping.MethodMapping;
+
+import java.util.*;
+
+/**
+ * Applies a controlled mix of changes to a copy of a synthetic code base and remembers which change each method got.
+ */
+public class SyntheticMutator {
+
+    private final Map<MethodMapping.Type, Double> rates = new EnumMap<>(MethodMapping.Type.class);
+    private double addedRate;
+    private int addedIdOffset;
+
+    public SyntheticMutator rate(MethodMapping.Type type, double rate) {
+        switch (type) {
+            case REFACTORED_RENAME:
+            case REFACTORED_MOVE:
+            case ARGUMENTS_CHANGE_ADD:
+            case ARGUMENTS_CHANGE_REMOVE:
+            case ARGUMENTS_CHANGE_TYPE_CHANGE:
+            case BODY_CHANGE_ONLY:
+            case NOT_FOUND:
+                rates.put(type, rate);
+                return this;
+            case ADDED:
+                addedRate = rate;
+                return this;
+        }
+        throw new IllegalArgumentException("Cannot inject changes of type " + type);
+    }
+
+    /**
+     * Ids of methods added by this mutator start after this offset, so two mutators applied to the same code base
+     * do not add the same methods by accident.
+     */
+    public SyntheticMutator addedIdOffset(int offset) {
+        this.addedIdOffset = offset;
+        return this;
+    }
+
+    public static SyntheticMutator defaultMix() {
+        return new SyntheticMutator()
+                .rate(MethodMapping.Type.REFACTORED_RENAME, 0.02)
+                .rate(MethodMapping.Type.REFACTORED_MOVE, 0.02)
+                .rate(MethodMapping.Type.ARGUMENTS_CHANGE_ADD, 0.02)
+                .rate(MethodMapping.Type.ARGUMENTS_CHANGE_REMOVE, 0.02)
+                .rate(MethodMapping.Type.ARGUMENTS_CHANGE_TYPE_CHANGE, 0.02)
+                .rate(MethodMapping.Type.BODY_CHANGE_ONLY, 0.10)
+                .rate(MethodMapping.Type.NOT_FOUND, 0.03)
+                .rate(MethodMapping.Type.ADDED, 0.05);
+    }
+
+    public Mutation apply(SyntheticCodebase base, long seed) {
+        Random random = new Random(seed);
+        SyntheticCodebase mutated = base.copy();
+        mutated.nextId += addedIdOffset;
+        Map<Integer, MethodMapping.Type> changes = new HashMap<>();
+
+        // Moved methods by the class they are moved from
+        Map<SyntheticMethod, SyntheticClass> moves = new LinkedHashMap<>();
+        for (SyntheticClass cls : mutated.classes) {
+            Iterator<SyntheticMethod> iterator = cls.methods.iterator();
+            while (iterator.hasNext()) {
+                SyntheticMethod method = iterator.next();
+                if (method.isConstructor()) continue;
+                MethodMapping.Type type = pickType(method, mutated.classes.size(), random);
+                if (type == null) continue;
+                changes.put(method.getId(), type);
+                switch (type) {
+                    case REFACTORED_RENAME:
+                        method.name = method.name + "Renamed";
+                        break;
+                    case REFACTORED_MOVE:
+                        iterator.remove();
+                        moves.put(method, cls);
+                        break;
+                    case ARGUMENTS_CHANGE_ADD:
+                        method.parameterTypes.add("int");
+                        break;
+                    case ARGUMENTS_CHANGE_REMOVE:
+                        method.parameterTypes.remove(method.parameterTypes.size() - 1);
+                        break;
+                    case ARGUMENTS_CHANGE_TYPE_CHANGE:
+                        int index = random.nextInt(method.parameterTypes.size());
+                        method.parameterTypes.set(index, method.parameterTypes.get(index).equals("long") ? "int" : "long");
+                        break;
+                    case BODY_CHANGE_ONLY:
+                        method.bodyVariant++;
+                        break;
+                    case NOT_FOUND:
+                        iterator.remove();
+                        break;
+                }
+            }
+        }
+        for (Map.Entry<SyntheticMethod, SyntheticClass> move : moves.entrySet()) {
+            SyntheticMethod method = move.getKey();
+            List<SyntheticClass> targets = new ArrayList<>();
+            for (SyntheticClass cls : mutated.classes) {
+                if (cls != move.getValue() && !hasSignature(cls, method)) targets.add(cls);
+            }
+            if (targets.isEmpty()) {
+                // Every other class has the same signature; the method stays where it was, unchanged
+                move.getValue().methods.add(method);
+                changes.remove(method.getId());
+            } else {
+                targets.get(random.nextInt(targets.size())).methods.add(method);
+            }
+        }
+
+        List<Integer> added = new ArrayList<>();
+        int addedCount = (int) Math.round(base.getMethodsCount() * addedRate);
+        for (int i = 0; i < addedCount && !mutated.classes.isEmpty(); i++) {
+            SyntheticMethod method = mutated.newMethod(random);
+            mutated.classes.get(random.nextInt(mutated.classes.size())).methods.add(method);
+            added.add(method.getId());
+        }
+        return new Mutation(base, mutated, changes, added);
+    }
+
+    private MethodMapping.Type pickType(SyntheticMethod method, int classesCount, Random random) {
+        double draw = random.nextDouble();
+        double cumulative = 0;
+        for (Map.Entry<MethodMapping.Type, Double> entry : rates.entrySet()) {
+            cumulative += entry.getValue();
+            if (draw < cumulative) {
+                MethodMapping.Type type = entry.getKey();
+                if ((type == MethodMapping.Type.ARGUMENTS_CHANGE_REMOVE || type == MethodMapping.Type.ARGUMENTS_CHANGE_TYPE_CHANGE)
+                        && method.parameterTypes.isEmpty()) {
+                    return null;
+                }
+                // A method can only move to another class
+                if (type == MethodMapping.Type.REFACTORED_MOVE && classesCount < 2) return null;
+                return type;
+            }
+        }
+        return null;
+    }
+
+    private static boolean hasSignature(SyntheticClass cls, SyntheticMethod method) {
+        for (SyntheticMethod other : cls.methods) {
+            if (!other.isConstructor() && other.name.equals(method.name) && other.parameterTypes.equals(method.parameterTypes)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static class Mutation {
+        private final SyntheticCodebase original;
+        private final SyntheticCodebase mutated;
+        private final Map<Integer, MethodMapping.Type> changes;
+        private final List<Integer> added;
+
+        Mutation(SyntheticCodebase original, SyntheticCodebase mutated, Map<Integer, MethodMapping.Type> changes,
+                 List<Integer> added) {
+            this.original = original;
+            this.mutated = mutated;
+            this.changes = changes;
+            this.added = added;
+        }
+
+        public SyntheticCodebase getMutated() {
+            return mutated;
+        }
+
+        public List<Integer> getAddedMethodIds() {
+            return added;
+        }
+
+        /**
+         * Expected mapping type of an original method; methods without an injected change are identical.
+         */
+        public MethodMapping.Type getExpectedType(int methodId) {
+            return changes.getOrDefault(methodId, MethodMapping.Type.IDENTICAL);
+        }
+
+        public SyntheticCodebase getOriginal() {
+            return original;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package ca.ualberta.mehran.androidevolution.benchmark;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Writes synthetic code bases to disk in the folder layout EvolutionAnalyser expects: a comparison folder with
+ * an "old" and a "new" version in it.
+ */
+public class SyntheticWorkspace {
+
+    private static final String BASE_PACKAGE = "com.android.synthetic";
+    private static final long SEED = 42;
+
+    private final File root;
+    private final SyntheticCodebase androidOld;
+    private final SyntheticCodebase androidNew;
+    private final SyntheticCodebase modified;
+
+    public SyntheticWorkspace(Scale scale) throws IOException {
+        root = Files.createTempDirectory("android-update-analysis-bench").toFile();
+        androidOld = SyntheticCodebase.generate(BASE_PACKAGE, scale.getClassCount(), scale.getMethodsPerClass(), SEED);
+        androidNew = SyntheticMutator.defaultMix().apply(androidOld, SEED + 1).getMutated();
+        modified = SyntheticMutator.defaultMix().addedIdOffset(1_000_000).apply(androidOld, SEED + 2).getMutated();
+        writePair(getAndroidOldAndNewPath(), androidOld, androidNew);
+        writePair(getAndroidOldAndModifiedPath(), androidOld, modified);
+    }
+
+    private void writePair(String path, SyntheticCodebase oldVersion, SyntheticCodebase newVersion) {
+        oldVersion.writeTo(new File(path, "old"));
+        newVersion.writeTo(new File(path, "new"));
+    }
+
+    public File getRoot() {
+        return root;
+    }
+
+    public String getAndroidOldAndNewPath() {
+        return new File(root, "aosp").getAbsolutePath();
+    }
+
+    public String getAndroidOldAndModifiedPath() {
+        return new File(root, "modified").getAbsolutePath();
+    }
+
+    public String getOldPath(String comparisonPath) {
+        return new File(comparisonPath, "old").getAbsolutePath();
+    }
+
+    public String getNewPath(String comparisonPath) {
+        return new File(comparisonPath, "new").getAbsolutePath();
+    }
+
+    public void delete() throws IOException {
+        FileUtils.deleteDirectory(root);
+    }
+}
@@ -0,0 +1,83 @@
+package ca.ualberta.mehran.androidevolution.mapping.discovery.implementation;
+
+import ca.ualberta.mehran.androidevolution.Utils;
+import ca.ualberta.mehran.androidevolution.benchmark.Scale;
+import ca.ualberta.mehran.androidevolution.benchmark.SyntheticWorkspace;
+import ca.ualberta.mehran.androidevolution.mapping.MethodMapping;
+import ca.ualberta.mehran.androidevolution.mapping.MethodModel;
+import ca.ualberta.mehran.androidevolution.mapping.discovery.SpoonHelper;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading SourcererCC's headers and clone pairs back into mappings. The SourcererCC output is written by the
+ * benchmark from the synthetic methods, so the external tool does not need to run. Lives in this package to reach
+ * SourcererHelper's package-private steps.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SourcererCloneReadBenchmark {
+
+    @Param({"SMALL", "MEDIUM", "LARGE"})
+    private Scale scale;
+
+    private SyntheticWorkspace workspace;
+    private SourcererHelper sourcererHelper;
+    private String projectPath;
+    private String oldPath;
+    private String newPath;
+    private Map<String, MethodModel> oldMethods;
+    private Map<String, MethodModel> newMethods;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        workspace = new SyntheticWorkspace(scale);
+        projectPath = workspace.getAndroidOldAndNewPath();
+        oldPath = workspace.getOldPath(projectPath);
+        newPath = workspace.getNewPath(projectPath);
+        SpoonHelper spoonHelper = new SpoonHelper();
+        oldMethods = spoonHelper.extractAllMethodsBySignature(oldPath, new HashMap<>());
+        newMethods = spoonHelper.extractAllMethodsBySignature(newPath, new HashMap<>());
+
+        File sourcererCCPath = new File(workspace.getRoot(), "sourcerercc");
+        StringBuilder headers = new StringBuilder();
+        StringBuilder clones = new StringBuilder();
+        int blockId = 0;
+        for (String signature : oldMethods.keySet()) {
+            MethodModel oldMethod = oldMethods.get(signature);
+            headers.append(++blockId).append(",").append(oldMethod.getFilePath()).append(",")
+                    .append(oldMethod.getLineStart()).append(",").append(oldMethod.getLineEnd()).append("\n");
+            MethodModel newMethod = newMethods.get(signature);
+            if (newMethod != null) {
+                headers.append(++blockId).append(",").append(newMethod.getFilePath()).append(",")
+                        .append(newMethod.getLineStart()).append(",").append(newMethod.getLineEnd()).append("\n");
+                clones.append(blockId - 1).append(",").append(blockId).append("\n");
+            }
+        }
+        sourcererHelper = new SourcererHelper(sourcererCCPath.getAbsolutePath());
+        Utils.writeToFile(sourcererHelper.getHeadersFile(), headers.toString());
+        Utils.writeToFile(sourcererHelper.getOutputFile(), clones.toString());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        workspace.delete();
+    }
+
+    @Benchmark
+    public Map<MethodModel, MethodMapping> readClonePairs() {
+        Map<Integer, SourcererHelper.CodeBlock> oldBlocks = new HashMap<>();
+        Map<Integer, SourcererHelper.CodeBlock> newBlocks = new HashMap<>();
+        sourcererHelper.populateBlocks(projectPath, oldPath, newPath, oldBlocks, newBlocks);
+        return sourcererHelper.readClonePairs(oldMethods.values(), newMethods.values(), oldBlocks, newBlocks);
+    }
+}
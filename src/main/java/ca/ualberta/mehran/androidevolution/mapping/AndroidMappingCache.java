@@ -0,0 +1,66 @@
+package ca.ualberta.mehran.androidevolution.mapping;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static ca.ualberta.mehran.androidevolution.Utils.log;
+
+/**
+ * Old to new mappings of Android subsystems, kept for the length of a run so the proprietary projects that compare
+ * against the same Android versions only compute their own side. Entries are keyed by the folders of the two
+ * versions, which must not change while the cache is in use.
+ * <p>
+ * The cache holds at most a given number of methods. Projects go through their subsystems in the same order, so
+ * once the cache is full new entries are dropped rather than older ones evicted: evicting the least recently used
+ * entry would evict each entry just before it is needed again.
+ * <p>
+ * The cache can be shared by analyses that run at once, so the methods put in it must not be attached to a
+ * {@link SourceStore}, and are not attached to one afterwards.
+ */
+public class AndroidMappingCache {
+
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final Map<String, Object> locksByKey = new ConcurrentHashMap<>();
+    private final int maxMethodsCount;
+    private int methodsCount;
+
+    public AndroidMappingCache(int maxMethodsCount) {
+        this.maxMethodsCount = maxMethodsCount;
+    }
+
+    /**
+     * Lock to hold while the mapping of the key is discovered, so others wait for it instead of discovering it too.
+     */
+    Object getLock(String key) {
+        return locksByKey.computeIfAbsent(key, k -> new Object());
+    }
+
+    synchronized Entry get(String key) {
+        return entries.get(key);
+    }
+
+    synchronized void put(String key, Map<String, MethodModel> oldMethods, Map<String, MethodModel> newMethods,
+             Map<String, MethodMapping> mapping) {
+        int count = oldMethods.size() + newMethods.size();
+        if (entries.containsKey(key)) return;
+        if (methodsCount + count > maxMethodsCount) {
+            log("Android mapping cache is full, " + key + " is not kept");
+            return;
+        }
+        entries.put(key, new Entry(new HashMap<>(oldMethods), new HashMap<>(newMethods), new HashMap<>(mapping)));
+        methodsCount += count;
+    }
+
+    static class Entry {
+        final Map<String, MethodModel> oldMethods;
+        final Map<String, MethodModel> newMethods;
+        final Map<String, MethodMapping> mapping;
+
+        Entry(Map<String, MethodModel> oldMethods, Map<String, MethodModel> newMethods, Map<String, MethodMapping> mapping) {
+            this.oldMethods = oldMethods;
+            this.newMethods = newMethods;
+            this.mapping = mapping;
+        }
+    }
+}
@@ -1,70 +1,368 @@
 package ca.ualberta.mehran.androidevolution.mapping;
 
 import ca.ualberta.mehran.androidevolution.CSVUtils;
+import ca.ualberta.mehran.androidevolution.mapping.discovery.MethodExtractor;
 import ca.ualberta.mehran.androidevolution.mapping.discovery.SpoonHelper;
 import ca.ualberta.mehran.androidevolution.mapping.discovery.implementation.BodyChangeOnlyHelper;
 import ca.ualberta.mehran.androidevolution.mapping.discovery.implementation.ChangeDistillerHelper;
+import ca.ualberta.mehran.androidevolution.mapping.discovery.implementation.NearMissHelper;
 import ca.ualberta.mehran.androidevolution.mapping.discovery.implementation.RefactoringMinerHelper;
 import ca.ualberta.mehran.androidevolution.mapping.discovery.implementation.SourcererHelper;
+import ca.ualberta.mehran.androidevolution.mapping.output.MappingRecord;
+import ca.ualberta.mehran.androidevolution.mapping.output.MappingRecordWriter;
 
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.*;
 
+import static ca.ualberta.mehran.androidevolution.Utils.log;
+
 public class EvolutionAnalyser {
 
     private String mSourcererCCPath;
+    private MappingRecordWriter mMappingRecordWriter;
+    private ResultCache mResultCache;
+    private MethodExtractor mMethodExtractor = new SpoonHelper();
+    private NearMissHelper mNearMissHelper;
+    private AndroidMappingCache mAndroidMappingCache;
+    // Files of the analysis in progress
+    private SourceStore mSourceStore;
+    // Methods that read their bodies from mSourceStore; only ones the analysis extracted itself, never shared ones
+    private final List<MethodModel> mAttachedMethods = new ArrayList<>();
+
+    /**
+     * When set, every per-method mapping of the following runs is written to this writer as well.
+     */
+    public void setMappingRecordWriter(MappingRecordWriter mappingRecordWriter) {
+        mMappingRecordWriter = mappingRecordWriter;
+    }
+
+    /**
+     * When set, analyses of source trees that were analysed before are loaded from the cache.
+     */
+    public void setResultCache(ResultCache resultCache) {
+        mResultCache = resultCache;
+    }
+
+    /**
+     * Extractor of the methods of each version; {@link SpoonHelper} by default.
+     */
+    public void setMethodExtractor(MethodExtractor methodExtractor) {
+        mMethodExtractor = methodExtractor;
+    }
+
+    /**
+     * Matcher of the methods left unmatched by all other discoverers, or null (the default) to leave them NOT_FOUND.
+     */
+    public void setNearMissHelper(NearMissHelper nearMissHelper) {
+        mNearMissHelper = nearMissHelper;
+    }
 
-    public void run(String subsystemName,
-                    String pathAndroidOldAndNew,
-                    String pathAndroidOldAndNew_old,
-                    String pathAndroidOldAndNew_new,
-                    String pathAndroidOldAndModified,
-                    String pathAndroidOldAndModified_old,
-                    String pathAndroidOldAndModified_new,
-                    String sourcererCCPath,
-                    String outputDir) {
+    /**
+     * Cache of old to new Android mappings shared with the analysers of other projects, or null.
+     */
+    public void setAndroidMappingCache(AndroidMappingCache androidMappingCache) {
+        mAndroidMappingCache = androidMappingCache;
+    }
+
+    public IntersectionMatrix run(String subsystemName,
+                                  String pathAndroidOldAndNew,
+                                  String pathAndroidOldAndNew_old,
+                                  String pathAndroidOldAndNew_new,
+                                  String pathAndroidOldAndModified,
+                                  String pathAndroidOldAndModified_old,
+                                  String pathAndroidOldAndModified_new,
+                                  String sourcererCCPath,
+                                  String outputDir) {
+        ResultCache.Result result = analyse(subsystemName, pathAndroidOldAndNew, pathAndroidOldAndNew_old,
+                pathAndroidOldAndNew_new, pathAndroidOldAndModified, pathAndroidOldAndModified_old,
+                pathAndroidOldAndModified_new, sourcererCCPath);
+        return writeResults(subsystemName, result.getMatrix(), result.getRecords(), outputDir);
+    }
+
+    /**
+     * Same as {@link #run}, but leaves writing the results to the caller, e.g. when the results of several analyses
+     * running at once go to the same mapping records.
+     */
+    public ResultCache.Result analyse(String subsystemName,
+                                      String pathAndroidOldAndNew,
+                                      String pathAndroidOldAndNew_old,
+                                      String pathAndroidOldAndNew_new,
+                                      String pathAndroidOldAndModified,
+                                      String pathAndroidOldAndModified_old,
+                                      String pathAndroidOldAndModified_new,
+                                      String sourcererCCPath) {
         mSourcererCCPath = sourcererCCPath;
 
-        Map<String, MethodMapping> mappingAndroidOldNew = new HashMap<>();
-        Map<String, MethodMapping> mappingAndroidOldModified = new HashMap<>();
-        Map<String, MethodModel> projectOldMethods = new HashMap<>();
-        Map<String, MethodModel> projectNewMethods = new HashMap<>();
-        Map<String, MethodModel> projectModifiedMethods = new HashMap<>();
+        if (mResultCache == null) {
+            return analyseWithoutCache(subsystemName, pathAndroidOldAndNew, pathAndroidOldAndNew_old,
+                    pathAndroidOldAndNew_new, pathAndroidOldAndModified, pathAndroidOldAndModified_old,
+                    pathAndroidOldAndModified_new, null);
+        }
+        String cacheKey = mResultCache.getKey(pathAndroidOldAndNew_old, pathAndroidOldAndNew_new, pathAndroidOldAndModified_new, sourcererCCPath,
+                getAnalysisOptions());
+        // An analysis of the same inputs that is running at the same time is waited for, and its result loaded
+        synchronized (mResultCache.getLock(cacheKey)) {
+            ResultCache.Result cachedResult = mResultCache.get(cacheKey);
+            if (cachedResult != null) {
+                log("Loaded " + subsystemName + " from the result cache");
+                List<MappingRecord> records = new ArrayList<>(cachedResult.getRecords().size());
+                for (MappingRecord record : cachedResult.getRecords()) {
+                    records.add(record.withAnalysisName(subsystemName));
+                }
+                return new ResultCache.Result(cachedResult.getMatrix(), records, true);
+            }
+            return analyseWithoutCache(subsystemName, pathAndroidOldAndNew, pathAndroidOldAndNew_old,
+                    pathAndroidOldAndNew_new, pathAndroidOldAndModified, pathAndroidOldAndModified_old,
+                    pathAndroidOldAndModified_new, cacheKey);
+        }
+    }
 
-        int[] methodsCount = discoverMappings(pathAndroidOldAndNew,
-                pathAndroidOldAndNew_old,
-                pathAndroidOldAndNew_new,
-                pathAndroidOldAndModified,
-                pathAndroidOldAndModified_old,
-                pathAndroidOldAndModified_new,
-                mappingAndroidOldNew,
-                mappingAndroidOldModified,
-                projectOldMethods,
-                projectNewMethods,
-                projectModifiedMethods);
+    /**
+     * Whether {@link #analyse} of the versions would load its result from the result cache.
+     */
+    public boolean isCached(String pathAndroidOldAndNew_old,
+                            String pathAndroidOldAndNew_new,
+                            String pathAndroidOldAndModified_new,
+                            String sourcererCCPath) {
+        return mResultCache != null && mResultCache.contains(mResultCache.getKey(pathAndroidOldAndNew_old,
+                pathAndroidOldAndNew_new, pathAndroidOldAndModified_new, sourcererCCPath, getAnalysisOptions()));
+    }
 
+    /**
+     * @param cacheKey key to put the result in the result cache with, or null
+     */
+    private ResultCache.Result analyseWithoutCache(String subsystemName,
+                                                   String pathAndroidOldAndNew,
+                                                   String pathAndroidOldAndNew_old,
+                                                   String pathAndroidOldAndNew_new,
+                                                   String pathAndroidOldAndModified,
+                                                   String pathAndroidOldAndModified_old,
+                                                   String pathAndroidOldAndModified_new,
+                                                   String cacheKey) {
+        mSourceStore = new SourceStore();
+        mMethodExtractor.setSourceStore(mSourceStore);
+        try {
+            Map<String, MethodMapping> mappingAndroidOldNew = new HashMap<>();
+            Map<String, MethodMapping> mappingAndroidOldModified = new HashMap<>();
+            Map<String, MethodModel> projectOldMethods = new HashMap<>();
+            Map<String, MethodModel> projectNewMethods = new HashMap<>();
+            Map<String, MethodModel> projectModifiedMethods = new HashMap<>();
+
+            String androidMappingKey = getAndroidMappingKey(pathAndroidOldAndNew_old, pathAndroidOldAndNew_new);
+            AndroidMappingCache.Entry androidMapping = null;
+            if (mAndroidMappingCache != null) {
+                // A comparison of the same Android versions that is running at the same time is waited for
+                synchronized (mAndroidMappingCache.getLock(androidMappingKey)) {
+                    androidMapping = mAndroidMappingCache.get(androidMappingKey);
+                }
+            }
 
-//        randomSampleCategory(projectOldMethods,
-//                projectNewMethods,
-//                projectModifiedMethods,
-//                mappingAndroidOldNew,
-//                mappingAndroidOldModified, MethodMapping.Type.BODY_CHANGE_ONLY, MethodMapping.Type.BODY_CHANGE_ONLY, 20);
+            int[] methodsCount = discoverMappings(androidMapping,
+                    pathAndroidOldAndNew,
+                    pathAndroidOldAndNew_old,
+                    pathAndroidOldAndNew_new,
+                    pathAndroidOldAndModified,
+                    pathAndroidOldAndModified_old,
+                    pathAndroidOldAndModified_new,
+                    mappingAndroidOldNew,
+                    mappingAndroidOldModified,
+                    projectOldMethods,
+                    projectNewMethods,
+                    projectModifiedMethods);
+
+
+//            randomSampleCategory(projectOldMethods,
+//                    projectNewMethods,
+//                    projectModifiedMethods,
+//                    mappingAndroidOldNew,
+//                    mappingAndroidOldModified, MethodMapping.Type.BODY_CHANGE_ONLY, MethodMapping.Type.BODY_CHANGE_ONLY, 20);
+
+            IntersectionMatrix stats = generateIntersectionsOfMappings(projectOldMethods,
+                    projectNewMethods,
+                    projectModifiedMethods,
+                    mappingAndroidOldNew,
+                    mappingAndroidOldModified);
+            stats.setMethodsCount(methodsCount[0], methodsCount[1], methodsCount[2]);
+            List<MappingRecord> records = collectMappingRecords(subsystemName,
+                    pathAndroidOldAndNew_old,
+                    pathAndroidOldAndNew_new,
+                    pathAndroidOldAndModified_new,
+                    projectOldMethods,
+                    projectNewMethods,
+                    projectModifiedMethods,
+                    mappingAndroidOldNew,
+                    mappingAndroidOldModified);
+            // Before the Android methods are shared through the cache
+            detachSources();
+            if (mAndroidMappingCache != null && androidMapping == null) {
+                mAndroidMappingCache.put(androidMappingKey, projectOldMethods, projectNewMethods, mappingAndroidOldNew);
+            }
+            if (cacheKey != null) {
+                mResultCache.put(cacheKey, stats, records);
+            }
+            return new ResultCache.Result(stats, records);
+        } finally {
+            endAnalysis();
+        }
+    }
 
-        Map<MethodMapping.Type, Map<MethodMapping.Type, List<Integer>>> stats = generateIntersectionsOfMappings(projectOldMethods,
-                projectNewMethods,
-                projectModifiedMethods,
-                mappingAndroidOldNew,
-                mappingAndroidOldModified);
-        writeToOutput(methodsCount[0], methodsCount[1], methodsCount[2], stats, new File(outputDir, subsystemName + ".csv").getAbsolutePath());
+    /**
+     * Discovers the old to new mapping of two Android versions and keeps it in the Android mapping cache, for the
+     * analyses of the proprietary projects that compare against them. Does nothing without a cache, or if the
+     * mapping is there already.
+     *
+     * @return whether the versions were compared
+     */
+    public boolean compareAndroidVersions(String pathAndroidOldAndNew,
+                                          String pathAndroidOldAndNew_old,
+                                          String pathAndroidOldAndNew_new,
+                                          String sourcererCCPath) {
+        if (mAndroidMappingCache == null) return false;
+        String androidMappingKey = getAndroidMappingKey(pathAndroidOldAndNew_old, pathAndroidOldAndNew_new);
+        // A comparison of the same versions that is running at the same time is waited for instead of repeated
+        synchronized (mAndroidMappingCache.getLock(androidMappingKey)) {
+            if (mAndroidMappingCache.get(androidMappingKey) != null) return false;
+            mSourcererCCPath = sourcererCCPath;
+            mSourceStore = new SourceStore();
+            mMethodExtractor.setSourceStore(mSourceStore);
+            try {
+                Map<String, String> classesByQualifiedName_old = new HashMap<>();
+                Map<String, String> classesByQualifiedName_new = new HashMap<>();
+                Map<String, MethodModel> methodsBySignature_old = mMethodExtractor.extractAllMethodsBySignature(pathAndroidOldAndNew_old, classesByQualifiedName_old);
+                Map<String, MethodModel> methodsBySignature_new = mMethodExtractor.extractAllMethodsBySignature(pathAndroidOldAndNew_new, classesByQualifiedName_new);
+                attachSources(methodsBySignature_old.values());
+                attachSources(methodsBySignature_new.values());
+                Map<String, MethodMapping> mapping = discoverMappingForProject(pathAndroidOldAndNew,
+                        pathAndroidOldAndNew_old,
+                        pathAndroidOldAndNew_new,
+                        methodsBySignature_old,
+                        methodsBySignature_new,
+                        classesByQualifiedName_old,
+                        classesByQualifiedName_new);
+                detachSources();
+                mAndroidMappingCache.put(androidMappingKey, methodsBySignature_old, methodsBySignature_new, mapping);
+                return true;
+            } finally {
+                endAnalysis();
+            }
+        }
     }
 
+    /**
+     * Has methods that this analysis extracted read their bodies from its source store.
+     */
+    private void attachSources(Collection<MethodModel> methods) {
+        MethodModel.attachSources(methods, mSourceStore);
+        mAttachedMethods.addAll(methods);
+    }
 
-    private void writeToOutput(int projectOldMethodsCount, int projectNewMethodsCount,
-                               int projectModifiedMethodsCount,
-                               Map<MethodMapping.Type, Map<MethodMapping.Type, List<Integer>>> stats,
-                               String outputPath) {
+    private void detachSources() {
+        MethodModel.detachSources(mAttachedMethods);
+        mAttachedMethods.clear();
+    }
+
+    private void endAnalysis() {
+        detachSources();
+        // The next analysis may have other files at the same paths
+        mMethodExtractor.setSourceStore(null);
+        mSourceStore = null;
+    }
+
+    private String getAndroidMappingKey(String pathAndroidOldAndNew_old, String pathAndroidOldAndNew_new) {
+        return pathAndroidOldAndNew_old + "|" + pathAndroidOldAndNew_new + "|" + getAnalysisOptions();
+    }
+
+    /**
+     * @return the options the results depend on, e.g. the method extractor
+     */
+    public String getAnalysisOptions() {
+        String options = mMethodExtractor.getClass().getSimpleName();
+        if (mNearMissHelper != null) {
+            options += ",near-miss:" + mNearMissHelper.getThreshold();
+        }
+        return options;
+    }
+
+    private IntersectionMatrix writeResults(String subsystemName, IntersectionMatrix stats, List<MappingRecord> records, String outputDir) {
+        writeToOutput(stats, new File(outputDir, subsystemName + ".csv").getAbsolutePath());
+        if (mMappingRecordWriter != null) {
+            try {
+                for (MappingRecord record : records) {
+                    mMappingRecordWriter.write(record);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return stats;
+    }
+
+    private List<MappingRecord> collectMappingRecords(String subsystemName,
+                                     String pathAndroidOld,
+                                     String pathAndroidNew,
+                                     String pathModified,
+                                     Map<String, MethodModel> projectOldMethods,
+                                     Map<String, MethodModel> projectNewMethods,
+                                     Map<String, MethodModel> projectModifiedMethods,
+                                     Map<String, MethodMapping> mappingAndroidOldNew,
+                                     Map<String, MethodMapping> mappingAndroidOldModified) {
+        List<MappingRecord> records = new ArrayList<>();
+        for (Map.Entry<String, MethodModel> oldMethod : projectOldMethods.entrySet()) {
+            MethodMapping oldNewMapping = mappingAndroidOldNew.get(oldMethod.getKey());
+            MethodMapping oldModifiedMapping = mappingAndroidOldModified.get(oldMethod.getKey());
+            MethodModel newMethod = oldNewMapping == null ? null : oldNewMapping.getDestinationMethod();
+            MethodModel modifiedMethod = oldModifiedMapping == null ? null : oldModifiedMapping.getDestinationMethod();
+            records.add(new MappingRecord(subsystemName, oldMethod.getKey(),
+                    relativePath(pathAndroidOld, oldMethod.getValue()),
+                    oldMethod.getValue().getLineStart(), oldMethod.getValue().getLineEnd(),
+                    oldNewMapping == null ? MethodMapping.Type.NOT_FOUND : oldNewMapping.getType(),
+                    newMethod == null ? null : newMethod.getUMLFormSignature(),
+                    newMethod == null ? -1 : newMethod.getLineStart(), newMethod == null ? -1 : newMethod.getLineEnd(),
+                    oldModifiedMapping == null ? MethodMapping.Type.NOT_FOUND : oldModifiedMapping.getType(),
+                    modifiedMethod == null ? null : modifiedMethod.getUMLFormSignature(),
+                    modifiedMethod == null ? -1 : modifiedMethod.getLineStart(), modifiedMethod == null ? -1 : modifiedMethod.getLineEnd()));
+        }
+
+        // New methods; the ones added to both versions share a record
+        Set<String> addedToModified = new HashSet<>(projectModifiedMethods.keySet());
+        for (MethodMapping mapping : mappingAndroidOldModified.values()) {
+            addedToModified.remove(mapping.getDestinationMethod().toString());
+        }
+        Set<String> addedToNew = new HashSet<>(projectNewMethods.keySet());
+        for (MethodMapping mapping : mappingAndroidOldNew.values()) {
+            addedToNew.remove(mapping.getDestinationMethod().toString());
+        }
+        for (String signature : addedToNew) {
+            MethodModel newMethod = projectNewMethods.get(signature);
+            MethodModel modifiedMethod = addedToModified.remove(signature) ? projectModifiedMethods.get(signature) : null;
+            records.add(new MappingRecord(subsystemName, null,
+                    relativePath(pathAndroidNew, newMethod), -1, -1,
+                    MethodMapping.Type.ADDED, signature, newMethod.getLineStart(), newMethod.getLineEnd(),
+                    modifiedMethod == null ? null : MethodMapping.Type.ADDED,
+                    modifiedMethod == null ? null : signature,
+                    modifiedMethod == null ? -1 : modifiedMethod.getLineStart(), modifiedMethod == null ? -1 : modifiedMethod.getLineEnd()));
+        }
+        for (String signature : addedToModified) {
+            MethodModel modifiedMethod = projectModifiedMethods.get(signature);
+            records.add(new MappingRecord(subsystemName, null,
+                    relativePath(pathModified, modifiedMethod), -1, -1,
+                    null, null, -1, -1,
+                    MethodMapping.Type.ADDED, signature, modifiedMethod.getLineStart(), modifiedMethod.getLineEnd()));
+        }
+        return records;
+    }
+
+    private String relativePath(String rootPath, MethodModel method) {
+        String filePath = method.getFilePath();
+        if (filePath == null) return null;
+        String root = new File(rootPath).getAbsolutePath();
+        return filePath.startsWith(root) ? filePath.substring(root.length()) : filePath;
+    }
+
+
+    public void writeToOutput(IntersectionMatrix stats, String outputPath) {
         try {
             File outputFile = new File(outputPath);
             if (!outputFile.exists()) {
@@ -74,14 +372,18 @@ public class EvolutionAnalyser {
 
             FileWriter outputWriter = new FileWriter(outputPath);
 
-            CSVUtils.writeLine(outputWriter, Arrays.asList(String.valueOf(projectOldMethodsCount),
-                    String.valueOf(projectNewMethodsCount), String.valueOf(projectModifiedMethodsCount)));
+            CSVUtils.writeLine(outputWriter, Arrays.asList(String.valueOf(stats.getOldMethodsCount()),
+                    String.valueOf(stats.getNewMethodsCount()), String.valueOf(stats.getModifiedMethodsCount())));
 
             MethodMapping.Type[] types = new MethodMapping.Type[]{MethodMapping.Type.IDENTICAL,
                     MethodMapping.Type.REFACTORED_MOVE, MethodMapping.Type.REFACTORED_RENAME, MethodMapping.Type.REFACTORED_INLINE, MethodMapping.Type.REFACTORED_EXTRACT, MethodMapping.Type.REFACTORED_ARGUMENTS_RENAME, MethodMapping.Type.REFACTORED_ARGUMENTS_REORDER,
                     MethodMapping.Type.ARGUMENTS_CHANGE_ADD, MethodMapping.Type.ARGUMENTS_CHANGE_REMOVE, MethodMapping.Type.ARGUMENTS_CHANGE_TYPE_CHANGE,
                     MethodMapping.Type.BODY_CHANGE_ONLY, MethodMapping.Type.NOT_FOUND};//,
 //                    MethodMapping.Type.ADDED};
+            if (mNearMissHelper != null) {
+                types = Arrays.copyOf(types, types.length + 1);
+                types[types.length - 1] = MethodMapping.Type.NEAR_MISS;
+            }
 
             List<String> typesString = new ArrayList<>();
             for (MethodMapping.Type type : types) {
@@ -89,17 +391,11 @@ public class EvolutionAnalyser {
             }
             CSVUtils.writeLine(outputWriter, typesString);
             for (MethodMapping.Type type : types) {
-                Map<MethodMapping.Type, List<Integer>> thisTypeStats = stats.getOrDefault(type, new HashMap<>());
                 int total = 0;
                 List<String> catStats = new ArrayList<>();
                 for (MethodMapping.Type type1 : types) {
-                    int intersectionCount = 0;
-                    int purgedCount = 0;
-                    try {
-                        intersectionCount = thisTypeStats.get(type1).get(0);
-                        purgedCount = thisTypeStats.get(type1).get(1);
-                    } catch (Exception e) {
-                    }
+                    int intersectionCount = stats.getIntersection(type, type1);
+                    int purgedCount = stats.getPurged(type, type1);
                     catStats.add(purgedCount == 0 ?
                             String.valueOf(intersectionCount) :
                             String.valueOf(intersectionCount) + "(" + purgedCount + ")");
@@ -109,11 +405,9 @@ public class EvolutionAnalyser {
                 CSVUtils.writeLine(outputWriter, catStats);
             }
             CSVUtils.writeLine(outputWriter, Arrays.asList(new String[]{"New methods in new AOSP", "New methods in proprietary", "New methods in both"}));
-            Map<MethodMapping.Type, List<Integer>> addedStats = stats.get(MethodMapping.Type.ADDED);
-            int identicalMutualNewMethods = addedStats.get(MethodMapping.Type.ADDED).get(1);
-            CSVUtils.writeLine(outputWriter, Arrays.asList(String.valueOf(addedStats.get(MethodMapping.Type.NOT_FOUND).get(0)), // New methods in new project
-                    String.valueOf(addedStats.get(MethodMapping.Type.OTHER).get(0)), // New methods in modified project
-                    String.valueOf(addedStats.get(MethodMapping.Type.ADDED).get(0)) + "(" + identicalMutualNewMethods + ")")); // Mutual new methods
+            CSVUtils.writeLine(outputWriter, Arrays.asList(String.valueOf(stats.getNewMethodsInNew()), // New methods in new project
+                    String.valueOf(stats.getNewMethodsInModified()), // New methods in modified project
+                    String.valueOf(stats.getMutualNewMethods()) + "(" + stats.getIdenticalMutualNewMethods() + ")")); // Mutual new methods
             outputWriter.flush();
             outputWriter.close();
         } catch (IOException e) {
@@ -123,142 +417,145 @@ public class EvolutionAnalyser {
 
     }
 
-    private Map<MethodMapping.Type, Map<MethodMapping.Type, List<Integer>>> generateIntersectionsOfMappings(Map<String, MethodModel> projectOldMethods,
-                                                                                                            Map<String, MethodModel> projectNewMethods,
-                                                                                                            Map<String, MethodModel> projectModifiedMethods,
-                                                                                                            Map<String, MethodMapping> mappingAndroidOldNew,
-                                                                                                            Map<String, MethodMapping> mappingAndroidOldModified) {
-        Map<MethodMapping.Type, Collection<String>> mappingOldNewStats = categorizeMappingTypes(mappingAndroidOldNew);
-//        Map<MethodMapping.Type, Collection<MethodModel>> mappingOldModifiedStats = categorizeMappingTypes(mappingAndroidOldModified);
+    private IntersectionMatrix generateIntersectionsOfMappings(Map<String, MethodModel> projectOldMethods,
+                                                               Map<String, MethodModel> projectNewMethods,
+                                                               Map<String, MethodModel> projectModifiedMethods,
+                                                               Map<String, MethodMapping> mappingAndroidOldNew,
+                                                               Map<String, MethodMapping> mappingAndroidOldModified) {
+        IntersectionMatrix matrix = new IntersectionMatrix();
+
+        // Old methods get dense ids, and each mapping type becomes a bitset of those ids
+        MethodIndex oldIndex = new MethodIndex();
+        BitSet oldMethods = oldIndex.addAll(projectOldMethods.keySet());
+        Map<MethodMapping.Type, BitSet> mappingOldNewStats = indexMappingTypes(oldIndex, mappingAndroidOldNew);
+        Map<MethodMapping.Type, BitSet> mappingOldModifiedStats = indexMappingTypes(oldIndex, mappingAndroidOldModified);
+
+        // Methods with no mapping to the modified version count as NOT_FOUND
+        BitSet notFoundInModified = new BitSet();
+        notFoundInModified.set(0, oldIndex.size());
+        for (BitSet mapped : mappingOldModifiedStats.values()) {
+            notFoundInModified.andNot(mapped);
+        }
+        if (mappingOldModifiedStats.containsKey(MethodMapping.Type.NOT_FOUND)) {
+            notFoundInModified.or(mappingOldModifiedStats.get(MethodMapping.Type.NOT_FOUND));
+        }
+        mappingOldModifiedStats.put(MethodMapping.Type.NOT_FOUND, notFoundInModified);
 
-        Map<MethodMapping.Type, Map<MethodMapping.Type, List<Integer>>> oldNewAndModifiedIntersectionMap = new HashMap<>();
+        BitSet intersection = new BitSet(oldIndex.size());
+        BitSet mappedInNew = new BitSet(oldIndex.size());
         for (MethodMapping.Type oldNewType : mappingOldNewStats.keySet()) {
-            Collection<String> thisTypeMethods = mappingOldNewStats.get(oldNewType);
-            Map<MethodMapping.Type, Collection<String>> thisTypeMappingForModified = filterMethodMapping(mappingAndroidOldModified, thisTypeMethods);
-
-            // Purge duplicate changes
-            int purgedMutualMethods = 0;
-            if (oldNewType != MethodMapping.Type.IDENTICAL && thisTypeMappingForModified.containsKey(oldNewType)) {
-                Collection<String> genuineChangesMethodsIntersection = new HashSet<>();
-                for (String mutualOldMethod : thisTypeMappingForModified.get(oldNewType)) {
-                    MethodMapping oldNewMapping = mappingAndroidOldNew.get(mutualOldMethod);
-                    MethodMapping oldManipulatedMapping = mappingAndroidOldModified.get(mutualOldMethod);
-                    if (oldNewMapping != null && oldManipulatedMapping != null && oldNewMapping.equals(oldManipulatedMapping)) {
-                        purgedMutualMethods++;
-                    } else if (oldNewMapping != null && oldManipulatedMapping != null) { // Manual inspection
-                        genuineChangesMethodsIntersection.add(mutualOldMethod);
-                    }
-                }
-//                randomSample(genuineChangesMethodsIntersection, 20, projectOldMethods, projectNewMethods,
-//                        projectModifiedMethods, mappingAndroidOldNew, mappingAndroidOldModified);
-            }
-
-            Map<MethodMapping.Type, List<Integer>> thisTypeStatsForModified = new HashMap<>();
-            for (MethodMapping.Type newModifiedType : thisTypeMappingForModified.keySet()) {
-                // Random sample
-//                if ((type == MethodMapping.Type.IDENTICAL || type == MethodMapping.Type.NOT_FOUND) && type1 == MethodMapping.Type.NOT_FOUND) {
-//                    randomSample(thisTypeMappingForModified.get(type1), 20, projectOldMethods, projectNewMethods,
-//                            projectModifiedMethods, mappingAndroidOldNew, mappingAndroidOldModified);
-//                }
-                int intersectionCount = thisTypeMappingForModified.get(newModifiedType).size();
+            BitSet thisTypeMethods = mappingOldNewStats.get(oldNewType);
+            mappedInNew.or(thisTypeMethods);
+            for (MethodMapping.Type newModifiedType : mappingOldModifiedStats.keySet()) {
+                intersection.clear();
+                intersection.or(thisTypeMethods);
+                intersection.and(mappingOldModifiedStats.get(newModifiedType));
+                int intersectionCount = intersection.cardinality();
+                if (intersectionCount == 0) continue;
+
+                // Purge duplicate changes
+                int purgedMutualMethods = 0;
                 if (newModifiedType != MethodMapping.Type.IDENTICAL && newModifiedType == oldNewType) {
-                    List<Integer> countList = new ArrayList<>();
-                    countList.add(intersectionCount - purgedMutualMethods);
-                    countList.add(purgedMutualMethods);
-                    thisTypeStatsForModified.put(newModifiedType, countList);
-                } else {
-                    thisTypeStatsForModified.put(newModifiedType, Arrays.asList(intersectionCount));
+                    purgedMutualMethods = countDuplicateChanges(intersection, oldIndex, mappingAndroidOldNew, mappingAndroidOldModified);
                 }
+                matrix.add(oldNewType, newModifiedType, intersectionCount - purgedMutualMethods, purgedMutualMethods);
             }
-            oldNewAndModifiedIntersectionMap.put(oldNewType, thisTypeStatsForModified);
         }
 
         // Identify deleted methods
-        Map<MethodMapping.Type, List<Integer>> notFoundMethods = new HashMap<>();
-        for (String methodModel : projectOldMethods.keySet()) {
-            if (!mappingAndroidOldNew.containsKey(methodModel)) {
-                MethodMapping.Type modifiedType = MethodMapping.Type.NOT_FOUND;
-                if (mappingAndroidOldModified.containsKey(methodModel)) {
-                    modifiedType = mappingAndroidOldModified.get(methodModel).getType();
-                }
-                if (!notFoundMethods.containsKey(modifiedType)) {
-                    notFoundMethods.put(modifiedType, new ArrayList<>());
-                    notFoundMethods.get(modifiedType).add(0);
-                }
-                int count = notFoundMethods.get(modifiedType).get(0) + 1;
-                notFoundMethods.get(modifiedType).clear();
-                notFoundMethods.get(modifiedType).add(count);
-//                if (modifiedType == MethodMapping.Type.NOT_FOUND) {
-//                    System.out.println(methodModel);
-//                    System.out.println("AO: " + projectOldMethods.get(methodModel).getFilePath());
-//                    System.out.println("AN: Deleted");
-//                    System.out.println("CM: Deleted");
-//                    System.out.println("--------------------------");
-//                }
-            }
+        BitSet deletedMethods = (BitSet) oldMethods.clone();
+        deletedMethods.andNot(mappedInNew);
+        matrix.clearRow(MethodMapping.Type.NOT_FOUND);
+        for (MethodMapping.Type modifiedType : mappingOldModifiedStats.keySet()) {
+            intersection.clear();
+            intersection.or(deletedMethods);
+            intersection.and(mappingOldModifiedStats.get(modifiedType));
+            matrix.add(MethodMapping.Type.NOT_FOUND, modifiedType, intersection.cardinality(), 0);
         }
-        oldNewAndModifiedIntersectionMap.put(MethodMapping.Type.NOT_FOUND, notFoundMethods);
 
         // Identify new methods
-        Collection<String> newMethodsInProjectNew = filterUnmatchedMethods(projectNewMethods.keySet(),
-                getStringListOfDestinationMethods(mappingAndroidOldNew.values()));
-        Collection<String> newMethodsInProjectModified = filterUnmatchedMethods(projectModifiedMethods.keySet(),
-                getStringListOfDestinationMethods(mappingAndroidOldModified.values()));
-        int mutualNewMethods = 0;
-        int identicalMutualNewMethods = 0;
-        for (String newProjectNewMethod : newMethodsInProjectNew) {
-            if (newMethodsInProjectModified.contains(newProjectNewMethod)) {
-                mutualNewMethods++;
-                if (projectNewMethods.containsKey(newProjectNewMethod) && projectModifiedMethods.containsKey(newProjectNewMethod)) {
-                    if (projectNewMethods.get(newProjectNewMethod).readFromFile().equals(projectModifiedMethods.get(newProjectNewMethod).readFromFile())) {
-                        identicalMutualNewMethods++;
-                    }
-                }
-            }
+        MethodIndex newIndex = new MethodIndex();
+        BitSet newMethodsInProjectNew = newIndex.addAll(projectNewMethods.keySet());
+        BitSet newMethodsInProjectModified = newIndex.addAll(projectModifiedMethods.keySet());
+        newMethodsInProjectNew.andNot(indexDestinationMethods(newIndex, mappingAndroidOldNew.values()));
+        newMethodsInProjectModified.andNot(indexDestinationMethods(newIndex, mappingAndroidOldModified.values()));
+
+        BitSet mutualNewMethods = (BitSet) newMethodsInProjectNew.clone();
+        mutualNewMethods.and(newMethodsInProjectModified);
+        List<MethodModel[]> mutualNewMethodPairs = new ArrayList<>();
+        for (int id = mutualNewMethods.nextSetBit(0); id >= 0; id = mutualNewMethods.nextSetBit(id + 1)) {
+            String newProjectNewMethod = newIndex.get(id);
+            mutualNewMethodPairs.add(new MethodModel[]{projectNewMethods.get(newProjectNewMethod), projectModifiedMethods.get(newProjectNewMethod)});
         }
-        Map<MethodMapping.Type, List<Integer>> newMethods = new HashMap<>();
-        newMethods.put(MethodMapping.Type.ADDED, Arrays.asList(mutualNewMethods - identicalMutualNewMethods, identicalMutualNewMethods));
-        newMethods.put(MethodMapping.Type.NOT_FOUND, Arrays.asList(newMethodsInProjectNew.size())); // Bad notation, just to save the data
-        newMethods.put(MethodMapping.Type.OTHER, Arrays.asList(newMethodsInProjectModified.size()));// Bad notation, just to save the data
-        oldNewAndModifiedIntersectionMap.put(MethodMapping.Type.ADDED, newMethods);
+        int identicalMutualNewMethods = countIdenticalBodies(mutualNewMethodPairs);
+        matrix.setNewMethods(newMethodsInProjectNew.cardinality(), newMethodsInProjectModified.cardinality(),
+                mutualNewMethods.cardinality() - identicalMutualNewMethods, identicalMutualNewMethods);
 
-        return oldNewAndModifiedIntersectionMap;
+        return matrix;
     }
 
-    private Collection<String> filterUnmatchedMethods(Collection<String> allMethods, Collection<String> matchedMethods) {
-        Collection<String> results = new HashSet<>();
-        results.addAll(allMethods);
-        results.removeAll(matchedMethods);
-        return results;
+    private int countDuplicateChanges(BitSet mutualOldMethods,
+                                      MethodIndex oldIndex,
+                                      Map<String, MethodMapping> mappingAndroidOldNew,
+                                      Map<String, MethodMapping> mappingAndroidOldModified) {
+        List<MethodMapping[]> mutualMappings = new ArrayList<>();
+        Collection<MethodModel> destinationMethods = new ArrayList<>();
+        for (int id = mutualOldMethods.nextSetBit(0); id >= 0; id = mutualOldMethods.nextSetBit(id + 1)) {
+            String mutualOldMethod = oldIndex.get(id);
+            MethodMapping oldNewMapping = mappingAndroidOldNew.get(mutualOldMethod);
+            MethodMapping oldManipulatedMapping = mappingAndroidOldModified.get(mutualOldMethod);
+            if (oldNewMapping != null && oldManipulatedMapping != null) {
+                mutualMappings.add(new MethodMapping[]{oldNewMapping, oldManipulatedMapping});
+                destinationMethods.add(oldNewMapping.getDestinationMethod());
+                destinationMethods.add(oldManipulatedMapping.getDestinationMethod());
+            }
+        }
+        // Bodies are hashed once up front, so most comparisons do not touch the files
+        MethodModel.precomputeBodyHashes(destinationMethods);
+        return (int) mutualMappings.parallelStream()
+                .filter(mappings -> mappings[0].equals(mappings[1]))
+                .count();
     }
 
-    private Map<MethodMapping.Type, Collection<String>> categorizeMappingTypes(Map<String, MethodMapping> mapping) {
-        Map<MethodMapping.Type, Collection<String>> result = new HashMap<>();
+    private int countIdenticalBodies(List<MethodModel[]> methodPairs) {
+        Collection<MethodModel> methods = new ArrayList<>();
+        for (MethodModel[] methodPair : methodPairs) {
+            methods.addAll(Arrays.asList(methodPair));
+        }
+        MethodModel.precomputeBodyHashes(methods);
+        return (int) methodPairs.parallelStream()
+                .filter(methodPair -> methodPair[0].getBodyHash() == methodPair[1].getBodyHash() &&
+                        methodPair[0].readFromFile().equals(methodPair[1].readFromFile()))
+                .count();
+    }
 
-        for (String methodModel : mapping.keySet()) {
-            MethodMapping.Type mappingType = mapping.get(methodModel).getType();
-            if (!result.containsKey(mappingType)) {
-                result.put(mappingType, new HashSet<>());
-            }
-            result.get(mappingType).add(methodModel);
+    private Map<MethodMapping.Type, BitSet> indexMappingTypes(MethodIndex index, Map<String, MethodMapping> mapping) {
+        Map<MethodMapping.Type, BitSet> result = new EnumMap<>(MethodMapping.Type.class);
+        for (Map.Entry<String, MethodMapping> entry : mapping.entrySet()) {
+            result.computeIfAbsent(entry.getValue().getType(), type -> new BitSet()).set(index.add(entry.getKey()));
         }
+        return result;
+    }
 
+    private BitSet indexDestinationMethods(MethodIndex index, Collection<MethodMapping> methodMappingList) {
+        BitSet result = new BitSet();
+        for (MethodMapping methodMapping : methodMappingList) {
+            result.set(index.add(methodMapping.getDestinationMethod().toString()));
+        }
         return result;
     }
 
-    private Map<MethodMapping.Type, Collection<String>> filterMethodMapping(Map<String, MethodMapping> mapping,
-                                                                            Collection<String> methodsToFilter) {
+    private Map<MethodMapping.Type, Collection<String>> categorizeMappingTypes(Map<String, MethodMapping> mapping) {
         Map<MethodMapping.Type, Collection<String>> result = new HashMap<>();
-        for (String methodModel : methodsToFilter) {
-            MethodMapping.Type mappingType = MethodMapping.Type.NOT_FOUND;
-            if (mapping.containsKey(methodModel)) {
-                mappingType = mapping.get(methodModel).getType();
-            }
+
+        for (String methodModel : mapping.keySet()) {
+            MethodMapping.Type mappingType = mapping.get(methodModel).getType();
             if (!result.containsKey(mappingType)) {
                 result.put(mappingType, new HashSet<>());
             }
             result.get(mappingType).add(methodModel);
         }
+
         return result;
     }
 
@@ -275,7 +572,11 @@ public class EvolutionAnalyser {
     }
 
 
-    private int[] discoverMappings(String pathAndroidOldAndNew, String pathAndroidOldAndNew_old,
+    /**
+     * @param androidMapping old to new mapping of an earlier analysis of the same Android versions, or null
+     */
+    private int[] discoverMappings(AndroidMappingCache.Entry androidMapping,
+                                   String pathAndroidOldAndNew, String pathAndroidOldAndNew_old,
                                    String pathAndroidOldAndNew_new,
                                    String pathAndroidOldAndModified,
                                    String pathAndroidOldAndModified_old,
@@ -291,11 +592,25 @@ public class EvolutionAnalyser {
         Map<String, String> classesByQualifiedNameAndroidOldAndModified_old = new HashMap<>();
         Map<String, String> classesByQualifiedNameAndroidOldAndModified_new = new HashMap<>();
 
-        SpoonHelper spoonHelper = new SpoonHelper();
-        Map<String, MethodModel> methodsBySignatureAndroidOldAndNew_old = spoonHelper.extractAllMethodsBySignature(pathAndroidOldAndNew_old, classesByQualifiedNameAndroidOldAndNew_old);
-        Map<String, MethodModel> methodsBySignatureAndroidOldAndNew_new = spoonHelper.extractAllMethodsBySignature(pathAndroidOldAndNew_new, classesByQualifiedNameAndroidOldAndNew_new);
-        Map<String, MethodModel> methodsBySignatureAndroidOldAndModified_old = spoonHelper.extractAllMethodsBySignature(pathAndroidOldAndModified_old, classesByQualifiedNameAndroidOldAndModified_old);
-        Map<String, MethodModel> methodsBySignatureAndroidOldAndModified_new = spoonHelper.extractAllMethodsBySignature(pathAndroidOldAndModified_new, classesByQualifiedNameAndroidOldAndModified_new);
+        Map<String, MethodModel> methodsBySignatureAndroidOldAndNew_old;
+        Map<String, MethodModel> methodsBySignatureAndroidOldAndNew_new;
+        if (androidMapping != null) {
+            log("Reusing the mapping of " + pathAndroidOldAndNew);
+            methodsBySignatureAndroidOldAndNew_old = androidMapping.oldMethods;
+            methodsBySignatureAndroidOldAndNew_new = androidMapping.newMethods;
+        } else {
+            methodsBySignatureAndroidOldAndNew_old = mMethodExtractor.extractAllMethodsBySignature(pathAndroidOldAndNew_old, classesByQualifiedNameAndroidOldAndNew_old);
+            methodsBySignatureAndroidOldAndNew_new = mMethodExtractor.extractAllMethodsBySignature(pathAndroidOldAndNew_new, classesByQualifiedNameAndroidOldAndNew_new);
+        }
+        Map<String, MethodModel> methodsBySignatureAndroidOldAndModified_old = mMethodExtractor.extractAllMethodsBySignature(pathAndroidOldAndModified_old, classesByQualifiedNameAndroidOldAndModified_old);
+        Map<String, MethodModel> methodsBySignatureAndroidOldAndModified_new = mMethodExtractor.extractAllMethodsBySignature(pathAndroidOldAndModified_new, classesByQualifiedNameAndroidOldAndModified_new);
+        // Models of a cached mapping are shared with other analyses, so they read their bodies from their files
+        if (androidMapping == null) {
+            attachSources(methodsBySignatureAndroidOldAndNew_old.values());
+            attachSources(methodsBySignatureAndroidOldAndNew_new.values());
+        }
+        attachSources(methodsBySignatureAndroidOldAndModified_old.values());
+        attachSources(methodsBySignatureAndroidOldAndModified_new.values());
         projectOldMethods.putAll(methodsBySignatureAndroidOldAndNew_old);
         projectNewMethods.putAll(methodsBySignatureAndroidOldAndNew_new);
         projectModifiedMethods.putAll(methodsBySignatureAndroidOldAndModified_new);
@@ -303,13 +618,17 @@ public class EvolutionAnalyser {
         mappingAndroidOldNew.clear();
         mappingAndroidOldModified.clear();
 
-        mappingAndroidOldNew.putAll(discoverMappingForProject(pathAndroidOldAndNew,
-                pathAndroidOldAndNew_old,
-                pathAndroidOldAndNew_new,
-                methodsBySignatureAndroidOldAndNew_old,
-                methodsBySignatureAndroidOldAndNew_new,
-                classesByQualifiedNameAndroidOldAndNew_old,
-                classesByQualifiedNameAndroidOldAndNew_new));
+        if (androidMapping != null) {
+            mappingAndroidOldNew.putAll(androidMapping.mapping);
+        } else {
+            mappingAndroidOldNew.putAll(discoverMappingForProject(pathAndroidOldAndNew,
+                    pathAndroidOldAndNew_old,
+                    pathAndroidOldAndNew_new,
+                    methodsBySignatureAndroidOldAndNew_old,
+                    methodsBySignatureAndroidOldAndNew_new,
+                    classesByQualifiedNameAndroidOldAndNew_old,
+                    classesByQualifiedNameAndroidOldAndNew_new));
+        }
         mappingAndroidOldModified.putAll(discoverMappingForProject(pathAndroidOldAndModified,
                 pathAndroidOldAndModified_old,
                 pathAndroidOldAndModified_new,
@@ -359,7 +678,7 @@ public class EvolutionAnalyser {
 
         mapping = combineMappings(mapping, refactoringMapping);
         // Identify argument changes
-        ChangeDistillerHelper changeDistillerHelper = new ChangeDistillerHelper();
+        ChangeDistillerHelper changeDistillerHelper = new ChangeDistillerHelper(mSourceStore);
         Map<MethodModel, MethodMapping> changeDistillerMapping = changeDistillerHelper.identifyMethodArgumentChanges(
                 projectOldPath,
                 projectNewPath,
@@ -379,6 +698,15 @@ public class EvolutionAnalyser {
 
         mapping = combineMappings(mapping, bodyChangeOnlyMapping);
 
+        // Identify methods with changes in both signature and body
+        if (mNearMissHelper != null) {
+            Map<MethodModel, MethodMapping> nearMissMapping = mNearMissHelper.identifyNearMissMethods(
+                    removeEntities(projectOldMethodsMap.values(), mapping.keySet()),
+                    removeEntities(projectNewMethodsMap.values(), getListOfDestinationMethods(mapping.values())));
+
+            mapping = combineMappings(mapping, nearMissMapping);
+        }
+
         Map<String, MethodMapping> result = new HashMap<>();
         for (MethodModel methodModel : mapping.keySet()) {
             result.put(methodModel.getUMLFormSignature(), mapping.get(methodModel));
@@ -416,17 +744,6 @@ public class EvolutionAnalyser {
         return result;
     }
 
-    private Collection<String> getStringListOfDestinationMethods(Collection<MethodMapping> methodMappingList) {
-        Collection<MethodModel> methods = getListOfDestinationMethods(methodMappingList);
-        Collection<String> result = new HashSet<>();
-
-        for (MethodModel method : methods) {
-            result.add(method.toString());
-        }
-
-        return result;
-    }
-
     private void randomSampleCategory(Map<String, MethodModel> projectOldMethods,
                                       Map<String, MethodModel> projectNewMethods,
                                       Map<String, MethodModel> projectModifiedMethods,
@@ -511,4 +828,38 @@ public class EvolutionAnalyser {
 //            }
         }
     }
+
+    /**
+     * Gives dense ids to method signatures, so sets of methods can be kept as bitsets.
+     */
+    private static class MethodIndex {
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final List<String> methods = new ArrayList<>();
+
+        int add(String method) {
+            Integer id = ids.get(method);
+            if (id == null) {
+                id = methods.size();
+                ids.put(method, id);
+                methods.add(method);
+            }
+            return id;
+        }
+
+        BitSet addAll(Collection<String> methods) {
+            BitSet result = new BitSet();
+            for (String method : methods) {
+                result.set(add(method));
+            }
+            return result;
+        }
+
+        String get(int id) {
+            return methods.get(id);
+        }
+
+        int size() {
+            return methods.size();
+        }
+    }
 }
@@ -0,0 +1,134 @@
+package ca.ualberta.mehran.androidevolution.mapping;
+
+/**
+ * Number of old methods for each pair of (old->new type, old->modified type), and the new methods added on each
+ * side. Matrices of subsystems can be added up to get the matrix of a whole project.
+ */
+public class IntersectionMatrix {
+
+    private static final MethodMapping.Type[] TYPES = MethodMapping.Type.values();
+    private static final int TYPES_COUNT = TYPES.length;
+
+    private final int[][] intersections = new int[TYPES_COUNT][TYPES_COUNT];
+    private final int[][] purged = new int[TYPES_COUNT][TYPES_COUNT];
+    private int oldMethodsCount, newMethodsCount, modifiedMethodsCount;
+    private int newMethodsInNew, newMethodsInModified, mutualNewMethods, identicalMutualNewMethods;
+
+    void clearRow(MethodMapping.Type oldNewType) {
+        for (int i = 0; i < TYPES_COUNT; i++) {
+            intersections[oldNewType.ordinal()][i] = 0;
+            purged[oldNewType.ordinal()][i] = 0;
+        }
+    }
+
+    /**
+     * @param count       methods in the intersection, not including the purged ones
+     * @param purgedCount methods that had an identical change in both new and modified versions
+     */
+    void add(MethodMapping.Type oldNewType, MethodMapping.Type oldModifiedType, int count, int purgedCount) {
+        intersections[oldNewType.ordinal()][oldModifiedType.ordinal()] += count;
+        purged[oldNewType.ordinal()][oldModifiedType.ordinal()] += purgedCount;
+    }
+
+    void setMethodsCount(int oldMethodsCount, int newMethodsCount, int modifiedMethodsCount) {
+        this.oldMethodsCount = oldMethodsCount;
+        this.newMethodsCount = newMethodsCount;
+        this.modifiedMethodsCount = modifiedMethodsCount;
+    }
+
+    void setNewMethods(int newMethodsInNew, int newMethodsInModified, int mutualNewMethods, int identicalMutualNewMethods) {
+        this.newMethodsInNew = newMethodsInNew;
+        this.newMethodsInModified = newMethodsInModified;
+        this.mutualNewMethods = mutualNewMethods;
+        this.identicalMutualNewMethods = identicalMutualNewMethods;
+    }
+
+    public void add(IntersectionMatrix other) {
+        for (int i = 0; i < TYPES_COUNT; i++) {
+            for (int j = 0; j < TYPES_COUNT; j++) {
+                intersections[i][j] += other.intersections[i][j];
+                purged[i][j] += other.purged[i][j];
+            }
+        }
+        oldMethodsCount += other.oldMethodsCount;
+        newMethodsCount += other.newMethodsCount;
+        modifiedMethodsCount += other.modifiedMethodsCount;
+        newMethodsInNew += other.newMethodsInNew;
+        newMethodsInModified += other.newMethodsInModified;
+        mutualNewMethods += other.mutualNewMethods;
+        identicalMutualNewMethods += other.identicalMutualNewMethods;
+    }
+
+    public int getIntersection(MethodMapping.Type oldNewType, MethodMapping.Type oldModifiedType) {
+        return intersections[oldNewType.ordinal()][oldModifiedType.ordinal()];
+    }
+
+    public int getPurged(MethodMapping.Type oldNewType, MethodMapping.Type oldModifiedType) {
+        return purged[oldNewType.ordinal()][oldModifiedType.ordinal()];
+    }
+
+    public int getOldMethodsCount() {
+        return oldMethodsCount;
+    }
+
+    public int getNewMethodsCount() {
+        return newMethodsCount;
+    }
+
+    public int getModifiedMethodsCount() {
+        return modifiedMethodsCount;
+    }
+
+    public int getNewMethodsInNew() {
+        return newMethodsInNew;
+    }
+
+    public int getNewMethodsInModified() {
+        return newMethodsInModified;
+    }
+
+    /**
+     * New methods with the same signature in both new and modified versions, not including identical ones.
+     */
+    public int getMutualNewMethods() {
+        return mutualNewMethods;
+    }
+
+    public int getIdenticalMutualNewMethods() {
+        return identicalMutualNewMethods;
+    }
+
+    /**
+     * Single line form of the matrix, e.g. to keep it along with other run state. Cells are written by type name,
+     * and only when non-zero.
+     */
+    public String encode() {
+        StringBuilder result = new StringBuilder();
+        result.append(oldMethodsCount).append(' ').append(newMethodsCount).append(' ').append(modifiedMethodsCount)
+                .append(' ').append(newMethodsInNew).append(' ').append(newMethodsInModified)
+                .append(' ').append(mutualNewMethods).append(' ').append(identicalMutualNewMethods);
+        for (int i = 0; i < TYPES_COUNT; i++) {
+            for (int j = 0; j < TYPES_COUNT; j++) {
+                if (intersections[i][j] == 0 && purged[i][j] == 0) continue;
+                result.append(' ').append(TYPES[i].name()).append(':').append(TYPES[j].name())
+                        .append(':').append(intersections[i][j]).append(':').append(purged[i][j]);
+            }
+        }
+        return result.toString();
+    }
+
+    public static IntersectionMatrix decode(String encoded) {
+        String[] parts = encoded.trim().split(" ");
+        if (parts.length < 7) throw new IllegalArgumentException("Not an encoded matrix: " + encoded);
+        IntersectionMatrix result = new IntersectionMatrix();
+        result.setMethodsCount(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+        result.setNewMethods(Integer.parseInt(parts[3]), Integer.parseInt(parts[4]), Integer.parseInt(parts[5]),
+                Integer.parseInt(parts[6]));
+        for (int i = 7; i < parts.length; i++) {
+            String[] cell = parts[i].split(":");
+            result.add(MethodMapping.Type.valueOf(cell[0]), MethodMapping.Type.valueOf(cell[1]),
+                    Integer.parseInt(cell[2]), Integer.parseInt(cell[3]));
+        }
+        return result;
+    }
+}
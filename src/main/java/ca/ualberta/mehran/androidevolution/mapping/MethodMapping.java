@@ -4,10 +4,19 @@ public class MethodMapping {
 
     private MethodModel destinationMethod;
     private Type type;
+    private double similarity;
 
     public MethodMapping(MethodModel destinationMethod, Type type) {
+        this(destinationMethod, type, 1);
+    }
+
+    /**
+     * @param similarity how alike the two methods are, from 0 to 1, for mappings found by similarity
+     */
+    public MethodMapping(MethodModel destinationMethod, Type type, double similarity) {
         this.destinationMethod = destinationMethod;
         this.type = type;
+        this.similarity = similarity;
     }
 
     public MethodModel getDestinationMethod() {
@@ -18,6 +27,10 @@ public class MethodMapping {
         return type;
     }
 
+    public double getSimilarity() {
+        return similarity;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (obj == null) return false;
@@ -49,7 +62,9 @@ public class MethodMapping {
             case ARGUMENTS_CHANGE_REMOVE:
             case ARGUMENTS_CHANGE_TYPE_CHANGE:
             case BODY_CHANGE_ONLY:
-                return thisMethod.readFromFile().equals(otherMethod.readFromFile());
+            case NEAR_MISS:
+                return thisMethod.getBodyHash() == otherMethod.getBodyHash() &&
+                        thisMethod.readFromFile().equals(otherMethod.readFromFile());
         }
 
         return super.equals(obj);
@@ -66,12 +81,15 @@ public class MethodMapping {
      * ARGUMENTS_CHANGE: Change in method's arguments and probably body. (ChangeDistiller and partly RefactoringMiner for class refactorings)
      * BODY_CHANGE_ONLY: No change in method's package, class, name, arguments. Changes at body level. (Script)
      * KNG_TRANSFORMATIONS: Matches discovered by Kim Miryung's tool.
+     * NEAR_MISS: Changes in method's signature and body, with similar tokens. (NearMissHelper, only when enabled)
      */
     public enum Type {
         IDENTICAL,
         REFACTORED_MOVE, REFACTORED_RENAME, REFACTORED_INLINE, REFACTORED_EXTRACT, REFACTORED_ARGUMENTS_RENAME, REFACTORED_ARGUMENTS_REORDER,
         ARGUMENTS_CHANGE_ADD, ARGUMENTS_CHANGE_REMOVE, ARGUMENTS_CHANGE_TYPE_CHANGE,
-        BODY_CHANGE_ONLY, NOT_FOUND, ADDED, OTHER, KNG_TRANSFORMATIONS
+        BODY_CHANGE_ONLY, NOT_FOUND, ADDED, OTHER, KNG_TRANSFORMATIONS,
+        // Last, so the ordinals of the other types in mapping records stay the same
+        NEAR_MISS
     }
 
 }
@@ -1,56 +1,83 @@
 package ca.ualberta.mehran.androidevolution.mapping;
 
 import ca.ualberta.mehran.androidevolution.Utils;
-import spoon.reflect.declaration.*;
+import spoon.reflect.declaration.CtConstructor;
+import spoon.reflect.declaration.CtExecutable;
+import spoon.reflect.declaration.CtMethod;
+import spoon.reflect.declaration.CtParameter;
 import spoon.support.reflect.declaration.CtTypeImpl;
 
 import java.io.File;
-import java.util.ArrayList;
-import java.util.List;
-
-public class MethodModel<T> {
-
-    private CtElement methodOrConstructor;
-//    private CtMethod<T> method;
-//    private CtConstructor<T> constructor;
-
-    private String filePath;
-    private String relativeFilePath;
-    private String packageName;
-    private String className;
-    private int lineStart = -1, lineEnd = -1;
-    private String KNGFormSignature;
-    private String UMLFormSignature;
+import java.util.*;
+
+/**
+ * A method or constructor of a version: where it is and what its signature is. The place and signature of a model
+ * never change; its signatures are built once, and two models are equal when they have the same signature at the
+ * same place of the same file. While the analysis that extracted a model runs, the model may read its body from that
+ * analysis's {@link SourceStore}; models shared between analyses are not attached to a store.
+ */
+public final class MethodModel {
+
+    private static final String[] NO_PARAMETERS = new String[0];
+
+    private final String filePath;
+    private final String packageName;
+    private final String className;
+    private final String name;
+    private final boolean constructor;
+    private final String[] parameterTypes;
+    private final String returnType;
+    private final int lineStart, lineEnd;
+    private final String UMLFormSignature;
+    private final String KNGFormSignature;
+    private final int hashCode;
+    private volatile long bodyHash;
+    private volatile boolean bodyHashComputed;
+    // Content of the file, when the method was attached to a SourceStore
+    private volatile SourceFile source;
+
+    public MethodModel(CtMethod<?> method) {
+        this(method, method.getSimpleName(), method.getType().getSimpleName(), false);
+    }
 
-    public MethodModel(CtMethod<T> method) {
-        this.methodOrConstructor = method;
-//        this.constructor = null;
-        update();
+    public MethodModel(CtConstructor<?> constructor) {
+        this(constructor, null, "void", true);
     }
 
-    public MethodModel(CtConstructor<T> constructor) {
-        this.methodOrConstructor = constructor;
-//        this.method = null;
-        update();
+    private MethodModel(CtExecutable<?> executable, String name, String returnType, boolean constructor) {
+        this(getFilePath(executable), getPackageName(executable), getClassName(executable), name, constructor,
+                getParameterTypes(executable), returnType, getLineStart(executable), getLineEnd(executable));
     }
 
-    public CtElement getMethodOrConstructor() {
-        return methodOrConstructor;
+    /**
+     * @param name       simple name of the method, or null for constructors
+     * @param className  name of the class in its package, with '$' between nested classes, e.g. "Outer$Inner"
+     * @param returnType simple name of the return type, "void" for constructors
+     */
+    public MethodModel(String filePath, String packageName, String className, String name, boolean constructor,
+                       String[] parameterTypes, String returnType, int lineStart, int lineEnd) {
+        this.filePath = filePath;
+        this.packageName = intern(packageName);
+        this.className = intern(className);
+        this.constructor = constructor;
+        this.name = constructor ? getSimpleClassName(className) : intern(name);
+        this.parameterTypes = intern(parameterTypes);
+        this.returnType = intern(returnType);
+        this.lineStart = lineStart;
+        this.lineEnd = lineEnd;
+        this.UMLFormSignature = buildUMLFormSignature();
+        this.KNGFormSignature = buildKNGFormSignature(constructor ? "<init>" : this.name);
+        this.hashCode = Objects.hash(filePath, lineStart, lineEnd, UMLFormSignature);
     }
 
     public String getName() {
-        if (isConstructor()) return getSimpleClassName();
-        return ((CtNamedElement) methodOrConstructor).getSimpleName();
+        return name;
     }
 
     public String getFilePath() {
         return filePath;
     }
 
-    public String getRelativeFilePath() {
-        return relativeFilePath;
-    }
-
     public String getPackageName() {
         return packageName;
     }
@@ -64,9 +91,7 @@ public class MethodModel<T> {
     }
 
     public String getSimpleClassName() {
-        if (className.contains("$")) {
-            return className.substring(className.indexOf("$") + 1);
-        } else return className;
+        return constructor ? name : getSimpleClassName(className);
     }
 
     public int getLineStart() {
@@ -77,64 +102,96 @@ public class MethodModel<T> {
         return lineEnd;
     }
 
+    public List<String> getListOfParameterTypes() {
+        return Collections.unmodifiableList(Arrays.asList(parameterTypes));
+    }
 
-    private void update() {
-//        CtElement methodOrConstructor;
-//        if (isConstructor()) {
-//            methodOrConstructor = constructor;
-//        } else {
-//            methodOrConstructor = method;
-//        }
-        if (methodOrConstructor.getParent() instanceof CtTypeImpl) {
-            packageName = ((CtTypeImpl) methodOrConstructor.getParent()).getPackage().getQualifiedName();
-            className = ((CtTypeImpl) methodOrConstructor.getParent()).getQualifiedName();
-            className = className.substring(className.lastIndexOf('.') + 1);
-        } else {
-            packageName = null;
-            className = null;
-        }
-        // TODO: Handle constructors with empty bodies
-        try {
-            filePath = methodOrConstructor.getPosition().getCompilationUnit().getFile().getAbsolutePath();
-            lineStart = methodOrConstructor.getPosition().getLine();
-            lineEnd = methodOrConstructor.getPosition().getEndLine();
-        } catch (NullPointerException e) {
-            filePath = null;
-            lineStart = -1;
-            lineEnd = -1;
-        }
+    public int getParametersCount() {
+        return parameterTypes.length;
     }
 
-    public List<String> getListOfParameterTypes() {
-        List<String> result = new ArrayList<>();
+    public String getParameterType(int index) {
+        return parameterTypes[index];
+    }
 
-        for (CtParameter<?> p : ((CtExecutable<?>) methodOrConstructor).getParameters()) {
-            String pType = p.getType().getSimpleName();
-            if (p.isVarArgs()) {
-//                System.err.println("Don't know how to handle varags. Check " + this.getClass().getName());
-                pType = pType.substring(0, pType.length() - 2);
-            }
+    public String getReturnType() {
+        return returnType;
+    }
+
+    public boolean isConstructor() {
+        return constructor;
+    }
 
-            result.add(pType);
+    public String readFromFile() {
+        SourceFile source = this.source;
+        if (source != null) {
+            return normalizeBody(source.getLines(getLineStart(), getLineEnd()));
         }
-        return result;
+        List<String> lines = Utils.readFile(new File(getFilePath()), getLineStart(), getLineEnd());
+        return normalizeBody(lines);
     }
 
-    public boolean isConstructor() {
-        return (methodOrConstructor instanceof CtConstructor);
+    /**
+     * Makes the methods read their bodies from the store instead of their files. Only for methods that no other
+     * analysis uses; they are to be detached before they are shared.
+     */
+    public static void attachSources(Collection<MethodModel> methods, SourceStore sourceStore) {
+        for (MethodModel method : methods) {
+            if (method == null || method.getFilePath() == null) continue;
+            method.source = sourceStore.get(method.getFilePath());
+        }
     }
 
+    /**
+     * Makes the methods read their bodies from their files again, so they don't keep the content of the files.
+     */
+    public static void detachSources(Collection<MethodModel> methods) {
+        for (MethodModel method : methods) {
+            if (method != null) method.source = null;
+        }
+    }
 
-    public CtMethod<T> getMethod() {
-        return (CtMethod) methodOrConstructor;
+    /**
+     * 64-bit FNV-1a hash of {@link #readFromFile()}. Different hashes mean different bodies; equal hashes still need
+     * the bodies compared.
+     */
+    public long getBodyHash() {
+        if (!bodyHashComputed) {
+            setBodyHash(hashBody(readFromFile()));
+        }
+        return bodyHash;
     }
 
-    public CtConstructor<T> getConstructor() {
-        return (CtConstructor) methodOrConstructor;
+    private void setBodyHash(long hash) {
+        bodyHash = hash;
+        bodyHashComputed = true;
     }
 
-    public String readFromFile() {
-        List<String> lines = Utils.readFile(new File(getFilePath()), getLineStart(), getLineEnd());
+    /**
+     * Computes the body hashes of the given methods reading each of their files only once (or not at all, for
+     * methods attached to a {@link SourceStore}), in parallel over files.
+     */
+    public static void precomputeBodyHashes(Collection<MethodModel> methods) {
+        Map<String, List<MethodModel>> methodsByFile = new HashMap<>();
+        for (MethodModel method : methods) {
+            if (method == null || method.bodyHashComputed || method.getFilePath() == null) continue;
+            methodsByFile.computeIfAbsent(method.getFilePath(), path -> new ArrayList<>()).add(method);
+        }
+        methodsByFile.entrySet().parallelStream().forEach(entry -> {
+            SourceFile source = entry.getValue().get(0).source;
+            List<String> lines = source != null ? source.getLines() : Utils.readFile(new File(entry.getKey()));
+            if (lines == null) return;
+            for (MethodModel method : entry.getValue()) {
+                // Methods with an invalid range are left to fail the same way readFromFile() does
+                if (method.getLineStart() < 1 || method.getLineEnd() > lines.size() || method.getLineStart() > method.getLineEnd() + 1) {
+                    continue;
+                }
+                method.setBodyHash(hashBody(normalizeBody(lines.subList(method.getLineStart() - 1, method.getLineEnd()))));
+            }
+        });
+    }
+
+    private static String normalizeBody(List<String> lines) {
         StringBuilder daEntireThing = new StringBuilder();
         for (String line : lines) {
             daEntireThing.append(line.trim());
@@ -143,48 +200,138 @@ public class MethodModel<T> {
         return daEntireThing.toString();
     }
 
+    private static long hashBody(String body) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < body.length(); i++) {
+            hash ^= body.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (!(obj instanceof MethodModel)) return false;
+        MethodModel other = (MethodModel) obj;
+        return hashCode == other.hashCode &&
+                lineStart == other.lineStart &&
+                lineEnd == other.lineEnd &&
+                Objects.equals(filePath, other.filePath) &&
+                UMLFormSignature.equals(other.UMLFormSignature);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
     @Override
     public String toString() {
         if (packageName != null) {
             return getUMLFormSignature();
         }
-        return super.toString();
+        // Methods outside of a type still need a unique key
+        return getUMLFormSignature() + "@" + filePath + ":" + lineStart;
     }
 
     public String getUMLFormSignature() {
-        if (UMLFormSignature == null) {
-            String parameters = "";
-            for (String paramType : getListOfParameterTypes()) {
-                parameters += paramType + ",";
-            }
-            if (!parameters.equals("")) {
-                parameters = parameters.substring(0, parameters.length() - 1);
-            }
-
-            String returnType = "void";
-            if (!isConstructor()) {
-                returnType = ((CtTypedElement) getMethodOrConstructor()).getType().getSimpleName();
-            }
-            UMLFormSignature = getPackageName() + "." + getClassName().replace("$", ".") + "." + getName() + "(" + parameters + "):" + returnType;
-        }
         return UMLFormSignature;
     }
 
     public String getKNGFormSignature() {
-        if (KNGFormSignature == null) {
-            String params = "";
-            for (CtParameter<?> p : ((CtExecutable<?>) methodOrConstructor).getParameters()) {
-                String pType = p.getType().getSimpleName();
-                if (p.isVarArgs()) pType = pType.substring(0, pType.length() - 2);
-                params += pType + ", ";
+        return KNGFormSignature;
+    }
+
+    private String buildUMLFormSignature() {
+        StringBuilder result = new StringBuilder();
+        result.append(packageName).append('.').append(className == null ? null : className.replace('$', '.'))
+                .append('.').append(name).append('(');
+        appendParameters(result, ",");
+        return result.append("):").append(returnType).toString();
+    }
+
+    private String buildKNGFormSignature(String simpleName) {
+        StringBuilder result = new StringBuilder();
+        result.append(packageName).append(':').append(className).append('-').append(simpleName).append("__[");
+        appendParameters(result, ", ");
+        return result.append("]->void").toString();
+    }
+
+    private void appendParameters(StringBuilder builder, String separator) {
+        for (int i = 0; i < parameterTypes.length; i++) {
+            if (i > 0) builder.append(separator);
+            builder.append(parameterTypes[i]);
+        }
+    }
+
+    private static String getSimpleClassName(String className) {
+        if (className == null) return null;
+        int index = className.indexOf('$');
+        return intern(index < 0 ? className : className.substring(index + 1));
+    }
+
+    private static String getFilePath(CtExecutable<?> executable) {
+        // TODO: Handle constructors with empty bodies
+        try {
+            return executable.getPosition().getCompilationUnit().getFile().getAbsolutePath();
+        } catch (NullPointerException e) {
+            return null;
+        }
+    }
+
+    private static int getLineStart(CtExecutable<?> executable) {
+        try {
+            return getFilePath(executable) == null ? -1 : executable.getPosition().getLine();
+        } catch (NullPointerException e) {
+            return -1;
+        }
+    }
+
+    private static int getLineEnd(CtExecutable<?> executable) {
+        try {
+            return getFilePath(executable) == null ? -1 : executable.getPosition().getEndLine();
+        } catch (NullPointerException e) {
+            return -1;
+        }
+    }
+
+    private static String getPackageName(CtExecutable<?> executable) {
+        if (!(executable.getParent() instanceof CtTypeImpl)) return null;
+        return ((CtTypeImpl<?>) executable.getParent()).getPackage().getQualifiedName();
+    }
+
+    private static String getClassName(CtExecutable<?> executable) {
+        if (!(executable.getParent() instanceof CtTypeImpl)) return null;
+        String className = ((CtTypeImpl<?>) executable.getParent()).getQualifiedName();
+        return className.substring(className.lastIndexOf('.') + 1);
+    }
+
+    private static String[] getParameterTypes(CtExecutable<?> executable) {
+        List<CtParameter<?>> parameters = executable.getParameters();
+        if (parameters.isEmpty()) return NO_PARAMETERS;
+        String[] result = new String[parameters.size()];
+        for (int i = 0; i < result.length; i++) {
+            CtParameter<?> p = parameters.get(i);
+            String pType = p.getType().getSimpleName();
+            if (p.isVarArgs()) {
+                pType = pType.substring(0, pType.length() - 2);
             }
-            if (params.length() > 2) params = params.substring(0, params.length() - 2);
+            result[i] = pType;
+        }
+        return result;
+    }
+
+    private static String intern(String value) {
+        return value == null ? null : value.intern();
+    }
 
-            KNGFormSignature = packageName + ":" +
-                    className + "-" +
-                    ((CtNamedElement) methodOrConstructor).getSimpleName() + "__["
-                    + params + "]->void";
+    private static String[] intern(String[] values) {
+        if (values == null || values.length == 0) return NO_PARAMETERS;
+        String[] result = new String[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = intern(values[i]);
         }
-        return KNGFormSignature;
+        return result;
     }
 }
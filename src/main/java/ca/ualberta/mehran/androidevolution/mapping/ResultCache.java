@@ -0,0 +1,233 @@
+package ca.ualberta.mehran.androidevolution.mapping;
+
+import ca.ualberta.mehran.androidevolution.Utils;
+import ca.ualberta.mehran.androidevolution.mapping.output.MappingRecord;
+import ca.ualberta.mehran.androidevolution.mapping.output.MappingRecordReader;
+import ca.ualberta.mehran.androidevolution.mapping.output.MappingRecordWriter;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static ca.ualberta.mehran.androidevolution.Utils.log;
+
+/**
+ * Results of {@link EvolutionAnalyser#run} keyed by the content of the analysed source trees and the configuration
+ * of the tools, so an analysis of unchanged inputs is loaded instead of being repeated. Each entry is a folder with
+ * the intersection matrix and the mapping records of one analysis. When the cache grows beyond its size, the least
+ * recently used entries are removed.
+ */
+public class ResultCache {
+
+    // Bump when a change in the analysis makes earlier results invalid
+    private static final int ANALYSIS_VERSION = 1;
+
+    private static final String MATRIX_FILE = "matrix.txt";
+    private static final String MAPPINGS_FILE = "mappings.bin";
+    private static final String SOURCERERCC_PROPERTIES_FILE = "sourcerer-cc.properties";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    private final File cacheDir;
+    private final long maxSizeBytes;
+    private final Map<String, Object> locksByKey = new ConcurrentHashMap<>();
+
+    public ResultCache(File cacheDir, long maxSizeBytes) {
+        this.cacheDir = cacheDir;
+        this.maxSizeBytes = maxSizeBytes;
+        cacheDir.mkdirs();
+    }
+
+    /**
+     * Hash of the Java files in the three versions, by path relative to their version's root, and of the
+     * configuration of the analysis.
+     *
+     * @param options options of the analysis that change its results, e.g. the method extractor
+     */
+    public String getKey(String pathAndroidOld, String pathAndroidNew, String pathModified, String sourcererCCPath,
+                         String options) {
+        MessageDigest digest = DigestUtils.getSha1Digest();
+        updateDigest(digest, "analysis:" + ANALYSIS_VERSION);
+        updateDigest(digest, "options:" + options);
+        File sourcererCCProperties = new File(sourcererCCPath, SOURCERERCC_PROPERTIES_FILE);
+        if (sourcererCCProperties.exists()) {
+            updateDigest(digest, "sourcerercc:");
+            updateDigest(digest, sourcererCCProperties);
+        }
+        for (String path : new String[]{pathAndroidOld, pathAndroidNew, pathModified}) {
+            updateDigest(digest, "tree:");
+            for (Path javaFile : getSortedJavaFiles(path)) {
+                updateDigest(digest, Paths.get(path).relativize(javaFile).toString());
+                updateDigest(digest, javaFile.toFile());
+            }
+        }
+        return Hex.encodeHexString(digest.digest());
+    }
+
+    /**
+     * Lock for the analyses with the key, so analyses of the same inputs that run at once are done only once.
+     */
+    public Object getLock(String key) {
+        return locksByKey.computeIfAbsent(key, k -> new Object());
+    }
+
+    /**
+     * Whether there is an entry with the key, without loading it.
+     */
+    public boolean contains(String key) {
+        File entryDir = new File(cacheDir, key);
+        return new File(entryDir, MATRIX_FILE).exists() && new File(entryDir, MAPPINGS_FILE).exists();
+    }
+
+    public Result get(String key) {
+        File entryDir = new File(cacheDir, key);
+        File matrixFile = new File(entryDir, MATRIX_FILE);
+        File mappingsFile = new File(entryDir, MAPPINGS_FILE);
+        if (!matrixFile.exists() || !mappingsFile.exists()) return null;
+        try (MappingRecordReader reader = new MappingRecordReader(mappingsFile)) {
+            IntersectionMatrix matrix = IntersectionMatrix.decode(
+                    new String(Files.readAllBytes(matrixFile.toPath()), StandardCharsets.UTF_8));
+            List<MappingRecord> records = reader.readAll();
+            entryDir.setLastModified(System.currentTimeMillis());
+            return new Result(matrix, records, true);
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            removeEntry(entryDir);
+            return null;
+        }
+    }
+
+    /**
+     * Entries are put one at a time, as analyses running at once may have the same key. Analyses in other processes
+     * may put entries in the same folder as well.
+     */
+    public synchronized void put(String key, IntersectionMatrix matrix, List<MappingRecord> records) {
+        // Written to a temporary folder first, so a partial entry is never taken for a result; the folder's name is
+        // unique, as another process may be writing an entry with the same key
+        File temporaryDir = new File(cacheDir, key + "." + UUID.randomUUID() + TEMPORARY_SUFFIX);
+        File entryDir = new File(cacheDir, key);
+        temporaryDir.mkdirs();
+        try {
+            Utils.writeToFile(new File(temporaryDir, MATRIX_FILE), matrix.encode());
+            try (MappingRecordWriter writer = new MappingRecordWriter(new File(temporaryDir, MAPPINGS_FILE))) {
+                for (MappingRecord record : records) {
+                    writer.write(record);
+                }
+            }
+            removeEntry(entryDir);
+            if (!temporaryDir.renameTo(entryDir)) {
+                throw new IOException("Can't move " + temporaryDir + " to " + entryDir);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            removeEntry(temporaryDir);
+            return;
+        }
+        evict();
+    }
+
+    private void evict() {
+        File[] entries = cacheDir.listFiles(file -> file.isDirectory() && !file.getName().endsWith(TEMPORARY_SUFFIX));
+        if (entries == null) return;
+        Map<File, Long> sizes = new HashMap<>();
+        long totalSize = 0;
+        for (File entry : entries) {
+            long size = FileUtils.sizeOfDirectory(entry);
+            sizes.put(entry, size);
+            totalSize += size;
+        }
+        if (totalSize <= maxSizeBytes) return;
+        Arrays.sort(entries, Comparator.comparingLong(File::lastModified));
+        for (File entry : entries) {
+            if (totalSize <= maxSizeBytes) break;
+            log("Evicting " + entry.getName() + " from the result cache");
+            removeEntry(entry);
+            totalSize -= sizes.get(entry);
+        }
+    }
+
+    private void removeEntry(File entryDir) {
+        try {
+            FileUtils.deleteDirectory(entryDir);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private List<Path> getSortedJavaFiles(String path) {
+        try (Stream<Path> files = Files.walk(Paths.get(path))) {
+            return files.filter(file -> file.toString().endsWith(".java") && Files.isRegularFile(file))
+                    .sorted()
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            e.printStackTrace();
+            return Collections.emptyList();
+        }
+    }
+
+    private void updateDigest(MessageDigest digest, String value) {
+        digest.update(value.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+    }
+
+    private void updateDigest(MessageDigest digest, File file) {
+        try (InputStream input = new BufferedInputStream(new FileInputStream(file))) {
+            byte[] buffer = new byte[1 << 16];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+            digest.update((byte) 0);
+        } catch (IOException e) {
+            // A file that can't be read makes the key unique, so nothing wrong is loaded for it
+            e.printStackTrace();
+            updateDigest(digest, UUID.randomUUID().toString());
+        }
+    }
+
+    public static class Result {
+        private final IntersectionMatrix matrix;
+        private final List<MappingRecord> records;
+        private final boolean cached;
+
+        public Result(IntersectionMatrix matrix, List<MappingRecord> records) {
+            this(matrix, records, false);
+        }
+
+        /**
+         * @param cached whether the result was loaded from the cache instead of being computed
+         */
+        public Result(IntersectionMatrix matrix, List<MappingRecord> records, boolean cached) {
+            this.matrix = matrix;
+            this.records = records;
+            this.cached = cached;
+        }
+
+        /**
+         * Whether the result was loaded from the cache, so its analysis took next to no time or heap.
+         */
+        public boolean isCached() {
+            return cached;
+        }
+
+        public IntersectionMatrix getMatrix() {
+            return matrix;
+        }
+
+        /**
+         * Records as they were written for the analysis that filled the entry, under its analysis name.
+         */
+        public List<MappingRecord> getRecords() {
+            return records;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package ca.ualberta.mehran.androidevolution.mapping;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Content of a source file, read once, with the offset of each of its lines. Lines are split the way
+ * {@link java.util.Scanner#nextLine()} splits them, so they are the lines {@code Utils.readFile} returns.
+ */
+public final class SourceFile {
+
+    private final String path;
+    private final char[] content;
+    // Start of each line, plus the end of the content at the last index
+    private final int[] lineOffsets;
+    // End of each line, without its line separator
+    private final int[] lineEnds;
+
+    SourceFile(String path, char[] content) {
+        this.path = path;
+        this.content = content;
+
+        int[] starts = new int[16];
+        int[] ends = new int[16];
+        int count = 0;
+        int lineStart = 0;
+        int i = 0;
+        while (i < content.length) {
+            char c = content[i];
+            if (c == '\n' || c == '\r' || c == '\u2028' || c == '\u2029' || c == '\u0085') {
+                if (count + 1 >= starts.length) {
+                    starts = grow(starts);
+                    ends = grow(ends);
+                }
+                starts[count] = lineStart;
+                ends[count] = i;
+                count++;
+                i += c == '\r' && i + 1 < content.length && content[i + 1] == '\n' ? 2 : 1;
+                lineStart = i;
+            } else {
+                i++;
+            }
+        }
+        // Like Scanner, text after the last separator is a line, but nothing after it is not
+        if (lineStart < content.length) {
+            if (count + 1 >= starts.length) {
+                starts = grow(starts);
+                ends = grow(ends);
+            }
+            starts[count] = lineStart;
+            ends[count] = content.length;
+            count++;
+        }
+        starts[count] = content.length;
+        lineOffsets = Arrays.copyOf(starts, count + 1);
+        lineEnds = Arrays.copyOf(ends, count);
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * The content itself, not a copy; it must not be modified.
+     */
+    public char[] getContent() {
+        return content;
+    }
+
+    public int getLineCount() {
+        return lineEnds.length;
+    }
+
+    /**
+     * @param line 1-based line number
+     */
+    public String getLine(int line) {
+        return new String(content, lineOffsets[line - 1], lineEnds[line - 1] - lineOffsets[line - 1]);
+    }
+
+    /**
+     * Lines {@code lineStart} to {@code lineEnd}, both inclusive and 1-based, with the same bounds checks as
+     * {@link List#subList}.
+     */
+    public List<String> getLines(int lineStart, int lineEnd) {
+        return getLines().subList(lineStart - 1, lineEnd);
+    }
+
+    public List<String> getLines() {
+        return new AbstractList<String>() {
+            @Override
+            public String get(int index) {
+                if (index < 0 || index >= lineEnds.length) throw new IndexOutOfBoundsException("Line " + (index + 1));
+                return getLine(index + 1);
+            }
+
+            @Override
+            public int size() {
+                return lineEnds.length;
+            }
+        };
+    }
+
+    /**
+     * @return 1-based line of the character at {@code offset}; an offset on a line separator belongs to the line
+     * it ends, and offsets past the end belong to the last line
+     */
+    public int getLineOfOffset(int offset) {
+        int low = 0;
+        int high = lineEnds.length - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (lineOffsets[middle] <= offset) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low + 1;
+    }
+
+    /**
+     * @return offset of the first character of the 1-based line
+     */
+    public int getOffsetOfLine(int line) {
+        return lineOffsets[line - 1];
+    }
+
+    public String getText(int start, int end) {
+        return new String(content, start, end - start);
+    }
+
+    private static int[] grow(int[] array) {
+        return Arrays.copyOf(array, array.length * 2);
+    }
+}
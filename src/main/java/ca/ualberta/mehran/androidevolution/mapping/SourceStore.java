@@ -0,0 +1,45 @@
+package ca.ualberta.mehran.androidevolution.mapping;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Source files of an analysis, each read from disk once and shared by everything in the process that needs its
+ * content or its lines: the method extractor, body comparisons and the resolution of positions to methods. Files are
+ * kept until the store is dropped, so a store must not outlive the source trees it was filled from.
+ */
+public class SourceStore {
+
+    private final Map<String, SourceFile> files = new ConcurrentHashMap<>();
+
+    /**
+     * @return the file at {@code path}, read on the first call; null if it can't be read
+     */
+    public SourceFile get(String path) {
+        String absolutePath = new File(path).getAbsolutePath();
+        try {
+            return files.computeIfAbsent(absolutePath, SourceStore::read);
+        } catch (UncheckedIOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    public int size() {
+        return files.size();
+    }
+
+    private static SourceFile read(String path) {
+        try {
+            byte[] bytes = Files.readAllBytes(new File(path).toPath());
+            return new SourceFile(path, new String(bytes, StandardCharsets.UTF_8).toCharArray());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
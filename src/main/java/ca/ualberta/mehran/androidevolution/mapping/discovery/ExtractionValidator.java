@@ -0,0 +1,85 @@
+package ca.ualberta.mehran.androidevolution.mapping.discovery;
+
+import ca.ualberta.mehran.androidevolution.mapping.MethodModel;
+
+import java.util.*;
+
+import static ca.ualberta.mehran.androidevolution.Utils.log;
+
+/**
+ * Compares the methods that two extractors find in the same source trees, e.g. {@link ParallelJdtHelper} against
+ * {@link SpoonHelper}: methods found by only one of them, methods whose lines differ, and class to file mappings
+ * that differ. Usage: ExtractionValidator PATH...
+ */
+public class ExtractionValidator {
+
+    private static final int EXAMPLES_COUNT = 10;
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.err.println("Usage: ExtractionValidator PATH...");
+            System.exit(1);
+        }
+        boolean allMatch = true;
+        for (String path : args) {
+            allMatch &= new ExtractionValidator().validate(path, new SpoonHelper(), new ParallelJdtHelper());
+        }
+        System.exit(allMatch ? 0 : 2);
+    }
+
+    public boolean validate(String path, MethodExtractor expectedExtractor, MethodExtractor actualExtractor) {
+        Map<String, String> expectedClasses = new HashMap<>();
+        Map<String, String> actualClasses = new HashMap<>();
+        Map<String, MethodModel> expected = byFileAndSignature(expectedExtractor.extractAllMethods(path, expectedClasses));
+        Map<String, MethodModel> actual = byFileAndSignature(actualExtractor.extractAllMethods(path, actualClasses));
+
+        List<String> missing = new ArrayList<>();
+        List<String> differentLines = new ArrayList<>();
+        for (Map.Entry<String, MethodModel> entry : expected.entrySet()) {
+            MethodModel actualMethod = actual.get(entry.getKey());
+            if (actualMethod == null) {
+                missing.add(entry.getKey());
+            } else if (actualMethod.getLineStart() != entry.getValue().getLineStart() ||
+                    actualMethod.getLineEnd() != entry.getValue().getLineEnd()) {
+                differentLines.add(entry.getKey() + " " + entry.getValue().getLineStart() + "-" + entry.getValue().getLineEnd() +
+                        " vs " + actualMethod.getLineStart() + "-" + actualMethod.getLineEnd());
+            }
+        }
+        List<String> extra = new ArrayList<>();
+        for (String key : actual.keySet()) {
+            if (!expected.containsKey(key)) extra.add(key);
+        }
+        List<String> differentClasses = new ArrayList<>();
+        Set<String> classNames = new TreeSet<>(expectedClasses.keySet());
+        classNames.addAll(actualClasses.keySet());
+        for (String className : classNames) {
+            if (!Objects.equals(expectedClasses.get(className), actualClasses.get(className))) {
+                differentClasses.add(className + " " + expectedClasses.get(className) + " vs " + actualClasses.get(className));
+            }
+        }
+
+        log(path + ": " + expected.size() + " expected methods, " + actual.size() + " found");
+        report("Missing methods", missing);
+        report("Extra methods", extra);
+        report("Methods with different lines", differentLines);
+        report("Different class files", differentClasses);
+        return missing.isEmpty() && extra.isEmpty() && differentLines.isEmpty() && differentClasses.isEmpty();
+    }
+
+    private Map<String, MethodModel> byFileAndSignature(List<MethodModel> methods) {
+        Map<String, MethodModel> result = new HashMap<>();
+        for (MethodModel method : methods) {
+            result.put(method.getFilePath() + " " + method.getUMLFormSignature(), method);
+        }
+        return result;
+    }
+
+    private void report(String title, List<String> items) {
+        if (items.isEmpty()) return;
+        Collections.sort(items);
+        log(title + ": " + items.size());
+        for (int i = 0; i < Math.min(EXAMPLES_COUNT, items.size()); i++) {
+            log("  " + items.get(i));
+        }
+    }
+}
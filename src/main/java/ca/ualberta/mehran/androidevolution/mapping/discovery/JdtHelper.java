@@ -0,0 +1,202 @@
+package ca.ualberta.mehran.androidevolution.mapping.discovery;
+
+import ca.ualberta.mehran.androidevolution.mapping.MethodModel;
+import ca.ualberta.mehran.androidevolution.mapping.SourceFile;
+import ca.ualberta.mehran.androidevolution.mapping.SourceStore;
+import org.eclipse.jdt.core.JavaCore;
+import org.eclipse.jdt.core.dom.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Extracts methods with JDT's parser alone, without resolving any type, which is all a method's signature and
+ * position need. Follows {@link SpoonHelper}: methods and constructors of classes and enums, and of the classes
+ * nested in them; interfaces, annotations, local and anonymous classes are left out. Positions do not include
+ * Javadoc comments and annotations, and types are named by their simple names.
+ */
+public class JdtHelper extends MappingDiscoverer implements MethodExtractor {
+
+    // Spoon's name for the default package
+    static final String DEFAULT_PACKAGE_NAME = "unnamed package";
+
+    private final Map<String, String> compilerOptions;
+    private volatile SourceStore sourceStore;
+
+    public JdtHelper() {
+        super("JDT");
+        compilerOptions = JavaCore.getOptions();
+        JavaCore.setComplianceOptions(JavaCore.VERSION_1_8, compilerOptions);
+    }
+
+    @Override
+    public void setSourceStore(SourceStore sourceStore) {
+        this.sourceStore = sourceStore;
+    }
+
+    @Override
+    public List<MethodModel> extractAllMethods(String path, Map<String, String> classNameToFileMapping) {
+        onStart();
+        List<MethodModel> methods = new ArrayList<>();
+        for (File javaFile : getJavaFiles(path)) {
+            methods.addAll(extractMethodsFromFile(javaFile, classNameToFileMapping));
+        }
+        onFinish();
+        return methods;
+    }
+
+    static List<File> getJavaFiles(String path) {
+        try (Stream<Path> files = Files.walk(Paths.get(path))) {
+            return files.filter(file -> file.toString().endsWith(".java") && Files.isRegularFile(file))
+                    .map(Path::toFile)
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            e.printStackTrace();
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Parses a single file; safe to be called from several threads at once.
+     */
+    List<MethodModel> extractMethodsFromFile(File javaFile, Map<String, String> classNameToFileMapping) {
+        char[] source;
+        SourceStore sourceStore = this.sourceStore;
+        if (sourceStore != null) {
+            SourceFile sourceFile = sourceStore.get(javaFile.getPath());
+            if (sourceFile == null) return Collections.emptyList();
+            // The parser only reads the content, so the store's copy is shared with it
+            source = sourceFile.getContent();
+        } else {
+            try {
+                source = new String(Files.readAllBytes(javaFile.toPath()), StandardCharsets.UTF_8).toCharArray();
+            } catch (IOException e) {
+                e.printStackTrace();
+                return Collections.emptyList();
+            }
+        }
+        ASTParser parser = ASTParser.newParser(AST.JLS8);
+        parser.setKind(ASTParser.K_COMPILATION_UNIT);
+        parser.setCompilerOptions(new HashMap<>(compilerOptions));
+        parser.setResolveBindings(false);
+        parser.setSource(source);
+        CompilationUnit compilationUnit = (CompilationUnit) parser.createAST(null);
+
+        String filePath = javaFile.getAbsolutePath();
+        PackageDeclaration packageDeclaration = compilationUnit.getPackage();
+        String packageName = packageDeclaration == null ? DEFAULT_PACKAGE_NAME : packageDeclaration.getName().getFullyQualifiedName();
+
+        List<MethodModel> result = new ArrayList<>();
+        for (Object type : compilationUnit.types()) {
+            if (!isClass(type)) continue;
+            AbstractTypeDeclaration typeDeclaration = (AbstractTypeDeclaration) type;
+            String className = typeDeclaration.getName().getIdentifier();
+            classNameToFileMapping.put(packageDeclaration == null ? className : packageName + "." + className, filePath);
+            extractAllMethodsFromClass(compilationUnit, typeDeclaration, filePath, packageName, className, result);
+        }
+        return result;
+    }
+
+    private void extractAllMethodsFromClass(CompilationUnit compilationUnit, AbstractTypeDeclaration type,
+                                            String filePath, String packageName, String className, List<MethodModel> result) {
+        List<MethodDeclaration> methods = new ArrayList<>();
+        List<AbstractTypeDeclaration> nestedTypes = new ArrayList<>();
+        for (Object bodyDeclaration : type.bodyDeclarations()) {
+            if (bodyDeclaration instanceof MethodDeclaration) {
+                methods.add((MethodDeclaration) bodyDeclaration);
+            } else if (isClass(bodyDeclaration)) {
+                nestedTypes.add((AbstractTypeDeclaration) bodyDeclaration);
+            }
+        }
+        // Same order as Spoon: constructors, methods, then nested classes
+        for (MethodDeclaration method : methods) {
+            if (method.isConstructor()) result.add(createModel(compilationUnit, method, filePath, packageName, className));
+        }
+        for (MethodDeclaration method : methods) {
+            if (!method.isConstructor()) result.add(createModel(compilationUnit, method, filePath, packageName, className));
+        }
+        for (AbstractTypeDeclaration nestedType : nestedTypes) {
+            extractAllMethodsFromClass(compilationUnit, nestedType, filePath, packageName,
+                    className + "$" + nestedType.getName().getIdentifier(), result);
+        }
+    }
+
+    private MethodModel createModel(CompilationUnit compilationUnit, MethodDeclaration method,
+                                    String filePath, String packageName, String className) {
+        List<?> parameters = method.parameters();
+        String[] parameterTypes = new String[parameters.size()];
+        for (int i = 0; i < parameterTypes.length; i++) {
+            SingleVariableDeclaration parameter = (SingleVariableDeclaration) parameters.get(i);
+            // Varargs are named by their element type, like in SpoonHelper
+            parameterTypes[i] = getSimpleName(parameter.getType()) + dimensions(parameter.getExtraDimensions());
+        }
+        String returnType = "void";
+        if (!method.isConstructor() && method.getReturnType2() != null) {
+            returnType = getSimpleName(method.getReturnType2()) + dimensions(method.getExtraDimensions());
+        }
+
+        int start = getDeclarationStart(method);
+        int end = method.getStartPosition() + method.getLength() - 1;
+
+        return new MethodModel(filePath, packageName, className,
+                method.isConstructor() ? null : method.getName().getIdentifier(), method.isConstructor(),
+                parameterTypes, returnType, compilationUnit.getLineNumber(start), compilationUnit.getLineNumber(end));
+    }
+
+    /**
+     * Start of the declaration as Spoon sees it: the first keyword, type or name after Javadoc and annotations.
+     */
+    private int getDeclarationStart(MethodDeclaration method) {
+        int result = Integer.MAX_VALUE;
+        for (Object modifier : method.modifiers()) {
+            if (modifier instanceof Annotation) continue;
+            result = Math.min(result, ((ASTNode) modifier).getStartPosition());
+        }
+        for (Object typeParameter : method.typeParameters()) {
+            result = Math.min(result, ((ASTNode) typeParameter).getStartPosition());
+        }
+        if (method.getReturnType2() != null) {
+            result = Math.min(result, method.getReturnType2().getStartPosition());
+        }
+        return Math.min(result, method.getName().getStartPosition());
+    }
+
+    static String getSimpleName(Type type) {
+        if (type.isArrayType()) {
+            ArrayType arrayType = (ArrayType) type;
+            return getSimpleName(arrayType.getElementType()) + dimensions(arrayType.getDimensions());
+        } else if (type.isParameterizedType()) {
+            return getSimpleName(((ParameterizedType) type).getType());
+        } else if (type.isSimpleType()) {
+            Name name = ((SimpleType) type).getName();
+            return name.isQualifiedName() ? ((QualifiedName) name).getName().getIdentifier() : ((SimpleName) name).getIdentifier();
+        } else if (type.isQualifiedType()) {
+            return ((QualifiedType) type).getName().getIdentifier();
+        } else if (type.isNameQualifiedType()) {
+            return ((NameQualifiedType) type).getName().getIdentifier();
+        } else if (type.isPrimitiveType()) {
+            return ((PrimitiveType) type).getPrimitiveTypeCode().toString();
+        }
+        return type.toString();
+    }
+
+    private static String dimensions(int count) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            result.append("[]");
+        }
+        return result.toString();
+    }
+
+    private static boolean isClass(Object type) {
+        return type instanceof EnumDeclaration ||
+                (type instanceof TypeDeclaration && !((TypeDeclaration) type).isInterface());
+    }
+}
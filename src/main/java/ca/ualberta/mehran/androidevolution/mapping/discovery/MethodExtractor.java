@@ -0,0 +1,36 @@
+package ca.ualberta.mehran.androidevolution.mapping.discovery;
+
+import ca.ualberta.mehran.androidevolution.mapping.MethodModel;
+import ca.ualberta.mehran.androidevolution.mapping.SourceStore;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Extracts the methods and constructors of the classes in a source tree.
+ */
+public interface MethodExtractor {
+
+    /**
+     * @param classNameToFileMapping filled with the file of each top level class, by qualified name
+     */
+    List<MethodModel> extractAllMethods(String path, Map<String, String> classNameToFileMapping);
+
+    /**
+     * Store to read the files from, for extractors that read them themselves; null to read them from disk.
+     */
+    default void setSourceStore(SourceStore sourceStore) {
+    }
+
+    default Map<String, MethodModel> extractAllMethodsBySignature(String path, Map<String, String> classNameToFileMapping) {
+        List<MethodModel> methods = extractAllMethods(path, classNameToFileMapping);
+        Map<String, MethodModel> map = new HashMap<>();
+
+        for (MethodModel method : methods) {
+            map.put(method.getUMLFormSignature(), method);
+        }
+
+        return map;
+    }
+}
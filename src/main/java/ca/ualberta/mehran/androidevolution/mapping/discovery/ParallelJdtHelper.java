@@ -0,0 +1,95 @@
+package ca.ualberta.mehran.androidevolution.mapping.discovery;
+
+import ca.ualberta.mehran.androidevolution.mapping.MethodModel;
+import ca.ualberta.mehran.androidevolution.mapping.SourceStore;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * {@link JdtHelper} over a fork-join pool: the files of a tree are split between the workers of the pool and each
+ * file is parsed on its own. Methods come out in the same order as with {@link JdtHelper}, so which one of two
+ * methods with the same signature is kept by {@link #extractAllMethodsBySignature} does not depend on timing.
+ */
+public class ParallelJdtHelper extends MappingDiscoverer implements MethodExtractor {
+
+    // Files parsed by a task without splitting it further
+    private static final int FILES_PER_TASK = 16;
+
+    // Shared by the helpers of all analyses, which each create their own helper; its threads end with the JVM
+    private static final ForkJoinPool SHARED_POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    // Has the source store of the helper's analysis
+    private final JdtHelper jdtHelper = new JdtHelper();
+    private final ForkJoinPool pool;
+
+    public ParallelJdtHelper() {
+        this(SHARED_POOL);
+    }
+
+    /**
+     * @param pool pool to parse the files in, which the caller shuts down
+     */
+    public ParallelJdtHelper(ForkJoinPool pool) {
+        super("Parallel JDT");
+        this.pool = pool;
+    }
+
+    @Override
+    public void setSourceStore(SourceStore sourceStore) {
+        jdtHelper.setSourceStore(sourceStore);
+    }
+
+    @Override
+    public List<MethodModel> extractAllMethods(String path, Map<String, String> classNameToFileMapping) {
+        onStart();
+        List<File> javaFiles = JdtHelper.getJavaFiles(path);
+        Map<String, String> classes = new ConcurrentHashMap<>();
+        List<MethodModel> methods = pool.invoke(new ExtractionTask(javaFiles, 0, javaFiles.size(), classes));
+        classNameToFileMapping.putAll(classes);
+        onFinish();
+        return methods;
+    }
+
+    private class ExtractionTask extends RecursiveTask<List<MethodModel>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<File> javaFiles;
+        private final int from;
+        private final int to;
+        private final Map<String, String> classNameToFileMapping;
+
+        ExtractionTask(List<File> javaFiles, int from, int to, Map<String, String> classNameToFileMapping) {
+            this.javaFiles = javaFiles;
+            this.from = from;
+            this.to = to;
+            this.classNameToFileMapping = classNameToFileMapping;
+        }
+
+        @Override
+        protected List<MethodModel> compute() {
+            if (to - from <= FILES_PER_TASK) {
+                List<MethodModel> result = new ArrayList<>();
+                for (int i = from; i < to; i++) {
+                    result.addAll(jdtHelper.extractMethodsFromFile(javaFiles.get(i), classNameToFileMapping));
+                }
+                return result;
+            }
+            int middle = (from + to) >>> 1;
+            ExtractionTask first = new ExtractionTask(javaFiles, from, middle, classNameToFileMapping);
+            ExtractionTask second = new ExtractionTask(javaFiles, middle, to, classNameToFileMapping);
+            first.fork();
+            List<MethodModel> result = second.compute();
+            // Results of the first half go first, as with a sequential extraction
+            List<MethodModel> firstResult = first.join();
+            firstResult.addAll(result);
+            return firstResult;
+        }
+    }
+}
@@ -11,25 +11,14 @@ import spoon.support.reflect.declaration.CtClassImpl;
 
 import java.util.*;
 
-public class SpoonHelper extends MappingDiscoverer {
+public class SpoonHelper extends MappingDiscoverer implements MethodExtractor {
 
     public SpoonHelper() {
         super("Spoon");
     }
 
 
-    public Map<String, MethodModel> extractAllMethodsBySignature(String path, Map<String, String> classNameToFileMapping) {
-        List<MethodModel> methods = extractAllMethods(path, classNameToFileMapping);
-        Map<String, MethodModel> map = new HashMap<>();
-
-        for (MethodModel method : methods) {
-            map.put(method.getUMLFormSignature(), method);
-        }
-
-        return map;
-    }
-
-
+    @Override
     public List<MethodModel> extractAllMethods(String path, Map<String, String> classNameToFileMapping) {
         onStart();
         List<MethodModel> methods = new ArrayList<>();
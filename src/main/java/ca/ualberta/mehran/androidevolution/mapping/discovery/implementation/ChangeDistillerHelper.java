@@ -2,6 +2,8 @@ package ca.ualberta.mehran.androidevolution.mapping.discovery.implementation;
 
 import ca.ualberta.mehran.androidevolution.mapping.MethodMapping;
 import ca.ualberta.mehran.androidevolution.mapping.MethodModel;
+import ca.ualberta.mehran.androidevolution.mapping.SourceFile;
+import ca.ualberta.mehran.androidevolution.mapping.SourceStore;
 import ca.ualberta.mehran.androidevolution.mapping.discovery.MappingDiscoverer;
 import ch.uzh.ifi.seal.changedistiller.ChangeDistiller;
 import ch.uzh.ifi.seal.changedistiller.distilling.FileDistiller;
@@ -14,8 +16,17 @@ import java.util.*;
 
 public class ChangeDistillerHelper extends MappingDiscoverer {
 
+    private final SourceStore sourceStore;
+    // Old methods of each file, by their lines
+    private final Map<String, MethodIntervalTree> methodTreesByFilePath = new HashMap<>();
+
     public ChangeDistillerHelper() {
+        this(new SourceStore());
+    }
+
+    public ChangeDistillerHelper(SourceStore sourceStore) {
         super("ChangeDistiller");
+        this.sourceStore = sourceStore;
     }
 
     public Map<MethodModel, MethodMapping> identifyMethodArgumentChanges(String projectOldPath,
@@ -135,9 +146,12 @@ public class ChangeDistillerHelper extends MappingDiscoverer {
             // Remove generics
             destinationMethodSignature = removeGenericsAndParents(destinationMethodSignature);
             MethodModel destinationMethod = newMethodsBySignature.get(destinationMethodSignature);
-//            MethodModel originalMethod =
-//                    resolveMethodByFileAndCharacterRange(oldFilePath, oldMethods, change.getParentEntity().getSourceRange().getStart());
-            MethodModel originalMethod = resolveOriginalMethod(change, oldMethods, destinationMethod);
+            // The parent of a parameter change is the parameter list of the method in the old file
+            MethodModel originalMethod =
+                    resolveMethodByFileAndCharacterRange(oldFilePath, oldMethods, change.getParentEntity().getSourceRange().getStart());
+            if (originalMethod == null) {
+                originalMethod = resolveOriginalMethod(change, oldMethods, destinationMethod);
+            }
             if (destinationMethod != null && originalMethod != null) {
                 return new MethodModel[]{originalMethod, destinationMethod};
             }
@@ -196,28 +210,15 @@ public class ChangeDistillerHelper extends MappingDiscoverer {
     private MethodModel resolveMethodByFileAndCharacterRange(String filePath,
                                                              Collection<MethodModel> methods,
                                                              int rangeStart) {
-        try {
-            Scanner input = new Scanner(new File(filePath));
-            int charsRead = 0;
-            int linesRead = 0;
-            while (input.hasNextLine()) {
-                charsRead += input.nextLine().length() + 1;
-                linesRead++;
-                if (charsRead > rangeStart) {
-                    break;
-                }
-            }
-            input.close();
-
-            for (MethodModel method : methods) {
-                if (method.getLineStart() <= linesRead && method.getLineEnd() >= linesRead) {
-                    return method;
-                }
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
+        if (methods == null || rangeStart < 0) return null;
+        SourceFile sourceFile = sourceStore.get(filePath);
+        if (sourceFile == null) return null;
+        MethodIntervalTree methodTree = methodTreesByFilePath.get(filePath);
+        if (methodTree == null) {
+            methodTree = new MethodIntervalTree(methods);
+            methodTreesByFilePath.put(filePath, methodTree);
         }
-        return null;
+        return methodTree.find(sourceFile.getLineOfOffset(rangeStart));
     }
 
     private Map<String, String> getClassFilesMapping(String projectOldPath,
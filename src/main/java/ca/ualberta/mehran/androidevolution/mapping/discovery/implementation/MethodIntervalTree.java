@@ -0,0 +1,59 @@
+package ca.ualberta.mehran.androidevolution.mapping.discovery.implementation;
+
+import ca.ualberta.mehran.androidevolution.mapping.MethodModel;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+
+/**
+ * Methods of a file by their line ranges, for finding the method at a line in O(log n). The methods are sorted by
+ * their first line and laid out as an implicit balanced binary tree, where each node also holds the last line of all
+ * the methods under it, so subtrees that end before the line are skipped.
+ */
+class MethodIntervalTree {
+
+    private final MethodModel[] methods;
+    private final int[] maxLineEnd;
+
+    MethodIntervalTree(Collection<MethodModel> methods) {
+        this.methods = methods.toArray(new MethodModel[0]);
+        Arrays.sort(this.methods, Comparator.comparingInt(MethodModel::getLineStart)
+                .thenComparing(Comparator.comparingInt(MethodModel::getLineEnd).reversed()));
+        maxLineEnd = new int[this.methods.length];
+        computeMaxLineEnd(0, this.methods.length - 1);
+    }
+
+    /**
+     * @return the innermost method whose lines include {@code line}, or null
+     */
+    MethodModel find(int line) {
+        return find(0, methods.length - 1, line, null);
+    }
+
+    private MethodModel find(int low, int high, int line, MethodModel best) {
+        if (low > high) return best;
+        int middle = (low + high) >>> 1;
+        if (maxLineEnd[middle] < line) return best;
+        best = find(low, middle - 1, line, best);
+        MethodModel method = methods[middle];
+        if (method.getLineStart() > line) return best;
+        if (method.getLineEnd() >= line && (best == null || isInside(method, best))) {
+            best = method;
+        }
+        return find(middle + 1, high, line, best);
+    }
+
+    private boolean isInside(MethodModel method, MethodModel other) {
+        return method.getLineEnd() - method.getLineStart() < other.getLineEnd() - other.getLineStart();
+    }
+
+    private int computeMaxLineEnd(int low, int high) {
+        if (low > high) return Integer.MIN_VALUE;
+        int middle = (low + high) >>> 1;
+        int max = Math.max(methods[middle].getLineEnd(),
+                Math.max(computeMaxLineEnd(low, middle - 1), computeMaxLineEnd(middle + 1, high)));
+        maxLineEnd[middle] = max;
+        return max;
+    }
+}
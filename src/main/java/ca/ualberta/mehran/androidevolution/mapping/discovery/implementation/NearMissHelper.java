@@ -0,0 +1,215 @@
+package ca.ualberta.mehran.androidevolution.mapping.discovery.implementation;
+
+import ca.ualberta.mehran.androidevolution.mapping.MethodMapping;
+import ca.ualberta.mehran.androidevolution.mapping.MethodModel;
+import ca.ualberta.mehran.androidevolution.mapping.discovery.MappingDiscoverer;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Matches the methods no other discoverer could match, whose signatures and bodies both changed, by the similarity
+ * of their tokens. Each method is a multiset of tokens; similarity is the weighted Jaccard index of two multisets.
+ * <p>
+ * Comparing all pairs does not scale to the tens of thousands of methods a big subsystem leaves unmatched, so
+ * candidates are found with locality-sensitive hashing: every method gets a MinHash signature of
+ * {@value #BANDS}&times;{@value #ROWS} hashes, and methods that agree on all the hashes of a band share a bucket.
+ * Pairs with a similarity of s end up in a bucket together with a probability of 1-(1-s^ROWS)^BANDS, which is 0.97
+ * at s=0.7 and under 0.05 at s=0.3. Only the pairs that share a bucket are compared, and the most similar pairs are
+ * matched first, each method at most once.
+ */
+public class NearMissHelper extends MappingDiscoverer {
+
+    public static final double DEFAULT_THRESHOLD = 0.7;
+
+    private static final int BANDS = 20;
+    private static final int ROWS = 5;
+    private static final int HASHES = BANDS * ROWS;
+    // Smaller methods (e.g. getters) are too alike to tell apart by their tokens
+    private static final int MIN_TOKENS = 20;
+
+    private static final long[] SEEDS = new long[HASHES];
+
+    static {
+        Random random = new Random(0x5EEDL);
+        for (int i = 0; i < HASHES; i++) {
+            SEEDS[i] = random.nextLong();
+        }
+    }
+
+    private final double threshold;
+
+    public NearMissHelper() {
+        this(DEFAULT_THRESHOLD);
+    }
+
+    public NearMissHelper(double threshold) {
+        super("NearMissHelper");
+        this.threshold = threshold;
+    }
+
+    public double getThreshold() {
+        return threshold;
+    }
+
+    public Map<MethodModel, MethodMapping> identifyNearMissMethods(Collection<MethodModel> projectOldRemainingMethods,
+                                                                   Collection<MethodModel> projectNewRemainingMethods) {
+        onStart();
+        List<TokenBag> oldBags = toTokenBags(projectOldRemainingMethods);
+        List<TokenBag> newBags = toTokenBags(projectNewRemainingMethods);
+
+        // Buckets of the new methods, by band and the hash of the band's rows
+        Map<Long, List<Integer>> buckets = new HashMap<>();
+        for (int i = 0; i < newBags.size(); i++) {
+            for (int band = 0; band < BANDS; band++) {
+                buckets.computeIfAbsent(bandKey(newBags.get(i).signature, band), key -> new ArrayList<>()).add(i);
+            }
+        }
+
+        List<Candidate> candidates = new ArrayList<>();
+        Set<Integer> compared = new HashSet<>();
+        for (int i = 0; i < oldBags.size(); i++) {
+            TokenBag oldBag = oldBags.get(i);
+            compared.clear();
+            for (int band = 0; band < BANDS; band++) {
+                List<Integer> bucket = buckets.get(bandKey(oldBag.signature, band));
+                if (bucket == null) continue;
+                for (int j : bucket) {
+                    if (!compared.add(j)) continue;
+                    double similarity = oldBag.similarity(newBags.get(j));
+                    if (similarity >= threshold) {
+                        candidates.add(new Candidate(i, j, similarity));
+                    }
+                }
+            }
+        }
+
+        candidates.sort((first, second) -> Double.compare(second.similarity, first.similarity));
+        Map<MethodModel, MethodMapping> result = new HashMap<>();
+        BitSet matchedOld = new BitSet();
+        BitSet matchedNew = new BitSet();
+        for (Candidate candidate : candidates) {
+            if (matchedOld.get(candidate.oldIndex) || matchedNew.get(candidate.newIndex)) continue;
+            matchedOld.set(candidate.oldIndex);
+            matchedNew.set(candidate.newIndex);
+            result.put(oldBags.get(candidate.oldIndex).method, new MethodMapping(newBags.get(candidate.newIndex).method,
+                    MethodMapping.Type.NEAR_MISS, candidate.similarity));
+        }
+        onFinish();
+        return result;
+    }
+
+    private long bandKey(long[] signature, int band) {
+        long hash = band;
+        for (int row = band * ROWS; row < (band + 1) * ROWS; row++) {
+            hash = mix(hash * 31 + signature[row]);
+        }
+        return hash;
+    }
+
+    private List<TokenBag> toTokenBags(Collection<MethodModel> methods) {
+        return methods.parallelStream()
+                .map(method -> {
+                    try {
+                        return new TokenBag(method, tokenize(method.readFromFile()));
+                    } catch (Exception e) {
+                        // Methods with unreadable bodies are left unmatched
+                        return null;
+                    }
+                })
+                .filter(bag -> bag != null && bag.size >= MIN_TOKENS)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Splits Java source into identifiers, keywords, literals and operators, leaving out comments and whitespace.
+     */
+    static List<String> tokenize(String source) {
+        List<String> tokens = new ArrayList<>();
+        int length = source.length();
+        int i = 0;
+        while (i < length) {
+            char c = source.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '/' && i + 1 < length && source.charAt(i + 1) == '/') {
+                while (i < length && source.charAt(i) != '\n') i++;
+            } else if (c == '/' && i + 1 < length && source.charAt(i + 1) == '*') {
+                int end = source.indexOf("*/", i + 2);
+                i = end < 0 ? length : end + 2;
+            } else if (c == '"' || c == '\'') {
+                int start = i++;
+                while (i < length && source.charAt(i) != c && source.charAt(i) != '\n') {
+                    i += source.charAt(i) == '\\' ? 2 : 1;
+                }
+                i = Math.min(i + 1, length);
+                tokens.add(source.substring(start, i));
+            } else if (Character.isJavaIdentifierStart(c) || Character.isDigit(c)) {
+                int start = i++;
+                while (i < length && (Character.isJavaIdentifierPart(source.charAt(i)) || source.charAt(i) == '.' && Character.isDigit(c))) {
+                    i++;
+                }
+                tokens.add(source.substring(start, i));
+            } else {
+                tokens.add(String.valueOf(c));
+                i++;
+            }
+        }
+        return tokens;
+    }
+
+    private static long mix(long value) {
+        // Finalizer of MurmurHash3
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+
+    private static class TokenBag {
+        final MethodModel method;
+        final Map<String, Integer> counts = new HashMap<>();
+        final int size;
+        final long[] signature = new long[HASHES];
+
+        TokenBag(MethodModel method, List<String> tokens) {
+            this.method = method;
+            this.size = tokens.size();
+            Arrays.fill(signature, Long.MAX_VALUE);
+            for (String token : tokens) {
+                // The n-th occurrence of a token is an element of its own, which makes MinHash estimate the
+                // weighted Jaccard index of the multisets
+                int occurrence = counts.merge(token, 1, Integer::sum);
+                long element = mix(token.hashCode() * 0x9E3779B97F4A7C15L + occurrence);
+                for (int i = 0; i < HASHES; i++) {
+                    long hash = mix(element ^ SEEDS[i]);
+                    if (hash < signature[i]) signature[i] = hash;
+                }
+            }
+        }
+
+        double similarity(TokenBag other) {
+            int intersection = 0;
+            Map<String, Integer> smaller = counts.size() <= other.counts.size() ? counts : other.counts;
+            Map<String, Integer> larger = smaller == counts ? other.counts : counts;
+            for (Map.Entry<String, Integer> entry : smaller.entrySet()) {
+                Integer count = larger.get(entry.getKey());
+                if (count != null) intersection += Math.min(count, entry.getValue());
+            }
+            return (double) intersection / (size + other.size - intersection);
+        }
+    }
+
+    private static class Candidate {
+        final int oldIndex, newIndex;
+        final double similarity;
+
+        Candidate(int oldIndex, int newIndex, double similarity) {
+            this.oldIndex = oldIndex;
+            this.newIndex = newIndex;
+            this.similarity = similarity;
+        }
+    }
+}
@@ -7,10 +7,15 @@ import ca.ualberta.mehran.androidevolution.mapping.discovery.MappingDiscoverer;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 public class SourcererHelper extends MappingDiscoverer {
@@ -19,10 +24,16 @@ public class SourcererHelper extends MappingDiscoverer {
     private static final String HEADERS_FILE_RELATIVE_PATH = "input/bookkeping/headers.file";
     private static final String OUTPUT_FILE_RELATIVE_PATH = "output10.0/tokensclones_index_WITH_FILTER.txt";
 
+    // SourcererCC reads and writes fixed files in its folder, so one comparison at a time uses a folder
+    private static final Map<String, Object> LOCKS_BY_PATH = new ConcurrentHashMap<>();
+    private static final String LOCK_FILE = ".lock";
+
     private String sourcererccPath;
     private File tokensFile;
     private File headersFile;
     private File outputFile;
+    // Tokens of the files that were tokenized for earlier comparisons
+    private TokenCache tokenCache;
 
     public SourcererHelper(String sourcererccPath) {
         super("SourcererCC");
@@ -31,38 +42,35 @@ public class SourcererHelper extends MappingDiscoverer {
         tokensFile = new File(sourcererccPath, TOKENS_FILE_RELATIVE_PATH);
         headersFile = new File(sourcererccPath, HEADERS_FILE_RELATIVE_PATH);
         outputFile = new File(sourcererccPath, OUTPUT_FILE_RELATIVE_PATH);
+        tokenCache = new TokenCache(sourcererccPath);
+    }
+
+
+    File getHeadersFile() {
+        return headersFile;
     }
 
+    File getOutputFile() {
+        return outputFile;
+    }
 
     private void runSourcererCC(String projectPath) {
-        String tokenizingCommand[] = new String[]{"java",
-                "-jar",
-                "InputBuilderClassic.jar",
-                projectPath,
-                tokensFile.getAbsolutePath(),
-                headersFile.getAbsolutePath(),
-                "functions",
-                "java",
-                "0",
-                "0",
-                "0",
-                "0",
-                "false",
-                "false",
-                "false",
-                "8"};
+        try {
+            tokenCache.writeInput(projectPath, tokensFile, headersFile);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
         String[] indexingCommand = new String[]{"java", "-jar", "dist/indexbased.SearchManager.jar", "index", "10"};
         String[] searchingCommand = new String[]{"java", "-jar", "dist/indexbased.SearchManager.jar", "search", "10"};
 
         long startTime = System.currentTimeMillis();
-        Utils.runSystemCommand(new File(sourcererccPath, "parser/java").getAbsolutePath(), false, tokenizingCommand);
         Utils.runSystemCommand(sourcererccPath, false, indexingCommand);
         Utils.runSystemCommand(sourcererccPath, false, searchingCommand);
 //        System.out.println("Sourcerer ran in " + (System.currentTimeMillis() - startTime) + " milliseconds");
 
     }
 
-    private void populateBlocks(String projectBothPath,
+    void populateBlocks(String projectBothPath,
                                 String projectOldPath,
                                 String projectNewPath,
                                 Map<Integer, CodeBlock> projectOldBlocks,
@@ -93,7 +101,7 @@ public class SourcererHelper extends MappingDiscoverer {
         }
     }
 
-    private Map<MethodModel, MethodMapping> readClonePairs(
+    Map<MethodModel, MethodMapping> readClonePairs(
             Collection<MethodModel> projectOldMethods,
             Collection<MethodModel> projectNewMethods,
             Map<Integer, CodeBlock> projectOldBlocks,
@@ -162,6 +170,52 @@ public class SourcererHelper extends MappingDiscoverer {
                                                                     String projectNewPath,
                                                                     Collection<MethodModel> projectOldMethods,
                                                                     Collection<MethodModel> projectNewMethods) {
+        Object lock = LOCKS_BY_PATH.computeIfAbsent(new File(sourcererccPath).getAbsolutePath(), path -> new Object());
+        synchronized (lock) {
+            // Analyses in other processes (e.g. isolated workers) may use the same folder
+            FileLock fileLock = lockFolder();
+            try {
+                return runLocked(projectPath, projectOldPath, projectNewPath, projectOldMethods, projectNewMethods);
+            } finally {
+                unlockFolder(fileLock);
+            }
+        }
+    }
+
+    /**
+     * @return the lock of the folder, or null if it can't be locked
+     */
+    private FileLock lockFolder() {
+        try {
+            FileChannel channel = FileChannel.open(new File(sourcererccPath, LOCK_FILE).toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            try {
+                return channel.lock();
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private void unlockFolder(FileLock fileLock) {
+        if (fileLock == null) return;
+        try {
+            // Closing the channel releases the lock
+            fileLock.channel().close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private Map<MethodModel, MethodMapping> runLocked(String projectPath,
+                                                      String projectOldPath,
+                                                      String projectNewPath,
+                                                      Collection<MethodModel> projectOldMethods,
+                                                      Collection<MethodModel> projectNewMethods) {
         onStart();
         runSourcererCC(projectPath);
         Map<Integer, CodeBlock> projectOldBlocks = new HashMap<>();
@@ -171,7 +225,7 @@ public class SourcererHelper extends MappingDiscoverer {
         return readClonePairs(projectOldMethods, projectNewMethods, projectOldBlocks, projectNewBlocks);
     }
 
-    private class CodeBlock {
+    static class CodeBlock {
         String project, path, relativePath;
         int id, startLine, endLine;
     }
@@ -0,0 +1,247 @@
+package ca.ualberta.mehran.androidevolution.mapping.discovery.implementation;
+
+import ca.ualberta.mehran.androidevolution.Utils;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static ca.ualberta.mehran.androidevolution.Utils.log;
+
+/**
+ * Methods that SourcererCC's tokenizer found in each Java file, kept by the file's content. The tokens and headers
+ * files of a comparison are put together from the cache, and only files that are not in it go through the tokenizer,
+ * so the Android old version, which is in the comparison with the new version and in the one with each proprietary
+ * version, and the files no version changed are tokenized once.
+ * <p>
+ * Block ids are given again each time, from 0 in the order of the files' paths, so they are unique and increasing in
+ * the tokens file and the same in the headers file, as the tokenizer writes them. Parent ids of a file's blocks are
+ * given again as well, keeping which blocks have the same one.
+ * <p>
+ * The cache is in the SourcererCC folder, next to the tokenizer that wrote it, and can be deleted at any time.
+ */
+class TokenCache {
+
+    // Bump when the tokenizer or its options change
+    private static final int TOKENIZER_VERSION = 1;
+
+    private static final String CACHE_RELATIVE_PATH = "cache/tokens";
+    private static final String TOKENIZER_RELATIVE_PATH = "parser/java";
+    private static final String BLOCK_SEPARATOR = "@#@";
+    private static final String JAVA_SUFFIX = ".java";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    private final File cacheDir;
+    private final File tokenizerDir;
+
+    TokenCache(String sourcererccPath) {
+        cacheDir = new File(new File(sourcererccPath, CACHE_RELATIVE_PATH), String.valueOf(TOKENIZER_VERSION));
+        tokenizerDir = new File(sourcererccPath, TOKENIZER_RELATIVE_PATH);
+    }
+
+    /**
+     * Writes the tokens and headers files of the Java files under {@code projectPath}, as the tokenizer would.
+     * Not safe to call for the same SourcererCC folder at once, which the caller's lock of the folder sees to.
+     */
+    void writeInput(String projectPath, File tokensFile, File headersFile) throws IOException {
+        List<Path> files;
+        try (Stream<Path> paths = Files.walk(Paths.get(projectPath))) {
+            files = paths.filter(path -> path.toString().endsWith(JAVA_SUFFIX) && Files.isRegularFile(path))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        Map<Path, String> hashes = new HashMap<>();
+        Map<String, List<Block>> blocksByHash = new HashMap<>();
+        // One file of each content that is not cached
+        Map<String, Path> uncachedFiles = new LinkedHashMap<>();
+        for (Path file : files) {
+            String hash = DigestUtils.sha1Hex(Files.readAllBytes(file));
+            hashes.put(file, hash);
+            if (blocksByHash.containsKey(hash) || uncachedFiles.containsKey(hash)) continue;
+            List<Block> blocks = read(hash);
+            if (blocks != null) {
+                blocksByHash.put(hash, blocks);
+            } else {
+                uncachedFiles.put(hash, file);
+            }
+        }
+        if (!uncachedFiles.isEmpty()) blocksByHash.putAll(tokenize(uncachedFiles));
+
+        tokensFile.getParentFile().mkdirs();
+        headersFile.getParentFile().mkdirs();
+        try (Writer tokensWriter = newWriter(tokensFile); Writer headersWriter = newWriter(headersFile)) {
+            long blockId = 0;
+            long parentId = 0;
+            // The tokenizer gives blocks outside any method a negative parent id of their own
+            long orphanId = -1;
+            for (Path file : files) {
+                List<Block> blocks = blocksByHash.get(hashes.get(file));
+                if (blocks == null) continue;
+                Map<Long, Long> parentIds = new HashMap<>();
+                for (Block block : blocks) {
+                    long blockParentId;
+                    if (block.parentId < 0) {
+                        blockParentId = orphanId--;
+                    } else {
+                        Long id = parentIds.get(block.parentId);
+                        if (id == null) {
+                            id = parentId++;
+                            parentIds.put(block.parentId, id);
+                        }
+                        blockParentId = id;
+                    }
+                    tokensWriter.write(blockParentId + "," + blockId + BLOCK_SEPARATOR + block.terms + "\n");
+                    headersWriter.write(blockId + "," + file + "," + block.startLine + "," + block.endLine + "\n");
+                    blockId++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs the tokenizer on the given files, and caches what it finds.
+     *
+     * @param files a file of each content, by its hash
+     * @return blocks of the files, by their hash
+     */
+    private Map<String, List<Block>> tokenize(Map<String, Path> files) throws IOException {
+        File workDir = new File(cacheDir, UUID.randomUUID() + TEMPORARY_SUFFIX);
+        File inputDir = new File(workDir, "input");
+        File tokensFile = new File(workDir, "tokens.file");
+        File headersFile = new File(workDir, "headers.file");
+        try {
+            inputDir.mkdirs();
+            // Named by their hash, so the blocks the tokenizer finds are told apart by their file alone
+            for (Map.Entry<String, Path> entry : files.entrySet()) {
+                Path input = new File(inputDir, entry.getKey() + JAVA_SUFFIX).toPath();
+                try {
+                    Files.createLink(input, entry.getValue());
+                } catch (IOException | UnsupportedOperationException e) {
+                    Files.copy(entry.getValue(), input);
+                }
+            }
+            Utils.runSystemCommand(tokenizerDir.getAbsolutePath(), false, "java",
+                    "-jar",
+                    "InputBuilderClassic.jar",
+                    inputDir.getAbsolutePath(),
+                    tokensFile.getAbsolutePath(),
+                    headersFile.getAbsolutePath(),
+                    "functions",
+                    "java",
+                    "0",
+                    "0",
+                    "0",
+                    "0",
+                    "false",
+                    "false",
+                    "false",
+                    "8");
+
+            Map<String, List<Block>> result = new HashMap<>();
+            for (String hash : files.keySet()) {
+                result.put(hash, new ArrayList<>());
+            }
+            Map<Long, String[]> headers = new HashMap<>();
+            if (headersFile.exists()) {
+                for (String line : Files.readAllLines(headersFile.toPath(), StandardCharsets.UTF_8)) {
+                    String[] fields = line.split(",");
+                    if (fields.length == 4) headers.put(Long.valueOf(fields[0]), fields);
+                }
+            }
+            int blockCount = 0;
+            if (tokensFile.exists()) {
+                for (String line : Files.readAllLines(tokensFile.toPath(), StandardCharsets.UTF_8)) {
+                    int separator = line.indexOf(BLOCK_SEPARATOR);
+                    if (separator < 0) continue;
+                    String[] ids = line.substring(0, separator).split(",");
+                    String[] header = headers.get(Long.valueOf(ids[1]));
+                    if (header == null) continue;
+                    String name = new File(header[1]).getName();
+                    List<Block> blocks = result.get(name.substring(0, name.length() - JAVA_SUFFIX.length()));
+                    if (blocks == null) continue;
+                    blocks.add(new Block(Long.parseLong(ids[0]), Integer.parseInt(header[2]),
+                            Integer.parseInt(header[3]), line.substring(separator + BLOCK_SEPARATOR.length())));
+                    blockCount++;
+                }
+            }
+            for (List<Block> blocks : result.values()) {
+                // The tokenizer's threads write the blocks of a file in no particular order
+                blocks.sort(Comparator.comparingInt((Block block) -> block.startLine).thenComparingInt(block -> block.endLine));
+            }
+            // Files without methods are cached too, unless no file had any: then the tokenizer failed, e.g. for lack
+            // of TXL, and files with methods would be taken for files without them until the cache is deleted
+            if (blockCount > 0) {
+                for (Map.Entry<String, List<Block>> entry : result.entrySet()) {
+                    write(entry.getKey(), entry.getValue());
+                }
+            } else {
+                log("The tokenizer found no methods in " + files.size() + " files; they are not cached");
+            }
+            return result;
+        } finally {
+            FileUtils.deleteQuietly(workDir);
+        }
+    }
+
+    /**
+     * @return the cached blocks of a file, or null if it is not cached
+     */
+    private List<Block> read(String hash) throws IOException {
+        File file = getFile(hash);
+        if (!file.exists()) return null;
+        List<Block> result = new ArrayList<>();
+        for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+            int separator = line.indexOf(BLOCK_SEPARATOR);
+            String[] fields = line.substring(0, separator).split(",");
+            result.add(new Block(Long.parseLong(fields[0]), Integer.parseInt(fields[1]), Integer.parseInt(fields[2]),
+                    line.substring(separator + BLOCK_SEPARATOR.length())));
+        }
+        return result;
+    }
+
+    private void write(String hash, List<Block> blocks) throws IOException {
+        File file = getFile(hash);
+        file.getParentFile().mkdirs();
+        File temporaryFile = new File(file.getParentFile(), file.getName() + TEMPORARY_SUFFIX);
+        try (Writer writer = newWriter(temporaryFile)) {
+            for (Block block : blocks) {
+                writer.write(block.parentId + "," + block.startLine + "," + block.endLine + BLOCK_SEPARATOR +
+                        block.terms + "\n");
+            }
+        }
+        Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private File getFile(String hash) {
+        return new File(new File(cacheDir, hash.substring(0, 2)), hash.substring(2));
+    }
+
+    private Writer newWriter(File file) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
+    }
+
+    private static class Block {
+        // As the tokenizer gave it; only which blocks of the file share it is kept
+        final long parentId;
+        final int startLine;
+        final int endLine;
+        // Tokens and their frequencies, as in the tokens file
+        final String terms;
+
+        Block(long parentId, int startLine, int endLine, String terms) {
+            this.parentId = parentId;
+            this.startLine = startLine;
+            this.endLine = endLine;
+            this.terms = terms;
+        }
+    }
+}
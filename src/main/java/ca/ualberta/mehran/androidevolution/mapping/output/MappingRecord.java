@@ -0,0 +1,109 @@
+package ca.ualberta.mehran.androidevolution.mapping.output;
+
+import ca.ualberta.mehran.androidevolution.mapping.MethodMapping;
+
+/**
+ * What happened to one method of a subsystem in the new and modified versions. Methods added in either version have
+ * no old signature. Missing signatures are null and missing lines are -1.
+ */
+public class MappingRecord {
+
+    private final String analysisName;
+    private final String oldSignature;
+    private final String filePath;
+    private final int lineStart, lineEnd;
+    private final MethodMapping.Type newType;
+    private final String newSignature;
+    private final int newLineStart, newLineEnd;
+    private final MethodMapping.Type modifiedType;
+    private final String modifiedSignature;
+    private final int modifiedLineStart, modifiedLineEnd;
+
+    public MappingRecord(String analysisName, String oldSignature, String filePath, int lineStart, int lineEnd,
+                         MethodMapping.Type newType, String newSignature, int newLineStart, int newLineEnd,
+                         MethodMapping.Type modifiedType, String modifiedSignature, int modifiedLineStart, int modifiedLineEnd) {
+        this.analysisName = analysisName;
+        this.oldSignature = oldSignature;
+        this.filePath = filePath;
+        this.lineStart = lineStart;
+        this.lineEnd = lineEnd;
+        this.newType = newType;
+        this.newSignature = newSignature;
+        this.newLineStart = newLineStart;
+        this.newLineEnd = newLineEnd;
+        this.modifiedType = modifiedType;
+        this.modifiedSignature = modifiedSignature;
+        this.modifiedLineStart = modifiedLineStart;
+        this.modifiedLineEnd = modifiedLineEnd;
+    }
+
+    public String getAnalysisName() {
+        return analysisName;
+    }
+
+    public String getOldSignature() {
+        return oldSignature;
+    }
+
+    /**
+     * Path of the method's file relative to its version's root; the old version's for old methods.
+     */
+    public String getFilePath() {
+        return filePath;
+    }
+
+    public int getLineStart() {
+        return lineStart;
+    }
+
+    public int getLineEnd() {
+        return lineEnd;
+    }
+
+    public MethodMapping.Type getNewType() {
+        return newType;
+    }
+
+    public String getNewSignature() {
+        return newSignature;
+    }
+
+    public int getNewLineStart() {
+        return newLineStart;
+    }
+
+    public int getNewLineEnd() {
+        return newLineEnd;
+    }
+
+    public MethodMapping.Type getModifiedType() {
+        return modifiedType;
+    }
+
+    public String getModifiedSignature() {
+        return modifiedSignature;
+    }
+
+    public int getModifiedLineStart() {
+        return modifiedLineStart;
+    }
+
+    public int getModifiedLineEnd() {
+        return modifiedLineEnd;
+    }
+
+    /**
+     * The same record under another analysis name.
+     */
+    public MappingRecord withAnalysisName(String analysisName) {
+        return new MappingRecord(analysisName, oldSignature, filePath, lineStart, lineEnd,
+                newType, newSignature, newLineStart, newLineEnd,
+                modifiedType, modifiedSignature, modifiedLineStart, modifiedLineEnd);
+    }
+
+    @Override
+    public String toString() {
+        return analysisName + ": " + oldSignature + " -> " + newSignature + " " + newType + ", " +
+                modifiedSignature + " " + modifiedType;
+    }
+}
@@ -0,0 +1,115 @@
+package ca.ualberta.mehran.androidevolution.mapping.output;
+
+import ca.ualberta.mehran.androidevolution.mapping.MethodMapping;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static ca.ualberta.mehran.androidevolution.mapping.output.MappingRecordWriter.*;
+
+/**
+ * Reads the files written by {@link MappingRecordWriter} block by block.
+ */
+public class MappingRecordReader implements Closeable {
+
+    private static final MethodMapping.Type[] TYPES = MethodMapping.Type.values();
+
+    private final DataInputStream input;
+    private final List<String> dictionary = new ArrayList<>();
+    // Records in a stream are followed by an end mark, so the stream ending before it is an error
+    private final boolean endMarked;
+
+    public MappingRecordReader(File file) throws IOException {
+        input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+        endMarked = false;
+        readHeader(file.toString());
+    }
+
+    /**
+     * Reads the records written to a stream by {@link MappingRecordWriter#end()}. Nothing past them is read, so the
+     * stream is not buffered here; pass a buffered one.
+     */
+    public MappingRecordReader(InputStream stream) throws IOException {
+        input = new DataInputStream(stream);
+        endMarked = true;
+        readHeader("the stream");
+    }
+
+    public void forEach(Consumer<MappingRecord> consumer) throws IOException {
+        int recordsCount;
+        while ((recordsCount = readBlockHeader()) > 0) {
+            int newStringsCount = input.readInt();
+            for (int i = 0; i < newStringsCount; i++) {
+                dictionary.add(input.readUTF());
+            }
+            int[][] stringColumns = new int[STRING_COLUMNS][recordsCount];
+            byte[][] typeColumns = new byte[TYPE_COLUMNS][recordsCount];
+            int[][] lineColumns = new int[LINE_COLUMNS][recordsCount];
+            for (int[] column : stringColumns) {
+                for (int row = 0; row < recordsCount; row++) {
+                    column[row] = input.readInt();
+                }
+            }
+            for (byte[] column : typeColumns) {
+                input.readFully(column);
+            }
+            for (int[] column : lineColumns) {
+                for (int row = 0; row < recordsCount; row++) {
+                    column[row] = input.readInt();
+                }
+            }
+            for (int row = 0; row < recordsCount; row++) {
+                consumer.accept(new MappingRecord(string(stringColumns[0][row]), string(stringColumns[1][row]),
+                        string(stringColumns[2][row]), lineColumns[0][row], lineColumns[1][row],
+                        type(typeColumns[0][row]), string(stringColumns[3][row]), lineColumns[2][row], lineColumns[3][row],
+                        type(typeColumns[1][row]), string(stringColumns[4][row]), lineColumns[4][row], lineColumns[5][row]));
+            }
+        }
+    }
+
+    public List<MappingRecord> readAll() throws IOException {
+        List<MappingRecord> result = new ArrayList<>();
+        forEach(result::add);
+        return result;
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+
+    List<String> getDictionary() {
+        return dictionary;
+    }
+
+    private void readHeader(String source) throws IOException {
+        if (input.readInt() != MAGIC) {
+            input.close();
+            throw new IOException(source + " is not a mapping records file");
+        }
+        int version = input.readInt();
+        if (version != VERSION) {
+            input.close();
+            throw new IOException("Unsupported mapping records version " + version + " in " + source);
+        }
+    }
+
+    private int readBlockHeader() throws IOException {
+        if (endMarked) return input.readInt();
+        try {
+            return input.readInt();
+        } catch (EOFException e) {
+            return 0;
+        }
+    }
+
+    private String string(int id) {
+        return id < 0 ? null : dictionary.get(id);
+    }
+
+    private MethodMapping.Type type(byte id) {
+        return id < 0 ? null : TYPES[id];
+    }
+}
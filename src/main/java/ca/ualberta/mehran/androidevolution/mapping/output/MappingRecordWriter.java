@@ -0,0 +1,178 @@
+package ca.ualberta.mehran.androidevolution.mapping.output;
+
+import ca.ualberta.mehran.androidevolution.mapping.MethodMapping;
+import org.apache.commons.io.output.CountingOutputStream;
+
+import java.io.*;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes mapping records to a compact binary file. Records are buffered and written in blocks; inside a block each
+ * field is stored as a column. Strings are written once to a dictionary that grows with the file, and columns refer
+ * to them by id.
+ * <p>
+ * File layout: magic, version, then blocks of
+ * [records count][new dictionary strings count][strings...][string id columns][type columns][line columns].
+ */
+public class MappingRecordWriter implements Closeable {
+
+    static final int MAGIC = 0x41554D52; // AUMR
+    static final int VERSION = 1;
+    static final int STRING_COLUMNS = 5;
+    static final int TYPE_COLUMNS = 2;
+    static final int LINE_COLUMNS = 6;
+
+    private static final int BLOCK_SIZE = 4096;
+
+    private final CountingOutputStream counter;
+    private final long resumedLength;
+    private final DataOutputStream output;
+    private final Map<String, Integer> dictionary = new HashMap<>();
+    private final String[] newStrings = new String[BLOCK_SIZE * STRING_COLUMNS];
+    private int newStringsCount;
+
+    private final int[][] stringColumns = new int[STRING_COLUMNS][BLOCK_SIZE];
+    private final byte[][] typeColumns = new byte[TYPE_COLUMNS][BLOCK_SIZE];
+    private final int[][] lineColumns = new int[LINE_COLUMNS][BLOCK_SIZE];
+    private int bufferedRecords;
+
+    public MappingRecordWriter(File file) throws IOException {
+        this(file, 0);
+    }
+
+    /**
+     * Writes records to a stream that carries other data as well, e.g. a pipe. Call {@link #end()} after the last
+     * record instead of {@link #close()}, which would close the stream.
+     */
+    public MappingRecordWriter(OutputStream stream) throws IOException {
+        counter = new CountingOutputStream(stream);
+        output = new DataOutputStream(new BufferedOutputStream(counter, 1 << 16));
+        resumedLength = 0;
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+    }
+
+    /**
+     * Continues a file written by an earlier run. Anything after {@code resumeFrom}, usually a block of an
+     * interrupted run, is dropped; a {@code resumeFrom} of 0 starts a new file.
+     *
+     * @param resumeFrom a value returned by {@link #length()} after a {@link #flush()}
+     */
+    public MappingRecordWriter(File file, long resumeFrom) throws IOException {
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        boolean resume = resumeFrom > 0 && file.exists() && file.length() >= resumeFrom;
+        if (resume) {
+            try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+                randomAccessFile.setLength(resumeFrom);
+            }
+            try (MappingRecordReader reader = new MappingRecordReader(file)) {
+                reader.forEach(record -> {
+                });
+                for (String value : reader.getDictionary()) {
+                    dictionary.put(value, dictionary.size());
+                }
+            }
+        }
+        counter = new CountingOutputStream(new FileOutputStream(file, resume));
+        output = new DataOutputStream(new BufferedOutputStream(counter, 1 << 16));
+        resumedLength = resume ? resumeFrom : 0;
+        if (!resume) {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+        }
+    }
+
+    public synchronized void write(MappingRecord record) throws IOException {
+        int row = bufferedRecords;
+        stringColumns[0][row] = stringId(record.getAnalysisName());
+        stringColumns[1][row] = stringId(record.getOldSignature());
+        stringColumns[2][row] = stringId(record.getFilePath());
+        stringColumns[3][row] = stringId(record.getNewSignature());
+        stringColumns[4][row] = stringId(record.getModifiedSignature());
+        typeColumns[0][row] = typeId(record.getNewType());
+        typeColumns[1][row] = typeId(record.getModifiedType());
+        lineColumns[0][row] = record.getLineStart();
+        lineColumns[1][row] = record.getLineEnd();
+        lineColumns[2][row] = record.getNewLineStart();
+        lineColumns[3][row] = record.getNewLineEnd();
+        lineColumns[4][row] = record.getModifiedLineStart();
+        lineColumns[5][row] = record.getModifiedLineEnd();
+        bufferedRecords++;
+        if (bufferedRecords == BLOCK_SIZE) {
+            writeBlock();
+        }
+    }
+
+    /**
+     * Writes buffered records as a block, even if it is not full.
+     */
+    public synchronized void flush() throws IOException {
+        writeBlock();
+        output.flush();
+    }
+
+    /**
+     * Bytes of the file written so far. Records that are still buffered are not included until {@link #flush()}.
+     */
+    public synchronized long length() throws IOException {
+        output.flush();
+        return resumedLength + counter.getByteCount();
+    }
+
+    /**
+     * Writes buffered records and marks the end of the records, for a reader of the same stream to stop there. The
+     * stream is left open.
+     */
+    public synchronized void end() throws IOException {
+        writeBlock();
+        output.writeInt(0);
+        output.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        flush();
+        output.close();
+    }
+
+    private int stringId(String value) {
+        if (value == null) return -1;
+        Integer id = dictionary.get(value);
+        if (id == null) {
+            id = dictionary.size();
+            dictionary.put(value, id);
+            newStrings[newStringsCount++] = value;
+        }
+        return id;
+    }
+
+    private byte typeId(MethodMapping.Type type) {
+        return type == null ? -1 : (byte) type.ordinal();
+    }
+
+    private void writeBlock() throws IOException {
+        if (bufferedRecords == 0) return;
+        output.writeInt(bufferedRecords);
+        output.writeInt(newStringsCount);
+        for (int i = 0; i < newStringsCount; i++) {
+            output.writeUTF(newStrings[i]);
+            newStrings[i] = null;
+        }
+        newStringsCount = 0;
+        for (int[] column : stringColumns) {
+            for (int row = 0; row < bufferedRecords; row++) {
+                output.writeInt(column[row]);
+            }
+        }
+        for (byte[] column : typeColumns) {
+            output.write(column, 0, bufferedRecords);
+        }
+        for (int[] column : lineColumns) {
+            for (int row = 0; row < bufferedRecords; row++) {
+                output.writeInt(column[row]);
+            }
+        }
+        bufferedRecords = 0;
+    }
+}
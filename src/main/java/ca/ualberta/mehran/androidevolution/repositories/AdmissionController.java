@@ -0,0 +1,175 @@
+package ca.ualberta.mehran.androidevolution.repositories;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static ca.ualberta.mehran.androidevolution.Utils.log;
+
+/**
+ * Lets analyses start only while the heap has room for them. Each analysis reserves its estimated footprint out of
+ * a budget of the maximum heap, and is admitted only if the reservations of the analyses that are running leave
+ * enough of it. No analysis is admitted while the time spent in garbage collection is above a threshold, as a heap
+ * that is almost full shows in the collector's work before it runs out. An analysis that is admitted when nothing
+ * else runs is admitted whatever its estimate, so the largest subsystems run alone.
+ * <p>
+ * The heap is sampled every second while analyses run. The growth of the used heap since the last time nothing was
+ * running is split between the running analyses by their estimates, and the highest share of an analysis is taken
+ * as its footprint, for estimating the next ones.
+ */
+class AdmissionController {
+
+    private static final double HEAP_BUDGET_FRACTION = 0.8;
+    private static final double GC_OVERHEAD_THRESHOLD = 0.2;
+    private static final long SAMPLE_PERIOD_MILLIS = 1000;
+    // Weight of the latest sample in the smoothed GC overhead
+    private static final double GC_OVERHEAD_SMOOTHING = 0.3;
+
+    private final MemoryMXBean memoryBean = ManagementFactory.getMemoryMXBean();
+    private final List<GarbageCollectorMXBean> garbageCollectorBeans = ManagementFactory.getGarbageCollectorMXBeans();
+    private final ThreadLocal<Ticket> currentTicket = new ThreadLocal<>();
+    private final List<Ticket> admitted = new ArrayList<>();
+    private final long budgetBytes;
+    private long reservedBytes;
+    private long idleHeapUsed;
+    private double gcOverhead;
+    private long lastGcMillis;
+    private long lastSampleMillis;
+    private ScheduledExecutorService sampler;
+
+    AdmissionController() {
+        this((long) (Runtime.getRuntime().maxMemory() * HEAP_BUDGET_FRACTION));
+    }
+
+    AdmissionController(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+        idleHeapUsed = getHeapUsed();
+    }
+
+    /**
+     * Starts sampling the heap. {@code onAdmissible} is called when analyses that were refused may be admitted
+     * because the GC overhead went down.
+     */
+    synchronized void start(Runnable onAdmissible) {
+        lastGcMillis = getGcMillis();
+        lastSampleMillis = System.currentTimeMillis();
+        sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "admission-sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sampler.scheduleAtFixedRate(() -> {
+            if (sample()) onAdmissible.run();
+        }, SAMPLE_PERIOD_MILLIS, SAMPLE_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    synchronized void stop() {
+        if (sampler != null) sampler.shutdownNow();
+    }
+
+    /**
+     * @return a ticket to release when the analysis is done, or null if it can't start now
+     */
+    synchronized Ticket tryAdmit(String name, long estimatedBytes) {
+        if (!admitted.isEmpty()) {
+            if (gcOverhead > GC_OVERHEAD_THRESHOLD) return null;
+            if (reservedBytes + estimatedBytes > budgetBytes) return null;
+        } else {
+            idleHeapUsed = getHeapUsed();
+            if (estimatedBytes > budgetBytes) {
+                log(name + " is estimated to need " + (estimatedBytes >> 20) + " MB of heap, more than the budget of " +
+                        (budgetBytes >> 20) + " MB; it runs alone");
+            }
+        }
+        Ticket ticket = new Ticket(estimatedBytes);
+        admitted.add(ticket);
+        reservedBytes += estimatedBytes;
+        return ticket;
+    }
+
+    synchronized void release(Ticket ticket) {
+        if (admitted.remove(ticket)) {
+            reservedBytes -= ticket.estimatedBytes;
+        }
+    }
+
+    /**
+     * Binds the ticket to the analysis running on this thread, for {@link #getFootprint}.
+     */
+    void setCurrent(Ticket ticket) {
+        if (ticket == null) {
+            currentTicket.remove();
+        } else {
+            currentTicket.set(ticket);
+        }
+    }
+
+    /**
+     * @return the highest heap footprint sampled so far for the analysis running on this thread, or 0
+     */
+    long getFootprint() {
+        Ticket ticket = currentTicket.get();
+        return ticket == null ? 0 : ticket.footprintBytes;
+    }
+
+    /**
+     * @return whether the GC overhead went from above the threshold to below it
+     */
+    private synchronized boolean sample() {
+        long now = System.currentTimeMillis();
+        long gcMillis = getGcMillis();
+        boolean wasOverloaded = gcOverhead > GC_OVERHEAD_THRESHOLD;
+        if (now > lastSampleMillis) {
+            double latest = (double) (gcMillis - lastGcMillis) / (now - lastSampleMillis);
+            gcOverhead = GC_OVERHEAD_SMOOTHING * latest + (1 - GC_OVERHEAD_SMOOTHING) * gcOverhead;
+        }
+        lastGcMillis = gcMillis;
+        lastSampleMillis = now;
+
+        long heapUsed = getHeapUsed();
+        if (admitted.isEmpty()) {
+            idleHeapUsed = heapUsed;
+        } else {
+            long growth = Math.max(0, heapUsed - idleHeapUsed);
+            long estimatesSum = 0;
+            for (Ticket ticket : admitted) {
+                estimatesSum += ticket.estimatedBytes;
+            }
+            for (Ticket ticket : admitted) {
+                long share = estimatesSum == 0 ? growth / admitted.size() :
+                        (long) ((double) growth * ticket.estimatedBytes / estimatesSum);
+                ticket.footprintBytes = Math.max(ticket.footprintBytes, share);
+            }
+        }
+        if (gcOverhead > GC_OVERHEAD_THRESHOLD && !wasOverloaded) {
+            log("GC overhead is " + Math.round(gcOverhead * 100) + "%, no more analyses start until it goes down");
+        }
+        return wasOverloaded && gcOverhead <= GC_OVERHEAD_THRESHOLD;
+    }
+
+    private long getHeapUsed() {
+        return memoryBean.getHeapMemoryUsage().getUsed();
+    }
+
+    private long getGcMillis() {
+        long result = 0;
+        for (GarbageCollectorMXBean garbageCollectorBean : garbageCollectorBeans) {
+            result += Math.max(0, garbageCollectorBean.getCollectionTime());
+        }
+        return result;
+    }
+
+    static class Ticket {
+        final long estimatedBytes;
+        volatile long footprintBytes;
+
+        private Ticket(long estimatedBytes) {
+            this.estimatedBytes = estimatedBytes;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package ca.ualberta.mehran.androidevolution.repositories;
+
+import ca.ualberta.mehran.androidevolution.mapping.EvolutionAnalyser;
+import ca.ualberta.mehran.androidevolution.mapping.output.MappingRecord;
+import ca.ualberta.mehran.androidevolution.mapping.output.MappingRecordWriter;
+
+import java.io.*;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import static ca.ualberta.mehran.androidevolution.Utils.log;
+
+/**
+ * Has an {@link AnalysisDaemon} analyse a subsystem, and writes the results like {@link EvolutionAnalyser#run} does.
+ * <p>
+ * Usage: {@code AnalysisClient [--port=<port>] <name> <Android old and new folder> <Android old and modified folder>
+ * [<output folder>]}. Each of the two folders has the versions it compares in its {@code old} and {@code new}
+ * subfolders, as {@link RepositoryAutomation} lays them out.
+ */
+public class AnalysisClient {
+
+    private static final String PORT_OPTION = "--port=";
+    private static final String DEFAULT_OUTPUT_PATH = "output";
+
+    public static void main(String[] args) {
+        int port = AnalysisDaemon.DEFAULT_PORT;
+        List<String> arguments = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith(PORT_OPTION)) {
+                port = Integer.parseInt(arg.substring(PORT_OPTION.length()));
+            } else {
+                arguments.add(arg);
+            }
+        }
+        if (arguments.size() < 3) {
+            log("Usage: AnalysisClient [" + PORT_OPTION + "<port>] <name> <Android old and new folder> " +
+                    "<Android old and modified folder> [<output folder>]");
+            System.exit(2);
+        }
+        String name = arguments.get(0);
+        File androidOldAndNew = new File(arguments.get(1)).getAbsoluteFile();
+        File androidOldAndModified = new File(arguments.get(2)).getAbsoluteFile();
+        File outputDir = new File(arguments.size() > 3 ? arguments.get(3) : DEFAULT_OUTPUT_PATH).getAbsoluteFile();
+
+        long startTime = System.currentTimeMillis();
+        AnalysisWorker.Response response;
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+             DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+             DataOutputStream output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+            // The daemon uses its own SourcererCC folder
+            AnalysisWorker.writeRequest(output, AnalysisWorker.ANALYSE, name, androidOldAndNew.getPath(),
+                    new File(androidOldAndNew, "old").getPath(), new File(androidOldAndNew, "new").getPath(),
+                    androidOldAndModified.getPath(), new File(androidOldAndModified, "old").getPath(),
+                    new File(androidOldAndModified, "new").getPath(), "");
+            output.flush();
+            response = AnalysisWorker.readResponse(input, AnalysisWorker.ANALYSE);
+        } catch (ConnectException e) {
+            log("No analysis daemon on port " + port + "; start one with RepositoryAutomation --daemon");
+            System.exit(1);
+            return;
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+            return;
+        }
+        if (response.failure != null) {
+            log("Analysis of " + name + " failed: " + response.failure);
+            System.exit(1);
+        }
+
+        File csvFile = new File(outputDir, name + ".csv");
+        new EvolutionAnalyser().writeToOutput(response.result.getMatrix(), csvFile.getPath());
+        File mappingsFile = new File(outputDir, name + "_mappings.bin");
+        try (MappingRecordWriter writer = new MappingRecordWriter(mappingsFile)) {
+            for (MappingRecord record : response.result.getRecords()) {
+                writer.write(record);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        log("Analyzed " + name + " in " + (System.currentTimeMillis() - startTime) / 1000 + " seconds, results in " +
+                csvFile + " and " + mappingsFile);
+    }
+}
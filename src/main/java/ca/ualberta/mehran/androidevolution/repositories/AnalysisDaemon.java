@@ -0,0 +1,78 @@
+package ca.ualberta.mehran.androidevolution.repositories;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static ca.ualberta.mehran.androidevolution.Utils.log;
+
+/**
+ * Analyses requested by {@link AnalysisClient}s on this machine, in a JVM that stays up between them. Classes of the
+ * parsers are loaded and compiled once, and the results of earlier requests are kept by the contents of their files, so
+ * a subsystem that is analysed again unchanged takes seconds instead of minutes. Android mappings are not kept, as
+ * they are found by the paths of the folders, whose files may change between requests. Requests are in the protocol
+ * of {@link AnalysisWorker}, over a socket that only accepts local connections.
+ */
+class AnalysisDaemon {
+
+    static final int DEFAULT_PORT = 5717;
+
+    private final AnalysisWorker analysisWorker;
+    private final String sourcererCCPath;
+    private final int threads;
+
+    /**
+     * @param sourcererCCPath SourcererCC folder of the daemon, used instead of the clients'
+     * @param threads         requests that are analysed at once
+     */
+    AnalysisDaemon(AnalysisWorker analysisWorker, String sourcererCCPath, int threads) {
+        this.analysisWorker = analysisWorker;
+        this.sourcererCCPath = sourcererCCPath;
+        this.threads = threads;
+    }
+
+    /**
+     * Serves requests until the JVM is stopped.
+     */
+    void serve(int port) throws IOException {
+        analysisWorker.warmUp();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try (ServerSocket serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            log("Waiting for analysis requests on port " + port + "...");
+            while (true) {
+                Socket socket = serverSocket.accept();
+                executor.execute(() -> handle(socket));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void handle(Socket socket) {
+        try (Socket client = socket;
+             DataInputStream input = new DataInputStream(new BufferedInputStream(client.getInputStream()));
+             DataOutputStream output = new DataOutputStream(new BufferedOutputStream(client.getOutputStream(), 1 << 16))) {
+            while (true) {
+                byte kind;
+                try {
+                    kind = input.readByte();
+                } catch (EOFException e) {
+                    return;
+                }
+                String[] paths = AnalysisWorker.readPaths(input, kind);
+                paths[paths.length - 1] = sourcererCCPath;
+                long startTime = System.currentTimeMillis();
+                log("Analyzing " + paths[0] + "...");
+                analysisWorker.handle(kind, paths, output);
+                output.flush();
+                log("Analyzed " + paths[0] + " in " + (System.currentTimeMillis() - startTime) / 1000 + " seconds");
+            }
+        } catch (IOException e) {
+            // The client went away
+            e.printStackTrace();
+        }
+    }
+}
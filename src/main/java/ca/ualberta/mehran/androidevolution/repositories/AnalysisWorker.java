@@ -0,0 +1,182 @@
+package ca.ualberta.mehran.androidevolution.repositories;
+
+import ca.ualberta.mehran.androidevolution.mapping.EvolutionAnalyser;
+import ca.ualberta.mehran.androidevolution.mapping.IntersectionMatrix;
+import ca.ualberta.mehran.androidevolution.mapping.ResultCache;
+import ca.ualberta.mehran.androidevolution.mapping.output.MappingRecord;
+import ca.ualberta.mehran.androidevolution.mapping.output.MappingRecordReader;
+import ca.ualberta.mehran.androidevolution.mapping.output.MappingRecordWriter;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static ca.ualberta.mehran.androidevolution.Utils.log;
+
+/**
+ * Runs analyses requested by another JVM: by a {@link WorkerPool} over the standard input and output, by a
+ * {@link WorkQueue} through files, or by an {@link AnalysisClient} through an {@link AnalysisDaemon}'s socket.
+ * <p>
+ * Protocol, in {@link DataOutputStream} format. A request is a kind ({@link #COMPARE} or {@link #ANALYSE}) and the
+ * paths of the analysis, each one a UTF string; the SourcererCC path is the last one. A response is a status, the
+ * heap the analysis took, then for a failure its message, and otherwise whether the work was found in a cache instead
+ * of being done and, for an analysis, the encoded intersection matrix and the mapping records, as written by {@link
+ * MappingRecordWriter#end()}. Over pipes, the worker first
+ * writes {@link #READY}, and exits when its input is closed.
+ */
+class AnalysisWorker {
+
+    static final int READY = 0x41555057; // AUPW
+    static final byte COMPARE = 1;
+    static final byte ANALYSE = 2;
+    static final byte OK = 0;
+    static final byte FAILED = 1;
+
+    private static final int MAX_MESSAGE_LENGTH = 10000;
+
+    private final Supplier<EvolutionAnalyser> analyserSupplier;
+
+    AnalysisWorker(Supplier<EvolutionAnalyser> analyserSupplier) {
+        this.analyserSupplier = analyserSupplier;
+    }
+
+    /**
+     * Serves requests on the standard input and output until the input is closed. Everything else the analyses print
+     * goes to the standard error.
+     */
+    void serve() throws IOException {
+        OutputStream protocolOutput = new FileOutputStream(FileDescriptor.out);
+        System.setOut(System.err);
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(FileDescriptor.in)));
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(protocolOutput, 1 << 16));
+        warmUp();
+        output.writeInt(READY);
+        output.flush();
+        while (true) {
+            byte kind;
+            try {
+                kind = input.readByte();
+            } catch (EOFException e) {
+                return;
+            }
+            handle(kind, readPaths(input, kind), output);
+            output.flush();
+        }
+    }
+
+    /**
+     * Loads the classes of the analysis before the first request comes.
+     */
+    void warmUp() {
+        analyserSupplier.get();
+    }
+
+    /**
+     * Runs a request and writes its response.
+     */
+    void handle(byte kind, String[] paths, DataOutputStream output) throws IOException {
+        long heapBefore = resetHeapPeak();
+        ResultCache.Result result = null;
+        boolean cached = false;
+        String failure = null;
+        try {
+            EvolutionAnalyser evolutionAnalyser = analyserSupplier.get();
+            if (kind == ANALYSE) {
+                result = evolutionAnalyser.analyse(paths[0], paths[1], paths[2], paths[3], paths[4], paths[5],
+                        paths[6], paths[7]);
+                cached = result.isCached();
+            } else {
+                cached = !evolutionAnalyser.compareAndroidVersions(paths[0], paths[1], paths[2], paths[3]);
+            }
+        } catch (Throwable e) {
+            log("An exception occurred while analyzing " + paths[0] + ": " + e);
+            e.printStackTrace();
+            failure = e.toString();
+        }
+        output.writeByte(failure == null ? OK : FAILED);
+        output.writeLong(Math.max(0, getHeapPeak() - heapBefore));
+        if (failure != null) {
+            output.writeUTF(failure.length() > MAX_MESSAGE_LENGTH ? failure.substring(0, MAX_MESSAGE_LENGTH) : failure);
+            return;
+        }
+        output.writeBoolean(cached);
+        if (result != null) {
+            output.writeUTF(result.getMatrix().encode());
+            MappingRecordWriter writer = new MappingRecordWriter(output);
+            for (MappingRecord record : result.getRecords()) {
+                writer.write(record);
+            }
+            writer.end();
+        }
+    }
+
+    static void writeRequest(DataOutputStream output, byte kind, String... paths) throws IOException {
+        output.writeByte(kind);
+        for (String path : paths) {
+            output.writeUTF(path);
+        }
+    }
+
+    /**
+     * @return paths of a request whose kind is read already
+     */
+    static String[] readPaths(DataInputStream input, byte kind) throws IOException {
+        String[] paths = new String[kind == ANALYSE ? 8 : 4];
+        for (int i = 0; i < paths.length; i++) {
+            paths[i] = input.readUTF();
+        }
+        return paths;
+    }
+
+    static Response readResponse(DataInputStream input, byte kind) throws IOException {
+        byte status = input.readByte();
+        long heapBytes = input.readLong();
+        if (status != OK) return new Response(null, false, input.readUTF(), heapBytes);
+        boolean cached = input.readBoolean();
+        if (kind != ANALYSE) return new Response(null, cached, null, heapBytes);
+        IntersectionMatrix matrix = IntersectionMatrix.decode(input.readUTF());
+        List<MappingRecord> records = new MappingRecordReader(input).readAll();
+        return new Response(new ResultCache.Result(matrix, records, cached), cached, null, heapBytes);
+    }
+
+    /**
+     * @return heap used now
+     */
+    private long resetHeapPeak() {
+        long used = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() != MemoryType.HEAP) continue;
+            pool.resetPeakUsage();
+            used += pool.getUsage().getUsed();
+        }
+        return used;
+    }
+
+    private long getHeapPeak() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) peak += pool.getPeakUsage().getUsed();
+        }
+        return peak;
+    }
+
+    static class Response {
+        // Null for a comparison or a failure
+        final ResultCache.Result result;
+        // Whether the work was found in a cache instead of being done
+        final boolean cached;
+        // Null unless the analysis failed
+        final String failure;
+        final long heapBytes;
+
+        Response(ResultCache.Result result, boolean cached, String failure, long heapBytes) {
+            this.result = result;
+            this.cached = cached;
+            this.failure = failure;
+            this.heapBytes = heapBytes;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package ca.ualberta.mehran.androidevolution.repositories;
+
+import ca.ualberta.mehran.androidevolution.mapping.ResultCache;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Runs comparisons and analyses outside of this JVM, with the same arguments as {@link
+ * ca.ualberta.mehran.androidevolution.mapping.EvolutionAnalyser}. The calls block until the work is done, and throw
+ * when it failed.
+ */
+interface AnalysisWorkers extends Closeable {
+
+    /**
+     * @return whether the versions were compared, and not found compared already
+     */
+    boolean compareAndroidVersions(String pathAndroidOldAndNew,
+                                String pathAndroidOldAndNew_old,
+                                String pathAndroidOldAndNew_new,
+                                String sourcererCCPath) throws IOException, InterruptedException;
+
+    ResultCache.Result analyse(String subsystemName,
+                               String pathAndroidOldAndNew,
+                               String pathAndroidOldAndNew_old,
+                               String pathAndroidOldAndNew_new,
+                               String pathAndroidOldAndModified,
+                               String pathAndroidOldAndModified_old,
+                               String pathAndroidOldAndModified_new,
+                               String sourcererCCPath) throws IOException, InterruptedException;
+
+    /**
+     * @return heap the last analysis of this thread took, or 0 if it is not known
+     */
+    long getFootprint();
+
+    @Override
+    void close();
+}
@@ -0,0 +1,178 @@
+package ca.ualberta.mehran.androidevolution.repositories;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.*;
+import java.util.Collection;
+import java.util.UUID;
+
+/**
+ * Files of the extracted versions, kept once by their git blob id. Extracted folders get hard links to the files of
+ * the store instead of copies, so a file that is the same in several folders (e.g. the Android old version, which is
+ * in the comparison with the new version and in the one with each proprietary version, or a file no version changed)
+ * takes space and write time once. Where a link can't be made (another file system, too many links to a file) the
+ * file is copied.
+ * <p>
+ * A linked file is the same file as the store's, so files of the store are read only: extracted folders are only
+ * to be read.
+ */
+class BlobStore {
+
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+    // Executable files are kept apart, as the mode belongs to the file and not to each link
+    private static final String EXECUTABLE_SUFFIX = ".x";
+    private static final int LOCK_COUNT = 64;
+
+    private final File dir;
+    // Bytes of the files in the store, or -1 until they are first counted
+    private long size = -1;
+    // A blob is linked and removed under its lock, so it is not removed between being found and being linked to
+    private final Object[] locks = new Object[LOCK_COUNT];
+
+    BlobStore(File dir) {
+        this.dir = dir;
+        dir.mkdirs();
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * Makes {@code file} a link to the blob, writing the blob to the store first if it is not there.
+     *
+     * @return the name of the blob in the store, for {@link #removeUnused}
+     */
+    String materialize(ObjectReader reader, ObjectId blobId, boolean executable, File file) throws IOException {
+        String name = getBlobName(blobId, executable);
+        File blob = new File(dir, name);
+        synchronized (getLock(name)) {
+            if (!blob.exists()) write(reader, blobId, executable, blob);
+            try {
+                Files.createLink(file.toPath(), blob.toPath());
+                return name;
+            } catch (FileSystemException | UnsupportedOperationException e) {
+                // Copied instead
+            }
+            Files.copy(blob.toPath(), file.toPath());
+        }
+        if (executable) file.setExecutable(true);
+        return name;
+    }
+
+    /**
+     * @return bytes of the files in the store. They are counted the first time, and kept up to date after that.
+     */
+    synchronized long getSize() {
+        if (size < 0) {
+            size = 0;
+            File[] subdirs = dir.listFiles(File::isDirectory);
+            if (subdirs != null) {
+                for (File subdir : subdirs) {
+                    File[] blobs = subdir.listFiles();
+                    if (blobs == null) continue;
+                    for (File blob : blobs) {
+                        if (!blob.getName().endsWith(TEMPORARY_SUFFIX)) size += blob.length();
+                    }
+                }
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Removes those of the given blobs that no extracted folder links to anymore, e.g. after a folder that had them
+     * was removed. Unlike {@link #prune}, only these blobs are looked at.
+     *
+     * @param names names returned by {@link #materialize}
+     * @return the number of files removed
+     */
+    int removeUnused(Collection<String> names) {
+        int result = 0;
+        try {
+            for (String name : names) {
+                File blob = new File(dir, name);
+                synchronized (getLock(name)) {
+                    if (!blob.exists() || (Integer) Files.getAttribute(blob.toPath(), "unix:nlink") != 1) continue;
+                    long length = blob.length();
+                    if (blob.delete()) {
+                        addSize(-length);
+                        result++;
+                    }
+                }
+            }
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            // Link counts are not known on this file system, so nothing can be told unused
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return result;
+    }
+
+    /**
+     * Removes the files no extracted folder links to anymore.
+     *
+     * @return the number of files removed
+     */
+    int prune() {
+        int result = 0;
+        File[] subdirs = dir.listFiles(File::isDirectory);
+        if (subdirs == null) return 0;
+        try {
+            for (File subdir : subdirs) {
+                File[] blobs = subdir.listFiles();
+                if (blobs == null) continue;
+                for (File blob : blobs) {
+                    if (blob.getName().endsWith(TEMPORARY_SUFFIX)) continue;
+                    synchronized (getLock(subdir.getName() + "/" + blob.getName())) {
+                        if ((Integer) Files.getAttribute(blob.toPath(), "unix:nlink") == 1 && blob.delete()) result++;
+                    }
+                }
+            }
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            // Link counts are not known on this file system, so nothing can be told unused
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        synchronized (this) {
+            // Counted again, as blobs written by two extractions at once are only counted right by their files
+            size = -1;
+        }
+        return result;
+    }
+
+    private String getBlobName(ObjectId blobId, boolean executable) {
+        String name = blobId.getName();
+        return name.substring(0, 2) + "/" + name.substring(2) + (executable ? EXECUTABLE_SUFFIX : "");
+    }
+
+    private Object getLock(String name) {
+        return locks[Math.floorMod(name.hashCode(), locks.length)];
+    }
+
+    private synchronized void addSize(long bytes) {
+        if (size >= 0) size += bytes;
+    }
+
+    private void write(ObjectReader reader, ObjectId blobId, boolean executable, File blob) throws IOException {
+        blob.getParentFile().mkdirs();
+        // Written under a name of its own and moved in place, so an interrupted write leaves no partial blob
+        File temporaryFile = new File(blob.getParentFile(), blob.getName() + "." + UUID.randomUUID() + TEMPORARY_SUFFIX);
+        try {
+            try (OutputStream output = new FileOutputStream(temporaryFile)) {
+                reader.open(blobId, Constants.OBJ_BLOB).copyTo(output);
+            }
+            if (executable) temporaryFile.setExecutable(true, false);
+            temporaryFile.setWritable(false, false);
+            Files.move(temporaryFile.toPath(), blob.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            addSize(blob.length());
+        } finally {
+            temporaryFile.delete();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package ca.ualberta.mehran.androidevolution.repositories;
+
+import ca.ualberta.mehran.androidevolution.Utils;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.*;
+
+import static ca.ualberta.mehran.androidevolution.Utils.log;
+import static ca.ualberta.mehran.androidevolution.Utils.runSystemCommand;
+
+/**
+ * Keeps one bare mirror per repository URL, holding only the tags and branches that were asked for, and makes the
+ * working copies of a run as clones of those mirrors that share their objects instead of copying them. A mirror can
+ * borrow the objects of another one (e.g. a LineageOS mirror those of the AOSP mirror), so history that two forks
+ * have in common is only fetched and stored once.
+ * <p>
+ * Mirrors are never garbage collected, as other mirrors and working copies may refer to their objects.
+ */
+class CloneManager {
+
+    private static final String TAGS_PREFIX = "refs/tags/";
+    private static final String HEADS_PREFIX = "refs/heads/";
+
+    private final File mirrorsDir;
+
+    CloneManager(File mirrorsDir) {
+        this.mirrorsDir = mirrorsDir;
+    }
+
+    /**
+     * Fetches the given versions (tags or branches) of {@code url} to its mirror.
+     * Mirrors of different URLs can be updated at once, but not the same mirror.
+     *
+     * @param referenceUrl a repository with shared history whose mirror is used as an object store, or null
+     */
+    void updateMirror(String url, Collection<String> versions, String referenceUrl) {
+        File referenceMirror = referenceUrl == null ? null : getMirror(referenceUrl);
+        updateMirror(url, getMirror(url), versions, referenceMirror);
+    }
+
+    /**
+     * Makes {@code workingCopy} a clone of the mirror of {@code url}. If it is already there, only what is missing
+     * is fetched.
+     */
+    void cloneMirror(String url, File workingCopy) {
+        File mirror = getMirror(url);
+        if (new File(workingCopy, ".git").exists()) {
+            runSystemCommand(workingCopy.getAbsolutePath(), true, "git", "fetch", "--tags", "origin");
+        } else {
+            workingCopy.getAbsoluteFile().getParentFile().mkdirs();
+            runSystemCommand(workingCopy.getAbsoluteFile().getParentFile().getAbsolutePath(), true,
+                    "git", "clone", "--shared", "--no-checkout", mirror.getAbsolutePath(), workingCopy.getName());
+        }
+    }
+
+    File getMirror(String url) {
+        String name = url.replaceAll("/+$", "");
+        name = name.substring(name.lastIndexOf('/') + 1).replaceAll("\\.git$", "").replaceAll("[^A-Za-z0-9._-]", "_");
+        return new File(mirrorsDir, name + "-" + DigestUtils.sha1Hex(url).substring(0, 8) + ".git");
+    }
+
+    private void updateMirror(String url, File mirror, Collection<String> versions, File referenceMirror) {
+        if (!mirror.exists()) {
+            mirror.mkdirs();
+            runSystemCommand(mirror.getAbsolutePath(), false, "git", "-c", "init.defaultBranch=master", "init", "--bare", "--quiet");
+        }
+        if (referenceMirror != null && referenceMirror.exists() && !referenceMirror.equals(mirror)) {
+            addAlternate(mirror, referenceMirror);
+        }
+
+        List<String> refs = findRemoteRefs(url, versions);
+        if (refs.isEmpty()) return;
+        List<String> command = new ArrayList<>(Arrays.asList("git", "fetch", "--no-tags", url));
+        for (String ref : refs) {
+            command.add("+" + ref + ":" + ref);
+        }
+        log("Fetching " + refs.size() + " refs of " + url + " to " + mirror.getName() + "...");
+        runSystemCommand(mirror.getAbsolutePath(), true, command.toArray(new String[0]));
+    }
+
+    private List<String> findRemoteRefs(String url, Collection<String> versions) {
+        Set<String> wanted = new HashSet<>();
+        for (String version : versions) {
+            wanted.add(TAGS_PREFIX + version);
+            wanted.add(HEADS_PREFIX + version);
+        }
+        List<String> command = new ArrayList<>(Arrays.asList("git", "ls-remote", url));
+        command.addAll(versions);
+        String output = runSystemCommand(mirrorsDir.getAbsolutePath(), false, command.toArray(new String[0]));
+
+        List<String> result = new ArrayList<>();
+        Set<String> found = new HashSet<>();
+        for (String line : output.split("\n")) {
+            String[] cells = line.split("\t");
+            if (cells.length != 2 || !wanted.contains(cells[1])) continue;
+            result.add(cells[1]);
+            found.add(cells[1].startsWith(TAGS_PREFIX) ?
+                    cells[1].substring(TAGS_PREFIX.length()) : cells[1].substring(HEADS_PREFIX.length()));
+        }
+        for (String version : versions) {
+            if (!found.contains(version)) log(version + " was not found in " + url);
+        }
+        return result;
+    }
+
+    private void addAlternate(File mirror, File referenceMirror) {
+        File alternates = new File(mirror, "objects/info/alternates");
+        String referenceObjects = new File(referenceMirror, "objects").getAbsolutePath();
+        if (alternates.exists()) {
+            List<String> lines = Utils.readFile(alternates);
+            if (lines != null && lines.contains(referenceObjects)) return;
+        }
+        alternates.getParentFile().mkdirs();
+        try (FileWriter writer = new FileWriter(alternates, true)) {
+            writer.write(referenceObjects + "\n");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
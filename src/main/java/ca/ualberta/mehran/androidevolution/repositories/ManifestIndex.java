@@ -0,0 +1,92 @@
+package ca.ualberta.mehran.androidevolution.repositories;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.PathSuffixFilter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static ca.ualberta.mehran.androidevolution.Utils.log;
+
+/**
+ * Lists the Android manifests of a version straight from its git tree, without checking the version out. Listings
+ * are cached by tree, so a version that appears in several version lines is only listed once.
+ * <p>
+ * Paths are relative to the root of the repository and start with a slash, e.g. "/core/AndroidManifest.xml".
+ */
+class ManifestIndex {
+
+    private static final String ANDROID_MANIFEST = "AndroidManifest.xml";
+
+    private final Map<ObjectId, Set<String>> manifestsByTree = new ConcurrentHashMap<>();
+
+    /**
+     * @return paths of the manifests in the version, or null if the repository has no such tag or branch
+     */
+    Set<String> getAndroidManifestFiles(File repoPath, String version) {
+        try (Repository repository = openRepository(repoPath); RevWalk revWalk = new RevWalk(repository)) {
+            RevTree tree = resolveTree(repository, revWalk, version);
+            if (tree == null) return null;
+            Set<String> manifests = manifestsByTree.get(tree.getId());
+            if (manifests == null) {
+                manifests = listManifests(repository, tree);
+                manifestsByTree.put(tree.copy(), manifests);
+            }
+            return manifests;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    boolean hasFolder(File repoPath, String version, String relativePath) {
+        try (Repository repository = openRepository(repoPath); RevWalk revWalk = new RevWalk(repository)) {
+            RevTree tree = resolveTree(repository, revWalk, version);
+            if (tree == null) return false;
+            String path = relativePath.startsWith("/") ? relativePath.substring(1) : relativePath;
+            try (TreeWalk treeWalk = TreeWalk.forPath(repository, path, tree)) {
+                return treeWalk != null && treeWalk.isSubtree();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    private Set<String> listManifests(Repository repository, RevTree tree) throws IOException {
+        Set<String> result = new HashSet<>();
+        try (TreeWalk treeWalk = new TreeWalk(repository)) {
+            treeWalk.addTree(tree);
+            treeWalk.setRecursive(true);
+            treeWalk.setFilter(PathSuffixFilter.create(ANDROID_MANIFEST));
+            while (treeWalk.next()) {
+                if (treeWalk.getNameString().equals(ANDROID_MANIFEST)) {
+                    result.add("/" + treeWalk.getPathString());
+                }
+            }
+        }
+        return result;
+    }
+
+    static RevTree resolveTree(Repository repository, RevWalk revWalk, String version) throws IOException {
+        // Branches of a fresh clone are only there as remote branches
+        ObjectId id = repository.resolve(version);
+        if (id == null) id = repository.resolve("origin/" + version);
+        if (id == null) {
+            log(version + " did not match any tag or branch in " + repository.getDirectory());
+            return null;
+        }
+        return revWalk.parseCommit(id).getTree();
+    }
+
+    static Repository openRepository(File repoPath) throws IOException {
+        return new FileRepositoryBuilder().setGitDir(new File(repoPath, ".git")).setMustExist(true).build();
+    }
+}
@@ -0,0 +1,125 @@
+package ca.ualberta.mehran.androidevolution.repositories;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static ca.ualberta.mehran.androidevolution.Utils.log;
+import static ca.ualberta.mehran.androidevolution.repositories.WorkQueue.*;
+
+/**
+ * Claims the items of a {@link WorkQueue} one at a time and runs them, until the coordinator is finished. Any number
+ * of workers, on any machines that share the queue's folder, can work on the same queue.
+ */
+class QueueWorker {
+
+    private static final long IDLE_SLEEP_MILLIS = 2000;
+    // Often enough for a lease to be touched a few times before it expires
+    private static final long HEARTBEAT_MILLIS = LEASE_MILLIS / 4;
+
+    private final AnalysisWorker analysisWorker;
+    private final File pendingDir;
+    private final File leasedDir;
+    private final File resultsDir;
+    private final File finishedFile;
+    private final String sourcererCCPath;
+    private final ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "lease-heartbeat");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @param sourcererCCPath SourcererCC folder of this worker, used instead of the coordinator's
+     */
+    QueueWorker(File queueDir, AnalysisWorker analysisWorker, String sourcererCCPath) {
+        this.analysisWorker = analysisWorker;
+        this.sourcererCCPath = sourcererCCPath;
+        pendingDir = new File(queueDir, PENDING_PATH);
+        leasedDir = new File(queueDir, LEASED_PATH);
+        resultsDir = new File(queueDir, RESULTS_PATH);
+        finishedFile = new File(queueDir, FINISHED_FILE);
+    }
+
+    void run() {
+        // A coordinator that finished before this worker started is of an earlier run; the next one removes its mark
+        boolean staleFinish = finishedFile.exists();
+        log("Waiting for work in " + pendingDir.getParentFile().getAbsolutePath() + "...");
+        while (true) {
+            String id = claim();
+            if (id != null) {
+                work(id);
+                continue;
+            }
+            if (!finishedFile.exists()) {
+                staleFinish = false;
+            } else if (!staleFinish) {
+                break;
+            }
+            try {
+                Thread.sleep(IDLE_SLEEP_MILLIS);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+        heartbeat.shutdownNow();
+        log("The coordinator is finished, exiting");
+    }
+
+    /**
+     * @return the id of the item this worker leased, or null if there are none pending
+     */
+    private String claim() {
+        String[] ids = pendingDir.list((dir, name) -> !name.endsWith(TEMPORARY_SUFFIX));
+        if (ids == null) return null;
+        // In the order they were queued, which is the order the coordinator wants them run in
+        Arrays.sort(ids);
+        for (String id : ids) {
+            try {
+                move(new File(pendingDir, id), new File(leasedDir, id));
+                return id;
+            } catch (IOException e) {
+                // Another worker claimed it first
+            }
+        }
+        return null;
+    }
+
+    private void work(String id) {
+        File leasedFile = new File(leasedDir, id);
+        AtomicBoolean leaseLost = new AtomicBoolean();
+        ScheduledFuture<?> heartbeatFuture = heartbeat.scheduleAtFixedRate(() -> {
+            if (!leasedFile.setLastModified(System.currentTimeMillis()) && !leaseLost.getAndSet(true)) {
+                log("Lease of " + id + " is lost; it may run on another worker as well");
+            }
+        }, 0, HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
+        boolean published = false;
+        try {
+            byte kind;
+            String[] paths;
+            try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(leasedFile)))) {
+                kind = input.readByte();
+                paths = AnalysisWorker.readPaths(input, kind);
+            }
+            paths[paths.length - 1] = sourcererCCPath;
+            log("Running " + paths[0] + "...");
+            File temporaryFile = new File(resultsDir, id + TEMPORARY_SUFFIX);
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile), 1 << 16))) {
+                analysisWorker.handle(kind, paths, output);
+            }
+            move(temporaryFile, new File(resultsDir, id));
+            published = true;
+        } catch (IOException e) {
+            log("Can't run " + id + ": " + e);
+            e.printStackTrace();
+        } finally {
+            heartbeatFuture.cancel(false);
+            // An item without a result goes back to the queue once its lease expires
+            if (published) leasedFile.delete();
+        }
+    }
+}
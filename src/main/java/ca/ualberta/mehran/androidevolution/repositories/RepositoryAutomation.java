@@ -2,19 +2,27 @@ package ca.ualberta.mehran.androidevolution.repositories;
 
 
 import ca.ualberta.mehran.androidevolution.Utils;
+import ca.ualberta.mehran.androidevolution.mapping.AndroidMappingCache;
 import ca.ualberta.mehran.androidevolution.mapping.EvolutionAnalyser;
-import org.apache.commons.io.FileUtils;
+import ca.ualberta.mehran.androidevolution.mapping.IntersectionMatrix;
+import ca.ualberta.mehran.androidevolution.mapping.ResultCache;
+import ca.ualberta.mehran.androidevolution.mapping.discovery.ParallelJdtHelper;
+import ca.ualberta.mehran.androidevolution.mapping.discovery.implementation.NearMissHelper;
+import ca.ualberta.mehran.androidevolution.mapping.output.MappingRecord;
+import ca.ualberta.mehran.androidevolution.mapping.output.MappingRecordWriter;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
 
 import java.io.File;
 import java.io.FileFilter;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.security.MessageDigest;
 import java.util.*;
 
 import static ca.ualberta.mehran.androidevolution.Utils.log;
-import static ca.ualberta.mehran.androidevolution.Utils.runSystemCommand;
 
 public class RepositoryAutomation {
 
@@ -22,155 +30,598 @@ public class RepositoryAutomation {
     private static final String OUTPUT_PATH = "output";
     private static final String CSV_INPUT_PATH = "input/csv";
     private static final String REPOS_PATH = "input/repos";
+    private static final String MIRRORS_PATH = "input/mirrors";
+    private static final String RESULT_CACHE_PATH = "cache/results";
+    private static final long RESULT_CACHE_SIZE_BYTES = 2L * 1024 * 1024 * 1024;
+    private static final int ANDROID_MAPPING_CACHE_METHODS = 500000;
+    private static final String SUBSYSTEM_COSTS_PATH = "cache/subsystem_costs.tsv";
+    // On the same file system as REPOS_PATH, for the extracted folders to link to it
+    private static final String BLOB_STORE_PATH = "cache/blobs";
 
     private static final String VERSION_LINE_PREFIX = "versions:";
+    private static final String JDT_EXTRACTOR_OPTION = "--extractor=jdt";
+    private static final String NEAR_MISS_OPTION = "--near-miss";
+    private static final String JOBS_OPTION = "--jobs=";
+    private static final String ISOLATED_WORKERS_OPTION = "--isolated-workers";
+    private static final String WORKER_HEAP_OPTION = "--worker-heap=";
+    private static final String WORKER_TIMEOUT_OPTION = "--worker-timeout=";
+    // Makes this JVM a worker of another one's pool
+    private static final String POOL_WORKER_OPTION = "--pool-worker";
+    private static final String COORDINATOR_OPTION = "--coordinator=";
+    private static final String WORKER_OPTION = "--worker=";
+    private static final String DAEMON_OPTION = "--daemon";
+    private static final String DISK_BUDGET_OPTION = "--disk-budget=";
+
+    private final CloneManager cloneManager = new CloneManager(new File(MIRRORS_PATH));
+    private final ManifestIndex manifestIndex = new ManifestIndex();
+    // Versions of subsystems are extracted once per file, however many folders have them
+    private final BlobStore blobStore = new BlobStore(new File(BLOB_STORE_PATH));
+    private final TreeExtractor treeExtractor = new TreeExtractor(blobStore);
+    // Times of earlier analyses, for running the longest ones first
+    private final SubsystemCosts subsystemCosts = new SubsystemCosts(new File(SUBSYSTEM_COSTS_PATH));
+    // Analyses start only while the heap has room for them
+    private final AdmissionController admissionController = new AdmissionController();
+    private final ResultCache resultCache = new ResultCache(new File(RESULT_CACHE_PATH), RESULT_CACHE_SIZE_BYTES);
+    // Shared by the projects of a run, as they compare against the same Android versions
+    private final AndroidMappingCache androidMappingCache = new AndroidMappingCache(ANDROID_MAPPING_CACHE_METHODS);
+    // Proprietary versions of the analyses that use each comparison of Android versions, by the comparison's task
+    private final Map<String, List<String>> modifiedPathsByComparison = new HashMap<>();
+    private boolean useJdtExtractor;
+    private boolean matchNearMisses;
+    // Analyses that run at once
+    private int jobs = 1;
+    private boolean isolatedWorkers;
+    // -Xmx of isolated workers, or null for the heap of this JVM
+    private String workerHeap;
+    private long workerTimeoutMinutes;
+    // Folder of the work queue shared with the workers of other processes or machines
+    private File coordinatorQueue;
+    // Runs the analyses when they don't run in this JVM
+    private AnalysisWorkers analysisWorkers;
+    // Bytes the mirrors, working copies and extracted folders may take, or 0 for no limit
+    private long diskBudgetBytes;
+    private WorkspaceManager workspaceManager;
 
     public static void main(String[] args) {
 
         String sourcererCCPath = "./sourcerercc";
-
-        if (args != null && args.length > 0) {
-            sourcererCCPath = args[0];
+        RepositoryAutomation repositoryAutomation = new RepositoryAutomation();
+        boolean poolWorker = false;
+        File workerQueue = null;
+        int daemonPort = 0;
+
+        if (args != null) {
+            for (String arg : args) {
+                if (arg.equals(JDT_EXTRACTOR_OPTION)) {
+                    repositoryAutomation.useJdtExtractor = true;
+                } else if (arg.equals(NEAR_MISS_OPTION)) {
+                    repositoryAutomation.matchNearMisses = true;
+                } else if (arg.startsWith(JOBS_OPTION)) {
+                    repositoryAutomation.jobs = Math.max(1, Integer.parseInt(arg.substring(JOBS_OPTION.length())));
+                } else if (arg.equals(ISOLATED_WORKERS_OPTION)) {
+                    repositoryAutomation.isolatedWorkers = true;
+                } else if (arg.startsWith(WORKER_HEAP_OPTION)) {
+                    repositoryAutomation.workerHeap = arg.substring(WORKER_HEAP_OPTION.length());
+                } else if (arg.startsWith(WORKER_TIMEOUT_OPTION)) {
+                    repositoryAutomation.workerTimeoutMinutes = Long.parseLong(arg.substring(WORKER_TIMEOUT_OPTION.length()));
+                } else if (arg.startsWith(COORDINATOR_OPTION)) {
+                    repositoryAutomation.coordinatorQueue = new File(arg.substring(COORDINATOR_OPTION.length())).getAbsoluteFile();
+                } else if (arg.startsWith(WORKER_OPTION)) {
+                    workerQueue = new File(arg.substring(WORKER_OPTION.length())).getAbsoluteFile();
+                } else if (arg.equals(DAEMON_OPTION)) {
+                    daemonPort = AnalysisDaemon.DEFAULT_PORT;
+                } else if (arg.startsWith(DAEMON_OPTION + "=")) {
+                    daemonPort = Integer.parseInt(arg.substring(DAEMON_OPTION.length() + 1));
+                } else if (arg.startsWith(DISK_BUDGET_OPTION)) {
+                    try {
+                        repositoryAutomation.diskBudgetBytes = WorkspaceManager.parseSize(arg.substring(DISK_BUDGET_OPTION.length()));
+                    } catch (IllegalArgumentException e) {
+                        log(e.getMessage() + "; usage: " + DISK_BUDGET_OPTION + "<size>, e.g. " + DISK_BUDGET_OPTION + "50g");
+                        System.exit(2);
+                    }
+                } else if (arg.equals(POOL_WORKER_OPTION)) {
+                    poolWorker = true;
+                } else {
+                    sourcererCCPath = arg;
+                }
+            }
         }
 //        else {
 //            throw new RuntimeException("SourcererCC path not provided");
 //        }
 
-        new RepositoryAutomation().run(new File(sourcererCCPath).getAbsolutePath());
+        if (poolWorker) {
+            try {
+                new AnalysisWorker(repositoryAutomation::createEvolutionAnalyser).serve();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return;
+        }
+        if (daemonPort != 0) {
+            try {
+                new AnalysisDaemon(new AnalysisWorker(repositoryAutomation::createDaemonAnalyser),
+                        new File(sourcererCCPath).getAbsolutePath(), repositoryAutomation.jobs).serve(daemonPort);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return;
+        }
+        if (workerQueue != null) {
+            new QueueWorker(workerQueue, new AnalysisWorker(repositoryAutomation::createEvolutionAnalyser),
+                    new File(sourcererCCPath).getAbsolutePath()).run();
+            return;
+        }
+        repositoryAutomation.run(new File(sourcererCCPath).getAbsolutePath());
     }
 
     public void run(String sourcererCCPath) {
+        if (coordinatorQueue != null) {
+            analysisWorkers = new WorkQueue(coordinatorQueue);
+        } else if (isolatedWorkers) {
+            // Started now, so the workers are warm by the time the first analysis is ready
+            analysisWorkers = new WorkerPool(jobs, getWorkerArgs(), workerHeap, workerTimeoutMinutes * 60 * 1000);
+        }
+        // All projects are planned before anything runs, so work they have in common is only done once. Workers have
+        // heaps of their own, so the heap of this JVM doesn't limit them.
+        TaskGraph graph = new TaskGraph(jobs, analysisWorkers == null ? admissionController : null);
+        workspaceManager = new WorkspaceManager(treeExtractor, blobStore, diskBudgetBytes);
+        workspaceManager.findExtracted(new File(REPOS_PATH));
+        graph.setListener(workspaceManager);
+        Map<String, Set<String>> versionsByUrl = new HashMap<>();
+        for (ProjectInput project : readProjectInputs()) {
+            planProject(graph, project, versionsByUrl, sourcererCCPath);
+        }
+        try {
+            graph.execute();
+        } finally {
+            if (analysisWorkers != null) analysisWorkers.close();
+        }
+        int prunedCount = blobStore.prune();
+        if (prunedCount > 0) log("Removed " + prunedCount + " files no extracted folder uses from " + BLOB_STORE_PATH);
+        log("Run finished: " + graph.getStateCounts() + ", " + workspaceManager.getReport());
+    }
 
-        // Project input CSV files should be copied to CSV_INPUT_PATH/PROJECT_NAME.
-        for (File projectInputCSVsDir : getProjectInputCSVsPath()) {
-            String projectName = projectInputCSVsDir.getName();
-            File[] inputCsvFiles = getProjectInputCsvFiles(projectInputCSVsDir);
+    private List<String> getWorkerArgs() {
+        List<String> result = new ArrayList<>();
+        result.add(POOL_WORKER_OPTION);
+        if (useJdtExtractor) result.add(JDT_EXTRACTOR_OPTION);
+        if (matchNearMisses) result.add(NEAR_MISS_OPTION);
+        return result;
+    }
 
-            List<Subsystem> allSubsystems = new ArrayList<>();
-            StringBuilder projectStats = new StringBuilder();
-            projectStats.append("Comparison versions,Number of subsystems\n");
+    private void planProject(TaskGraph graph, ProjectInput project, Map<String, Set<String>> versionsByUrl,
+                             String sourcererCCPath) {
+        RunJournal journal = openRunJournal(project.name);
+        if (journal != null && journal.isDone(project.completedKey, RunJournal.State.COMPLETED, getProjectTotalFile(project.name))) {
+            log("Skipping " + project.name + ", it was analyzed in an earlier run");
+            closeRunJournal(journal);
+            return;
+        }
+        ProjectRun projectRun = new ProjectRun(project.name, project.completedKey, project.csvInputs.size(), journal);
+        projectRun.totalTask = graph.add("total:" + project.name, false, () -> {
+            projectRun.complete();
+            return true;
+        });
 
-            for (File inputCsvFile : inputCsvFiles) {
-                if (!isValidInputCsvFile(inputCsvFile)) continue;
-
-                List<PairedRepository> pairedRepositories = new ArrayList<>();
-                List<ComparisonVersions> versions = new ArrayList<>();
-                readInputCsvFile(inputCsvFile, pairedRepositories, versions);
-
-                for (ComparisonVersions comparisonVersion : versions) {
-                    List<Subsystem> comparisonVersionSubsystems = new ArrayList<>();
-                    for (PairedRepository pairedRepository : pairedRepositories) {
-                        log("Initializing " + pairedRepository + "...");
-                        String repoPath = new File(REPOS_PATH, pairedRepository.name).getAbsolutePath();
-                        File aospRepoPath = new File(repoPath, "aosp");
-                        File proprietaryRepoPath = new File(repoPath, projectName);
-                        aospRepoPath.mkdirs();
-                        proprietaryRepoPath.mkdirs();
-
-                        checkoutRepository(pairedRepository, aospRepoPath, proprietaryRepoPath);
-                        List<Subsystem> repoSubsystems = getSubsystemsInRepository(pairedRepository.name, aospRepoPath, proprietaryRepoPath, comparisonVersion);
-                        if (repoSubsystems == null) continue;
-                        comparisonVersionSubsystems.addAll(repoSubsystems);
-                    }
-                    projectStats.append(comparisonVersion + "," + comparisonVersionSubsystems.size() + "\n");
-                    allSubsystems.addAll(comparisonVersionSubsystems);
-                }
+        for (int i = 0; i < project.csvInputs.size(); i++) {
+            CsvInput csvInput = project.csvInputs.get(i);
+            int csvIndex = i;
+            List<TaskGraph.Task> cloneTasks = new ArrayList<>();
+            for (PairedRepository pairedRepository : csvInput.pairedRepositories) {
+                cloneTasks.addAll(planCheckout(graph, pairedRepository, getAospRepoPath(pairedRepository),
+                        getProprietaryRepoPath(pairedRepository, project.name), csvInput.versions, versionsByUrl));
+            }
+            // Subsystems are only known once the repositories are there, so their tasks are added then
+            TaskGraph.Task subsystemsTask = graph.add("subsystems:" + project.name + ":" + i, false, () -> {
+                planSubsystems(graph, projectRun, csvIndex, csvInput, cloneTasks, sourcererCCPath);
+                return true;
+            });
+            for (TaskGraph.Task cloneTask : cloneTasks) {
+                subsystemsTask.dependsOn(cloneTask);
+            }
+            // The working copies are read until the tasks of their subsystems are added, which hold them after that
+            for (PairedRepository pairedRepository : csvInput.pairedRepositories) {
+                workspaceManager.hold(subsystemsTask, getAospRepoPath(pairedRepository),
+                        getProprietaryRepoPath(pairedRepository, project.name));
             }
-            Utils.writeToFile(OUTPUT_PATH + "/subsystems_" + projectName + ".txt", projectStats.toString());
-            prepareForAnalysis(projectName, allSubsystems, sourcererCCPath);
+            projectRun.await(subsystemsTask);
         }
+    }
 
+    private List<TaskGraph.Task> planCheckout(TaskGraph graph, PairedRepository pairedRepository, File aospRepoPath,
+                                              File proprietaryRepoPath, List<ComparisonVersions> versions,
+                                              Map<String, Set<String>> versionsByUrl) {
+        Set<String> androidVersions = versionsByUrl.computeIfAbsent(pairedRepository.androidRepositoryURL, url -> new LinkedHashSet<>());
+        Set<String> proprietaryVersions = versionsByUrl.computeIfAbsent(pairedRepository.proprietaryRepositoryURL, url -> new LinkedHashSet<>());
+        for (ComparisonVersions comparisonVersions : versions) {
+            androidVersions.add(comparisonVersions.androidOldVersion);
+            androidVersions.add(comparisonVersions.androidNewVersion);
+            proprietaryVersions.add(comparisonVersions.proprietaryVersion);
+        }
+        // A mirror is fetched once with the versions of all projects, which are all known when the tasks run
+        TaskGraph.Task androidMirrorTask = graph.add("mirror:" + pairedRepository.androidRepositoryURL, false, () -> {
+            workspaceManager.makeRoom();
+            cloneManager.updateMirror(pairedRepository.androidRepositoryURL, androidVersions, null);
+            workspaceManager.mirrorUpdated(cloneManager.getMirror(pairedRepository.androidRepositoryURL));
+            return true;
+        });
+        // The proprietary repository is a fork of the Android one, so its mirror borrows the Android mirror's objects
+        TaskGraph.Task proprietaryMirrorTask = graph.add("mirror:" + pairedRepository.proprietaryRepositoryURL, false, () -> {
+            workspaceManager.makeRoom();
+            cloneManager.updateMirror(pairedRepository.proprietaryRepositoryURL, proprietaryVersions,
+                    pairedRepository.androidRepositoryURL);
+            workspaceManager.mirrorUpdated(cloneManager.getMirror(pairedRepository.proprietaryRepositoryURL));
+            return true;
+        }).dependsOn(androidMirrorTask);
+        TaskGraph.Task aospCloneTask = graph.add("clone:" + aospRepoPath, false, () -> {
+            log("Initializing " + pairedRepository + "...");
+            workspaceManager.makeRoom();
+            cloneManager.cloneMirror(pairedRepository.androidRepositoryURL, aospRepoPath);
+            workspaceManager.cloned(aospRepoPath);
+            return true;
+        }).dependsOn(androidMirrorTask);
+        TaskGraph.Task proprietaryCloneTask = graph.add("clone:" + proprietaryRepoPath, false, () -> {
+            workspaceManager.makeRoom();
+            cloneManager.cloneMirror(pairedRepository.proprietaryRepositoryURL, proprietaryRepoPath);
+            workspaceManager.cloned(proprietaryRepoPath);
+            return true;
+        }).dependsOn(proprietaryMirrorTask);
+        return Arrays.asList(aospCloneTask, proprietaryCloneTask);
     }
 
-    private void prepareForAnalysis(String projectName, List<Subsystem> subsystems, String sourcererCCPath) {
+    private void planSubsystems(TaskGraph graph, ProjectRun projectRun, int csvIndex,
+                                CsvInput csvInput, List<TaskGraph.Task> cloneTasks, String sourcererCCPath) {
+        StringBuilder stats = new StringBuilder();
+        for (ComparisonVersions comparisonVersion : csvInput.versions) {
+            int subsystemsCount = 0;
+            for (PairedRepository pairedRepository : csvInput.pairedRepositories) {
+                File aospRepoPath = getAospRepoPath(pairedRepository);
+                File proprietaryRepoPath = getProprietaryRepoPath(pairedRepository, projectRun.name);
+                List<Subsystem> repoSubsystems = getSubsystemsInRepository(pairedRepository.name, aospRepoPath, proprietaryRepoPath, comparisonVersion);
+                if (repoSubsystems == null) {
+                    // A version is missing, e.g. its fetch failed; a later run lists the subsystems again
+                    projectRun.failed();
+                    continue;
+                }
+                subsystemsCount += repoSubsystems.size();
+                for (Subsystem subsystem : repoSubsystems) {
+                    planSubsystem(graph, projectRun, subsystem, cloneTasks, sourcererCCPath);
+                }
+            }
+            stats.append(comparisonVersion + "," + subsystemsCount + "\n");
+        }
+        projectRun.setSubsystemStats(csvIndex, stats.toString());
+    }
 
-        EvolutionAnalyser evolutionAnalyser = new EvolutionAnalyser();
-        String outputPath = new File(OUTPUT_PATH, projectName).getAbsolutePath();
-
-        for (Subsystem subsystem : subsystems) {
-            log("Preparing " + subsystem + "...");
-            // TODO: Pass the repo's path via subsystem. This is hacky.
-            String repoPath = new File(subsystem.aospRepoPath).getParentFile().getAbsolutePath();
-            String analysisName = subsystem.name + "_" +
-                    subsystem.comparisonVersions.androidOldVersion + "_" +
-                    subsystem.comparisonVersions.androidNewVersion + "_" +
-                    projectName + "_" + subsystem.comparisonVersions.proprietaryVersion;
-            File comparisonFolderParent = new File(repoPath, analysisName);
-            comparisonFolderParent.mkdir();
-            ComparisionFolder comparisionFolderAoAn = new ComparisionFolder(comparisonFolderParent.getAbsolutePath(),
-                    subsystem.comparisonVersions.androidOldVersion, subsystem.comparisonVersions.androidNewVersion);
-            ComparisionFolder comparisionFolderAoProprietary = new ComparisionFolder(comparisonFolderParent.getAbsolutePath(),
-                    subsystem.comparisonVersions.androidOldVersion, subsystem.comparisonVersions.proprietaryVersion);
-
-            if (!gitChangeBranch(subsystem.aospRepoPath, subsystem.comparisonVersions.androidOldVersion)) continue;
-            copyFolder(new File(subsystem.aospRepoPath, subsystem.relativePath).getAbsolutePath(), comparisionFolderAoAn.getOldVersionPath());
-            copyFolder(new File(subsystem.aospRepoPath, subsystem.relativePath).getAbsolutePath(), comparisionFolderAoProprietary.getOldVersionPath());
-
-            if (!gitChangeBranch(subsystem.aospRepoPath, subsystem.comparisonVersions.androidNewVersion)) continue;
-            copyFolder(new File(subsystem.aospRepoPath, subsystem.relativePath).getAbsolutePath(), comparisionFolderAoAn.getNewVersionPath());
-
-            if (!gitChangeBranch(subsystem.proprietaryRepoPath, subsystem.comparisonVersions.proprietaryVersion))
-                continue;
-            copyFolder(new File(subsystem.proprietaryRepoPath, subsystem.relativePath).getAbsolutePath(), comparisionFolderAoProprietary.getNewVersionPath());
+    private void planSubsystem(TaskGraph graph, ProjectRun projectRun, Subsystem subsystem,
+                               List<TaskGraph.Task> cloneTasks, String sourcererCCPath) {
+        String projectName = projectRun.name;
+        RunJournal journal = projectRun.journal;
+        // TODO: Pass the repo's path via subsystem. This is hacky.
+        String repoPath = new File(subsystem.aospRepoPath).getParentFile().getAbsolutePath();
+        String analysisName = subsystem.name + "_" +
+                subsystem.comparisonVersions.androidOldVersion + "_" +
+                subsystem.comparisonVersions.androidNewVersion + "_" +
+                projectName + "_" + subsystem.comparisonVersions.proprietaryVersion;
+        String journalKey = analysisName + ":" + subsystem.relativePath;
+        File subsystemOutput = new File(projectRun.outputPath, analysisName + ".csv");
+
+        // The same subsystem may come from more than one input file of the project
+        if (!projectRun.plan(journalKey)) return;
+        if (journal != null && journal.isDone(journalKey, RunJournal.State.WRITTEN, subsystemOutput)) {
+            log("Skipping " + subsystem + ", it was analyzed in an earlier run");
+            projectRun.addStats(journal.get(journalKey).getMatrix());
+            return;
+        }
 
+        File comparisonFolderParent = new File(repoPath, analysisName);
+        comparisonFolderParent.mkdir();
+        // Android versions are compared in a folder of their own, shared by all projects with the same versions
+        File androidComparisonFolderParent = new File(new File(repoPath, "aosp_comparisons"),
+                subsystem.relativePath.replaceAll("^/+", "").replace('/', '_'));
+        androidComparisonFolderParent.mkdirs();
+        ComparisionFolder comparisionFolderAoAn = new ComparisionFolder(androidComparisonFolderParent.getAbsolutePath(),
+                subsystem.comparisonVersions.androidOldVersion, subsystem.comparisonVersions.androidNewVersion);
+        ComparisionFolder comparisionFolderAoProprietary = new ComparisionFolder(comparisonFolderParent.getAbsolutePath(),
+                subsystem.comparisonVersions.androidOldVersion, subsystem.comparisonVersions.proprietaryVersion);
+
+        // Tasks that hold back longer analyses go first; a comparison holds back the analyses that use it
+        // Costs depend on the options of the analysis as well, e.g. the method extractor
+        String analysisOptions = createEvolutionAnalyser().getAnalysisOptions();
+        String compareKey = new File(repoPath).getName() + ":" + subsystem.relativePath + ":" +
+                subsystem.comparisonVersions.androidOldVersion + "_" + subsystem.comparisonVersions.androidNewVersion +
+                "|" + analysisOptions;
+        String analysisKey = journalKey + "|" + analysisOptions;
+        SubsystemCosts.TreeSize androidOldSize = measure(subsystem.aospRepoPath, subsystem.comparisonVersions.androidOldVersion, subsystem.relativePath);
+        SubsystemCosts.TreeSize compareSize = androidOldSize.plus(
+                measure(subsystem.aospRepoPath, subsystem.comparisonVersions.androidNewVersion, subsystem.relativePath));
+        SubsystemCosts.TreeSize analysisSize = androidOldSize.plus(
+                measure(subsystem.proprietaryRepoPath, subsystem.comparisonVersions.proprietaryVersion, subsystem.relativePath));
+        long analysisCost = subsystemCosts.predict(analysisKey, analysisSize);
+        long compareCost = subsystemCosts.predict(compareKey, compareSize) + analysisCost;
+
+        List<TaskGraph.Task> androidExtractTasks = Arrays.asList(
+                planExtract(graph, subsystem.aospRepoPath, subsystem.comparisonVersions.androidOldVersion,
+                        subsystem.relativePath, comparisionFolderAoAn.getOldVersionPath(), cloneTasks),
+                planExtract(graph, subsystem.aospRepoPath, subsystem.comparisonVersions.androidNewVersion,
+                        subsystem.relativePath, comparisionFolderAoAn.getNewVersionPath(), cloneTasks));
+        List<TaskGraph.Task> proprietaryExtractTasks = Arrays.asList(
+                planExtract(graph, subsystem.aospRepoPath, subsystem.comparisonVersions.androidOldVersion,
+                        subsystem.relativePath, comparisionFolderAoProprietary.getOldVersionPath(), cloneTasks),
+                planExtract(graph, subsystem.proprietaryRepoPath, subsystem.comparisonVersions.proprietaryVersion,
+                        subsystem.relativePath, comparisionFolderAoProprietary.getNewVersionPath(), cloneTasks));
+
+        // Android versions are compared once for all projects, before the analyses that need them
+        File[] androidFolders = {new File(comparisionFolderAoAn.getOldVersionPath()), new File(comparisionFolderAoAn.getNewVersionPath())};
+        File[] proprietaryFolders = {new File(comparisionFolderAoProprietary.getOldVersionPath()), new File(comparisionFolderAoProprietary.getNewVersionPath())};
+        String compareTaskKey = "compare:" + comparisionFolderAoAn.getPath();
+        synchronized (modifiedPathsByComparison) {
+            modifiedPathsByComparison.computeIfAbsent(compareTaskKey, key -> new ArrayList<>())
+                    .add(comparisionFolderAoProprietary.getNewVersionPath());
+        }
+        TaskGraph.Task compareTask = graph.add(compareTaskKey, true, () -> {
+            if (!workspaceManager.restore(androidFolders)) return false;
+            if (areAnalysesCached(compareTaskKey, comparisionFolderAoAn, sourcererCCPath)) {
+                log("Skipping " + compareTaskKey + ", the results of the analyses that use it are cached");
+                return true;
+            }
+            long startTime = System.currentTimeMillis();
+            boolean compared;
+            if (analysisWorkers != null) {
+                compared = analysisWorkers.compareAndroidVersions(comparisionFolderAoAn.getPath(),
+                        comparisionFolderAoAn.getOldVersionPath(), comparisionFolderAoAn.getNewVersionPath(), sourcererCCPath);
+            } else {
+                compared = createEvolutionAnalyser().compareAndroidVersions(comparisionFolderAoAn.getPath(),
+                        comparisionFolderAoAn.getOldVersionPath(), comparisionFolderAoAn.getNewVersionPath(), sourcererCCPath);
+            }
+            // Comparisons found in the cache took next to nothing, and would make later predictions too low
+            if (compared) {
+                subsystemCosts.record(compareKey, compareSize, System.currentTimeMillis() - startTime, getFootprint());
+            }
+            return true;
+        }).withCost(compareCost).withMemory(subsystemCosts.predictHeap(compareKey, compareSize));
+        for (TaskGraph.Task extractTask : androidExtractTasks) {
+            compareTask.dependsOn(extractTask.withCost(compareCost));
+        }
+        // Consumers hold the working copies as well, for extracting folders that were removed before they were planned
+        workspaceManager.hold(compareTask, androidFolders);
+        workspaceManager.hold(compareTask, new File(subsystem.aospRepoPath));
+
+        TaskGraph.Task analysisTask = graph.add("analyse:" + projectName + ":" + journalKey, true, () -> {
+            if (journal != null && journal.getState(journalKey) != null) {
+                log("Resuming " + subsystem + "...");
+            } else {
+                log("Preparing " + subsystem + "...");
+                if (journal != null) journal.extracted(journalKey);
+            }
             try {
-                evolutionAnalyser.run(analysisName, comparisionFolderAoAn.getPath(),
-                        comparisionFolderAoAn.getOldVersionPath(), comparisionFolderAoAn.getNewVersionPath(),
-                        comparisionFolderAoProprietary.getPath(), comparisionFolderAoProprietary.getOldVersionPath(),
-                        comparisionFolderAoProprietary.getNewVersionPath(), sourcererCCPath, outputPath);
+                if (!workspaceManager.restore(androidFolders) || !workspaceManager.restore(proprietaryFolders)) return false;
+                long startTime = System.currentTimeMillis();
+                EvolutionAnalyser evolutionAnalyser = createEvolutionAnalyser();
+                ResultCache.Result result;
+                if (analysisWorkers != null) {
+                    result = analysisWorkers.analyse(analysisName, comparisionFolderAoAn.getPath(),
+                            comparisionFolderAoAn.getOldVersionPath(), comparisionFolderAoAn.getNewVersionPath(),
+                            comparisionFolderAoProprietary.getPath(), comparisionFolderAoProprietary.getOldVersionPath(),
+                            comparisionFolderAoProprietary.getNewVersionPath(), sourcererCCPath);
+                } else {
+                    result = evolutionAnalyser.analyse(analysisName, comparisionFolderAoAn.getPath(),
+                            comparisionFolderAoAn.getOldVersionPath(), comparisionFolderAoAn.getNewVersionPath(),
+                            comparisionFolderAoProprietary.getPath(), comparisionFolderAoProprietary.getOldVersionPath(),
+                            comparisionFolderAoProprietary.getNewVersionPath(), sourcererCCPath);
+                }
+                evolutionAnalyser.writeToOutput(result.getMatrix(), subsystemOutput.getAbsolutePath());
+                projectRun.analyzed(journalKey, subsystemOutput, result);
+                if (!result.isCached()) {
+                    subsystemCosts.record(analysisKey, analysisSize, System.currentTimeMillis() - startTime, getFootprint());
+                }
+                return true;
             } catch (Throwable e) {
                 log("An exception occurred while analyzing " + analysisName + ": " + e.getMessage());
                 for (StackTraceElement stackTraceElement : e.getStackTrace()) {
                     log(stackTraceElement.toString());
                 }
                 e.printStackTrace();
+                return false;
             }
+        }).withCost(analysisCost).withMemory(subsystemCosts.predictHeap(analysisKey, analysisSize));
+        for (TaskGraph.Task extractTask : androidExtractTasks) {
+            analysisTask.dependsOn(extractTask);
         }
+        for (TaskGraph.Task extractTask : proprietaryExtractTasks) {
+            analysisTask.dependsOn(extractTask.withCost(analysisCost));
+            // So the comparison can tell whether the analysis's result is cached; ignored once it has started
+            compareTask.runsAfter(extractTask);
+        }
+        // Without the shared comparison, the analysis compares the Android versions itself
+        analysisTask.runsAfter(compareTask);
+        workspaceManager.hold(analysisTask, androidFolders);
+        workspaceManager.hold(analysisTask, proprietaryFolders);
+        workspaceManager.hold(analysisTask, new File(subsystem.aospRepoPath), new File(subsystem.proprietaryRepoPath));
+        projectRun.await(analysisTask);
+
+        for (TaskGraph.Task task : androidExtractTasks) task.submit();
+        for (TaskGraph.Task task : proprietaryExtractTasks) task.submit();
+        compareTask.submit();
+        analysisTask.submit();
     }
 
-    private void readInputCsvFile(File inputCsvFile, List<PairedRepository> pairedRepositories, List<ComparisonVersions> versions) {
-        try {
-            Scanner input = new Scanner(inputCsvFile);
-            while (input.hasNextLine()) {
-                String line = input.nextLine().trim();
-                if (line.equals("") || line.startsWith("!") || line.startsWith("#") || line.startsWith("/")) {
-                    continue;
-                } else if (line.toLowerCase().startsWith(VERSION_LINE_PREFIX)) {
-                    versions.add(new ComparisonVersions(line));
-                } else if (line.split(",").length >= 3) {
-                    String[] cells = line.split(",");
-                    if (cells.length >= 3) {
-                        PairedRepository pairedRepository = new PairedRepository(cells[0], cells[1], cells[2]);
-                        pairedRepositories.add(pairedRepository);
-                    }
-                }
+    /**
+     * @return heap the last analysis of this thread took, or 0 if it is not known
+     */
+    private long getFootprint() {
+        return analysisWorkers != null ? analysisWorkers.getFootprint() : admissionController.getFootprint();
+    }
+
+    private SubsystemCosts.TreeSize measure(String repoPath, String version, String relativePath) {
+        SubsystemCosts.TreeSize size = subsystemCosts.measure(new File(repoPath), version, relativePath);
+        // A version that can't be measured can't be extracted either, and its analysis will not run
+        return size == null ? new SubsystemCosts.TreeSize(0, 0, 0) : size;
+    }
+
+    private TaskGraph.Task planExtract(TaskGraph graph, String repoPath, String version, String relativePath,
+                                       String destination, List<TaskGraph.Task> cloneTasks) {
+        TaskGraph.Task extractTask = graph.add("extract:" + destination, false,
+                () -> workspaceManager.extract(new File(destination)));
+        for (TaskGraph.Task cloneTask : cloneTasks) {
+            extractTask.dependsOn(cloneTask);
+        }
+        workspaceManager.planExtraction(extractTask, new File(repoPath), version, relativePath, new File(destination));
+        return extractTask;
+    }
+
+    /**
+     * Whether all analyses planned so far that use the comparison would load their results from the result cache,
+     * so the Android versions need not be compared. An analysis planned after the comparison has started compares
+     * them itself if its result is not cached.
+     */
+    private boolean areAnalysesCached(String compareTaskKey, ComparisionFolder comparisionFolderAoAn,
+                                      String sourcererCCPath) {
+        List<String> modifiedPaths;
+        synchronized (modifiedPathsByComparison) {
+            modifiedPaths = new ArrayList<>(modifiedPathsByComparison.get(compareTaskKey));
+        }
+        EvolutionAnalyser evolutionAnalyser = createEvolutionAnalyser();
+        for (String modifiedPath : modifiedPaths) {
+            if (!treeExtractor.isExtracted(new File(modifiedPath)) ||
+                    !evolutionAnalyser.isCached(comparisionFolderAoAn.getOldVersionPath(),
+                            comparisionFolderAoAn.getNewVersionPath(), modifiedPath, sourcererCCPath)) {
+                return false;
             }
+        }
+        return true;
+    }
+
+    private EvolutionAnalyser createEvolutionAnalyser() {
+        // Analysers keep the state of the analysis in progress, so each analysis has its own
+        EvolutionAnalyser evolutionAnalyser = new EvolutionAnalyser();
+        evolutionAnalyser.setResultCache(resultCache);
+        if (useJdtExtractor) {
+            evolutionAnalyser.setMethodExtractor(new ParallelJdtHelper());
+        }
+        if (matchNearMisses) {
+            evolutionAnalyser.setNearMissHelper(new NearMissHelper());
+        }
+        evolutionAnalyser.setAndroidMappingCache(androidMappingCache);
+        return evolutionAnalyser;
+    }
+
+    private EvolutionAnalyser createDaemonAnalyser() {
+        EvolutionAnalyser evolutionAnalyser = createEvolutionAnalyser();
+        // Android mappings are kept by the paths of their folders, whose files may change between the requests of
+        // an investigation; results are kept by the files' contents, and stay
+        evolutionAnalyser.setAndroidMappingCache(null);
+        return evolutionAnalyser;
+    }
+
+    private File getProjectTotalFile(String projectName) {
+        return new File(OUTPUT_PATH, projectName + "_total.csv");
+    }
+
+    private RunJournal openRunJournal(String projectName) {
+        try {
+            return new RunJournal(new File(OUTPUT_PATH, projectName + "_journal.tsv"));
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private void closeRunJournal(RunJournal journal) {
+        if (journal == null) return;
+        try {
+            journal.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private MappingRecordWriter openMappingRecordWriter(String projectName, long resumeFrom) {
+        try {
+            return new MappingRecordWriter(new File(OUTPUT_PATH, projectName + "_mappings.bin"), resumeFrom);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private long flushMappingRecordWriter(MappingRecordWriter mappingRecordWriter) {
+        if (mappingRecordWriter == null) return 0;
+        try {
+            mappingRecordWriter.flush();
+            return mappingRecordWriter.length();
         } catch (IOException e) {
             e.printStackTrace();
+            return 0;
         }
     }
 
-    private boolean isValidInputCsvFile(File inputCsvFile) {
+    private void closeMappingRecordWriter(MappingRecordWriter mappingRecordWriter) {
+        if (mappingRecordWriter == null) return;
         try {
-            Scanner input = new Scanner(inputCsvFile);
+            mappingRecordWriter.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private List<ProjectInput> readProjectInputs() {
+        List<ProjectInput> projects = new ArrayList<>();
+        // Project input CSV files should be copied to CSV_INPUT_PATH/PROJECT_NAME.
+        for (File projectInputCSVsDir : getProjectInputCSVsPath()) {
+            File[] inputCsvFiles = getProjectInputCsvFiles(projectInputCSVsDir);
+            Arrays.sort(inputCsvFiles);
+            ProjectInput project = new ProjectInput(projectInputCSVsDir.getName(), getInputsChecksum(inputCsvFiles));
+            for (File inputCsvFile : inputCsvFiles) {
+                CsvInput csvInput = readInputCsvFile(inputCsvFile);
+                if (csvInput != null) project.csvInputs.add(csvInput);
+            }
+            projects.add(project);
+        }
+        return projects;
+    }
+
+    /**
+     * @return a checksum of the names and contents of the files, which changes when versions or repositories are added
+     */
+    private String getInputsChecksum(File[] inputCsvFiles) {
+        MessageDigest digest = DigestUtils.getSha1Digest();
+        for (File inputCsvFile : inputCsvFiles) {
+            digest.update((inputCsvFile.getName() + "\n").getBytes(StandardCharsets.UTF_8));
+            try {
+                digest.update(Files.readAllBytes(inputCsvFile.toPath()));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return Hex.encodeHexString(digest.digest());
+    }
+
+    /**
+     * @return the repositories and versions of the file, or null if it has a line that is not one of them
+     */
+    private CsvInput readInputCsvFile(File inputCsvFile) {
+        CsvInput csvInput = new CsvInput();
+        try (Scanner input = new Scanner(inputCsvFile)) {
             while (input.hasNextLine()) {
                 String line = input.nextLine().trim();
                 if (line.equals("") || line.startsWith("!") || line.startsWith("#") || line.startsWith("/")) {
                     continue;
+                } else if (line.toLowerCase().startsWith(VERSION_LINE_PREFIX)) {
+                    csvInput.versions.add(new ComparisonVersions(line));
+                } else if (line.split(",").length >= 3) {
+                    String[] cells = line.split(",");
+                    csvInput.pairedRepositories.add(new PairedRepository(cells[0], cells[1], cells[2]));
+                } else {
+                    return null;
                 }
-                if (line.toLowerCase().startsWith(VERSION_LINE_PREFIX)) {
-                    continue;
-                }
-                if (line.split(",").length >= 3) {
-                    continue;
-                }
-                return false;
             }
-            return true;
+            return csvInput;
         } catch (IOException e) {
             e.printStackTrace();
         }
-        return false;
+        return null;
     }
 
     private File[] getProjectInputCSVsPath() {
@@ -186,9 +637,12 @@ public class RepositoryAutomation {
         });
     }
 
-    private void checkoutRepository(PairedRepository pairedRepository, File aospRepoPath, File proprietaryRepoPath) {
-        gitClone(pairedRepository.androidRepositoryURL, aospRepoPath.getParentFile().getAbsolutePath(), aospRepoPath.getName());
-        gitClone(pairedRepository.proprietaryRepositoryURL, proprietaryRepoPath.getParentFile().getAbsolutePath(), proprietaryRepoPath.getName());
+    private File getAospRepoPath(PairedRepository pairedRepository) {
+        return new File(new File(REPOS_PATH, pairedRepository.name), "aosp").getAbsoluteFile();
+    }
+
+    private File getProprietaryRepoPath(PairedRepository pairedRepository, String projectName) {
+        return new File(new File(REPOS_PATH, pairedRepository.name), projectName).getAbsoluteFile();
     }
 
     private File[] getProjectInputCsvFiles(File projectInputCsvPath) {
@@ -201,12 +655,13 @@ public class RepositoryAutomation {
     }
 
     private List<Subsystem> getSubsystemsInRepository(String repoName, File aospRepoPath, File proprietaryRepoPath, ComparisonVersions comparisonVersions) {
-        if (!gitChangeBranch(aospRepoPath.getAbsolutePath(), comparisonVersions.androidOldVersion)) return null;
-        Collection<String> manifestsInAospOld = getAndroidManifestFiles(aospRepoPath);
-        if (!gitChangeBranch(aospRepoPath.getAbsolutePath(), comparisonVersions.androidNewVersion)) return null;
-        Collection<String> manifestsInAospNew = getAndroidManifestFiles(aospRepoPath);
-        if (!gitChangeBranch(proprietaryRepoPath.getAbsolutePath(), comparisonVersions.proprietaryVersion)) return null;
-        Collection<String> manifestsInProprietary = getAndroidManifestFiles(proprietaryRepoPath);
+        // Listed from the versions' trees, the working copies are left as they are
+        Collection<String> manifestsInAospOld = manifestIndex.getAndroidManifestFiles(aospRepoPath, comparisonVersions.androidOldVersion);
+        if (manifestsInAospOld == null) return null;
+        Collection<String> manifestsInAospNew = manifestIndex.getAndroidManifestFiles(aospRepoPath, comparisonVersions.androidNewVersion);
+        if (manifestsInAospNew == null) return null;
+        Collection<String> manifestsInProprietary = manifestIndex.getAndroidManifestFiles(proprietaryRepoPath, comparisonVersions.proprietaryVersion);
+        if (manifestsInProprietary == null) return null;
 
         // Return the intersection of the tree, omit those with test and example
         List<Subsystem> result = new ArrayList<>();
@@ -224,11 +679,9 @@ public class RepositoryAutomation {
                 }
                 // Look for src folder
                 subsystemRelativePath += "/src";
-                File srcFodlerAosp = new File(aospRepoPath, subsystemRelativePath);
-                if (!srcFodlerAosp.exists()) continue;
-                // TODO: What about aosp new?
-                File srcFodlerProprietary = new File(proprietaryRepoPath, subsystemRelativePath);
-                if (!srcFodlerProprietary.exists()) continue;
+                if (!manifestIndex.hasFolder(aospRepoPath, comparisonVersions.androidNewVersion, subsystemRelativePath)) continue;
+                // TODO: What about aosp old?
+                if (!manifestIndex.hasFolder(proprietaryRepoPath, comparisonVersions.proprietaryVersion, subsystemRelativePath)) continue;
 
                 result.add(new Subsystem(subsystemName, subsystemRelativePath, aospRepoPath.getAbsolutePath(), proprietaryRepoPath.getAbsolutePath(), comparisonVersions));
             }
@@ -236,43 +689,120 @@ public class RepositoryAutomation {
         return result;
     }
 
-    private Collection<String> getAndroidManifestFiles(File path) {
-        Set<String> result = new HashSet<>();
-        try {
-            Files.walk(Paths.get(path.getAbsolutePath()))
-                    .filter(pathToFile -> pathToFile.endsWith("AndroidManifest.xml"))
-                    .forEach(t -> result.add(t.toString().substring(path.getAbsolutePath().length())));
-        } catch (IOException e) {
-            e.printStackTrace();
+    private class ProjectInput {
+        final String name;
+        // Journal key of the project's completion, which is not found once its input files change
+        final String completedKey;
+        final List<CsvInput> csvInputs = new ArrayList<>();
+
+        ProjectInput(String name, String inputsChecksum) {
+            this.name = name;
+            completedKey = name + ":" + inputsChecksum;
         }
-        return result;
     }
 
-    private void removeFolder(File file) {
-        try {
-            FileUtils.deleteDirectory(file);
-        } catch (Throwable e) {
-            e.printStackTrace();
-        }
+    private class CsvInput {
+        final List<PairedRepository> pairedRepositories = new ArrayList<>();
+        final List<ComparisonVersions> versions = new ArrayList<>();
     }
 
-    private void copyFolder(String srcPath, String dest) {
-        File dirSrc = new File(srcPath);
-        File dirDest = new File(dest);
-        try {
-            FileUtils.copyDirectory(dirSrc, dirDest);
-        } catch (Throwable e) {
-            e.printStackTrace();
+    /**
+     * Outputs of a project, shared by its subsystems' analyses, which may run at once.
+     */
+    private class ProjectRun {
+        final String name;
+        final String completedKey;
+        final String outputPath;
+        final RunJournal journal;
+        final MappingRecordWriter mappingRecordWriter;
+        private final IntersectionMatrix stats = new IntersectionMatrix();
+        private final String[] subsystemStats;
+        private final Set<String> plannedKeys = new HashSet<>();
+        // Tasks the project is not complete without; the totals are written after them whether they failed or not
+        private final List<TaskGraph.Task> awaitedTasks = new ArrayList<>();
+        private boolean failed;
+        TaskGraph.Task totalTask;
+
+        ProjectRun(String name, String completedKey, int csvInputsCount, RunJournal journal) {
+            this.name = name;
+            this.completedKey = completedKey;
+            this.journal = journal;
+            outputPath = new File(OUTPUT_PATH, name).getAbsolutePath();
+            subsystemStats = new String[csvInputsCount];
+            // Records after the last completely written subsystem belong to an interrupted one and are dropped
+            mappingRecordWriter = openMappingRecordWriter(name, journal == null ? 0 : journal.getLastWrittenLength());
         }
-    }
 
-    private void gitClone(String url, String path, String folderName) {
-        runSystemCommand(path, true, "git", "clone", url, folderName);
-    }
+        /**
+         * @return false if the subsystem is planned already
+         */
+        synchronized boolean plan(String journalKey) {
+            return plannedKeys.add(journalKey);
+        }
+
+        synchronized void await(TaskGraph.Task task) {
+            totalTask.runsAfter(task);
+            awaitedTasks.add(task);
+        }
 
-    private boolean gitChangeBranch(String path, String branchName) {
-        String result = runSystemCommand(path, false, "git", "checkout", branchName);
-        return !result.toLowerCase().contains("did not match any");
+        synchronized void failed() {
+            failed = true;
+        }
+
+        synchronized void addStats(IntersectionMatrix matrix) {
+            stats.add(matrix);
+        }
+
+        synchronized void setSubsystemStats(int csvIndex, String csvStats) {
+            subsystemStats[csvIndex] = csvStats;
+        }
+
+        /**
+         * Records of a subsystem are written and flushed together with its journal lines, so the records before the
+         * length in the journal are all of completely written subsystems.
+         */
+        synchronized void analyzed(String journalKey, File subsystemOutput, ResultCache.Result result) {
+            stats.add(result.getMatrix());
+            if (mappingRecordWriter != null) {
+                try {
+                    for (MappingRecord record : result.getRecords()) {
+                        mappingRecordWriter.write(record);
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            if (journal != null) {
+                journal.analyzed(journalKey, subsystemOutput, result.getMatrix());
+                journal.written(journalKey, flushMappingRecordWriter(mappingRecordWriter));
+            }
+        }
+
+        synchronized void complete() {
+            StringBuilder projectStats = new StringBuilder();
+            projectStats.append("Comparison versions,Number of subsystems\n");
+            for (String csvStats : subsystemStats) {
+                if (csvStats != null) projectStats.append(csvStats);
+            }
+            Utils.writeToFile(OUTPUT_PATH + "/subsystems_" + name + ".txt", projectStats.toString());
+            // Totals of all subsystems, kept out of the project's folder so it is not taken for a subsystem
+            File projectTotalFile = getProjectTotalFile(name);
+            createEvolutionAnalyser().writeToOutput(stats, projectTotalFile.getAbsolutePath());
+            closeMappingRecordWriter(mappingRecordWriter);
+            int failedCount = 0;
+            for (TaskGraph.Task task : awaitedTasks) {
+                if (task.getState() != TaskGraph.State.DONE) failedCount++;
+            }
+            if (failed || failedCount > 0) {
+                // The next run plans the project again, and skips the subsystems that were written
+                log(name + " is not complete, " + (failedCount > 0 ? failedCount + " of its tasks failed" : "") +
+                        (failedCount > 0 && failed ? " and " : "") + (failed ? "versions are missing" : "") +
+                        "; running again retries them");
+            } else if (journal != null) {
+                journal.completed(completedKey, projectTotalFile);
+            }
+            closeRunJournal(journal);
+        }
     }
 
     private class Subsystem {
@@ -0,0 +1,169 @@
+package ca.ualberta.mehran.androidevolution.repositories;
+
+import ca.ualberta.mehran.androidevolution.mapping.IntersectionMatrix;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Scanner;
+
+/**
+ * Append-only log of the progress of a project's analysis, so an interrupted run can skip the subsystems that are
+ * already done. Each line is one state change of a subsystem, and is synced to disk before the run moves on; the
+ * last line of a subsystem wins when the journal is read back. Subsystems of a project analysed at once share the
+ * journal.
+ * <p>
+ * Line format (tab separated): state, key, output checksum, mapping records length, encoded matrix.
+ */
+class RunJournal implements Closeable {
+
+    enum State {
+        EXTRACTED, // Versions are copied to the comparison folders
+        ANALYZED,  // Subsystem csv is written
+        WRITTEN,   // Mapping records of the subsystem are flushed
+        COMPLETED  // Project total is written; the key is the project name
+    }
+
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final FileOutputStream output;
+    private long lastWrittenLength;
+
+    RunJournal(File file) throws IOException {
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        boolean endsWithPartialLine = file.exists() && endsWithPartialLine(file);
+        if (file.exists()) {
+            read(file, endsWithPartialLine);
+        }
+        output = new FileOutputStream(file, true);
+        if (endsWithPartialLine) {
+            output.write('\n');
+        }
+    }
+
+    synchronized Entry get(String key) {
+        return entries.get(key);
+    }
+
+    synchronized State getState(String key) {
+        Entry entry = entries.get(key);
+        return entry == null ? null : entry.state;
+    }
+
+    /**
+     * Length of the mapping records file at the last subsystem that was completely written, or 0.
+     */
+    synchronized long getLastWrittenLength() {
+        return lastWrittenLength;
+    }
+
+    synchronized void extracted(String key) {
+        append(new Entry(State.EXTRACTED, key, null, -1, null));
+    }
+
+    synchronized void analyzed(String key, File output, IntersectionMatrix matrix) {
+        append(new Entry(State.ANALYZED, key, checksum(output), -1, matrix.encode()));
+    }
+
+    synchronized void written(String key, long mappingRecordsLength) {
+        Entry analyzed = entries.get(key);
+        append(new Entry(State.WRITTEN, key, analyzed.checksum, mappingRecordsLength, analyzed.matrix));
+    }
+
+    synchronized void completed(String key, File output) {
+        append(new Entry(State.COMPLETED, key, checksum(output), -1, null));
+    }
+
+    /**
+     * Whether the key has reached the state, and its output still has the checksum it had back then.
+     */
+    synchronized boolean isDone(String key, State state, File output) {
+        Entry entry = entries.get(key);
+        if (entry == null || entry.state != state) return false;
+        return entry.checksum != null && entry.checksum.equals(checksum(output));
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        output.close();
+    }
+
+    static String checksum(File file) {
+        if (!file.exists()) return null;
+        try (InputStream input = new BufferedInputStream(new FileInputStream(file))) {
+            return DigestUtils.sha1Hex(input);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private void read(File file, boolean endsWithPartialLine) throws IOException {
+        try (Scanner input = new Scanner(file, StandardCharsets.UTF_8.name())) {
+            while (input.hasNextLine()) {
+                String line = input.nextLine();
+                // A line cut short by a crash is ignored
+                if (endsWithPartialLine && !input.hasNextLine()) break;
+                String[] cells = line.split("\t", -1);
+                if (cells.length < 5) continue;
+                Entry entry = new Entry(State.valueOf(cells[0]), cells[1], nullIfEmpty(cells[2]),
+                        Long.parseLong(cells[3]), nullIfEmpty(cells[4]));
+                put(entry);
+            }
+        }
+    }
+
+    private boolean endsWithPartialLine(File file) throws IOException {
+        if (file.length() == 0) return false;
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+            randomAccessFile.seek(file.length() - 1);
+            return randomAccessFile.read() != '\n';
+        }
+    }
+
+    private void append(Entry entry) {
+        String line = entry.state + "\t" + entry.key + "\t" +
+                (entry.checksum == null ? "" : entry.checksum) + "\t" +
+                entry.mappingRecordsLength + "\t" +
+                (entry.matrix == null ? "" : entry.matrix) + "\n";
+        try {
+            output.write(line.getBytes(StandardCharsets.UTF_8));
+            output.getFD().sync();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        put(entry);
+    }
+
+    private void put(Entry entry) {
+        entries.put(entry.key, entry);
+        if (entry.state == State.WRITTEN) {
+            lastWrittenLength = entry.mappingRecordsLength;
+        }
+    }
+
+    private static String nullIfEmpty(String value) {
+        return value.isEmpty() ? null : value;
+    }
+
+    static class Entry {
+        final State state;
+        final String key;
+        final String checksum;
+        final long mappingRecordsLength;
+        final String matrix;
+
+        Entry(State state, String key, String checksum, long mappingRecordsLength, String matrix) {
+            this.state = state;
+            this.key = key;
+            this.checksum = checksum;
+            this.mappingRecordsLength = mappingRecordsLength;
+            this.matrix = matrix;
+        }
+
+        IntersectionMatrix getMatrix() {
+            return matrix == null ? null : IntersectionMatrix.decode(matrix);
+        }
+    }
+}
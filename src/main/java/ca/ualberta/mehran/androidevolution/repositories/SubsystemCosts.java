@@ -0,0 +1,187 @@
+package ca.ualberta.mehran.androidevolution.repositories;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.PathSuffixFilter;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Sizes of the Java sources of subsystems, read from their git trees, and the time and heap their analyses took in
+ * earlier runs, for telling how long an analysis will take and how much heap it will need before it runs. An
+ * analysis that ran before is predicted to take what it did then. Others are predicted from their size: time at the
+ * average speed of all recorded analyses, and heap at the average heap per line of code.
+ * <p>
+ * Costs are kept in a tab separated file with a line per analysis: key, size, Java files count, milliseconds, lines
+ * of code, heap bytes. The last line of a key wins.
+ */
+class SubsystemCosts {
+
+    // Reading and parsing a file costs about as much as this many bytes of source on top of its size
+    private static final long FILE_OVERHEAD_BYTES = 2048;
+    // Heap per line of code until some analysis is recorded; Spoon's model of a line takes a few kilobytes
+    private static final long DEFAULT_HEAP_BYTES_PER_LINE = 8 * 1024;
+
+    private final File file;
+    private final Map<String, Long> millisByKey = new HashMap<>();
+    private final Map<String, Long> heapBytesByKey = new HashMap<>();
+    private final Map<String, TreeSize> treeSizes = new ConcurrentHashMap<>();
+    private long recordedSize;
+    private long recordedMillis;
+    private long recordedLines;
+    private long recordedHeapBytes;
+
+    SubsystemCosts(File file) {
+        this.file = file;
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        if (file.exists()) read();
+    }
+
+    /**
+     * @return size of the Java files under {@code relativePath} in the version, or null if it can't be read
+     */
+    TreeSize measure(File repoPath, String version, String relativePath) {
+        String key = repoPath.getAbsolutePath() + "@" + version + ":" + relativePath;
+        TreeSize size = treeSizes.get(key);
+        if (size != null) return size;
+        try (Repository repository = ManifestIndex.openRepository(repoPath);
+             RevWalk revWalk = new RevWalk(repository);
+             ObjectReader reader = repository.newObjectReader()) {
+            RevTree tree = ManifestIndex.resolveTree(repository, revWalk, version);
+            if (tree == null) return null;
+            try (TreeWalk folderWalk = TreeWalk.forPath(repository, relativePath.replaceAll("^/+", ""), tree)) {
+                if (folderWalk == null || !folderWalk.isSubtree()) return null;
+                int filesCount = 0;
+                long bytes = 0;
+                long lines = 0;
+                try (TreeWalk treeWalk = new TreeWalk(reader)) {
+                    treeWalk.addTree(folderWalk.getObjectId(0));
+                    treeWalk.setRecursive(true);
+                    treeWalk.setFilter(PathSuffixFilter.create(".java"));
+                    while (treeWalk.next()) {
+                        filesCount++;
+                        ObjectLoader loader = reader.open(treeWalk.getObjectId(0), Constants.OBJ_BLOB);
+                        bytes += loader.getSize();
+                        lines += countLines(loader);
+                    }
+                }
+                size = new TreeSize(filesCount, bytes, lines);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+        treeSizes.put(key, size);
+        return size;
+    }
+
+    /**
+     * @return predicted milliseconds of the analysis with the key, whose versions have the given total size
+     */
+    synchronized long predict(String key, TreeSize size) {
+        Long millis = millisByKey.get(key);
+        if (millis != null) return millis;
+        if (recordedSize == 0 || recordedMillis == 0) return size.getCost();
+        return (long) ((double) recordedMillis / recordedSize * size.getCost());
+    }
+
+    /**
+     * @return predicted heap bytes the analysis with the key needs, whose versions have the given total size
+     */
+    synchronized long predictHeap(String key, TreeSize size) {
+        Long heapBytes = heapBytesByKey.get(key);
+        if (heapBytes != null) return heapBytes;
+        if (recordedLines == 0 || recordedHeapBytes == 0) return size.lines * DEFAULT_HEAP_BYTES_PER_LINE;
+        return (long) ((double) recordedHeapBytes / recordedLines * size.lines);
+    }
+
+    /**
+     * @param heapBytes heap the analysis took, or 0 if it is not known
+     */
+    synchronized void record(String key, TreeSize size, long millis, long heapBytes) {
+        String line = key + "\t" + size.getCost() + "\t" + size.filesCount + "\t" + millis + "\t" +
+                size.lines + "\t" + heapBytes + "\n";
+        try (OutputStream output = new FileOutputStream(file, true)) {
+            output.write(line.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        add(key, size.getCost(), millis, size.lines, heapBytes);
+    }
+
+    private long countLines(ObjectLoader loader) throws IOException {
+        long lines = 0;
+        try (InputStream input = loader.openStream()) {
+            byte[] buffer = new byte[1 << 16];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                for (int i = 0; i < read; i++) {
+                    if (buffer[i] == '\n') lines++;
+                }
+            }
+        }
+        return lines;
+    }
+
+    private void read() {
+        try (Scanner input = new Scanner(file, StandardCharsets.UTF_8.name())) {
+            while (input.hasNextLine()) {
+                String[] cells = input.nextLine().split("\t");
+                if (cells.length < 4) continue;
+                try {
+                    // Lines of earlier versions of the file have no heap
+                    add(cells[0], Long.parseLong(cells[1]), Long.parseLong(cells[3]),
+                            cells.length < 6 ? 0 : Long.parseLong(cells[4]), cells.length < 6 ? 0 : Long.parseLong(cells[5]));
+                } catch (NumberFormatException e) {
+                    // A line cut short by a crash
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void add(String key, long size, long millis, long lines, long heapBytes) {
+        millisByKey.put(key, millis);
+        recordedSize += size;
+        recordedMillis += millis;
+        if (heapBytes > 0) {
+            heapBytesByKey.put(key, heapBytes);
+            recordedLines += lines;
+            recordedHeapBytes += heapBytes;
+        }
+    }
+
+    static class TreeSize {
+        final int filesCount;
+        final long bytes;
+        final long lines;
+
+        TreeSize(int filesCount, long bytes, long lines) {
+            this.filesCount = filesCount;
+            this.bytes = bytes;
+            this.lines = lines;
+        }
+
+        TreeSize plus(TreeSize other) {
+            return new TreeSize(filesCount + other.filesCount, bytes + other.bytes, lines + other.lines);
+        }
+
+        /**
+         * Size in bytes, counting the overhead of each file.
+         */
+        long getCost() {
+            return bytes + filesCount * FILE_OVERHEAD_BYTES;
+        }
+    }
+}
@@ -0,0 +1,345 @@
+package ca.ualberta.mehran.androidevolution.repositories;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static ca.ualberta.mehran.androidevolution.Utils.log;
+
+/**
+ * Tasks of a run and the tasks each one needs, executed as soon as what they need is done. Tasks are keyed, and
+ * adding a task with the key of one that is already in the graph returns the existing one, so work shared by
+ * several consumers (e.g. a mirror, or a version of a subsystem) is done once.
+ * <p>
+ * Light tasks (fetching, extracting) and heavy ones (analyses) run on pools of their own, so I/O goes on while all
+ * analysis workers are busy. A task can add tasks while it runs; this is how the subsystems found in a repository
+ * become tasks once the repository is there.
+ * <p>
+ * Of the tasks that are ready, the ones with the highest cost run first. Analyses of big subsystems take orders of
+ * magnitude longer than those of small ones, and one that starts last would keep a single worker busy long after the
+ * others are done. With an {@link AdmissionController}, a heavy task also waits until the heap has room for it;
+ * tasks behind it wait as well, so a big task is not held back for ever by smaller ones that keep fitting.
+ */
+class TaskGraph {
+
+    private static final int LIGHT_THREADS = 4;
+
+    enum State {
+        PENDING, RUNNING, DONE, FAILED, SKIPPED
+    }
+
+    /**
+     * Work of a task; returns false, or throws, when it fails.
+     */
+    interface Action {
+        boolean run() throws Exception;
+    }
+
+    /**
+     * Told when tasks start and finish, e.g. for releasing what a task used once it is done.
+     */
+    interface Listener {
+        /**
+         * Called on the task's thread, right before its action runs.
+         */
+        void started(Task task);
+
+        /**
+         * Called with the graph locked, for every task, including those that are skipped and never start.
+         */
+        void finished(Task task);
+    }
+
+    // Highest cost first, then in the order the tasks were added
+    private static final Comparator<Task> BY_COST = Comparator.comparingLong((Task task) -> -task.cost)
+            .thenComparingLong(task -> task.order);
+
+    private final Map<String, Task> tasks = new LinkedHashMap<>();
+    private final PriorityQueue<Task> readyHeavyTasks = new PriorityQueue<>(BY_COST);
+    private final int heavyThreads;
+    private final AdmissionController admissionController;
+    private Listener listener;
+    private int runningHeavyCount;
+    private ExecutorService lightExecutor;
+    private ExecutorService heavyExecutor;
+    private int unfinishedCount;
+    private long addedCount;
+
+    TaskGraph(int heavyThreads) {
+        this(heavyThreads, null);
+    }
+
+    /**
+     * @param admissionController admission of heavy tasks by their memory, or null to run them as they are ready
+     */
+    TaskGraph(int heavyThreads, AdmissionController admissionController) {
+        this.heavyThreads = heavyThreads;
+        this.admissionController = admissionController;
+    }
+
+    /**
+     * Tasks wait for {@link Task#submit} before they run, so the dependencies of a task that is added while the graph
+     * is executing can be added first.
+     *
+     * @return the new task, or the task that already has the key
+     */
+    synchronized Task add(String key, boolean heavy, Action action) {
+        Task task = tasks.get(key);
+        if (task != null) return task;
+        task = new Task(key, heavy, action, addedCount++);
+        tasks.put(key, task);
+        unfinishedCount++;
+        return task;
+    }
+
+    synchronized Task get(String key) {
+        return tasks.get(key);
+    }
+
+    synchronized void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Runs all tasks, including those added while running, and returns when all are finished.
+     */
+    void execute() {
+        lightExecutor = newPriorityExecutor(LIGHT_THREADS);
+        heavyExecutor = newPriorityExecutor(heavyThreads);
+        if (admissionController != null) {
+            admissionController.start(() -> {
+                synchronized (this) {
+                    dispatchHeavyTasks();
+                }
+            });
+        }
+        try {
+            synchronized (this) {
+                List<Task> readyTasks = new ArrayList<>();
+                for (Task task : tasks.values()) {
+                    if (!task.submitted) {
+                        task.submitted = true;
+                        task.remainingCount--;
+                    }
+                    if (task.state == State.PENDING && task.remainingCount == 0) readyTasks.add(task);
+                }
+                readyTasks.sort(BY_COST);
+                for (Task task : readyTasks) {
+                    if (task.state == State.PENDING) start(task);
+                }
+                while (unfinishedCount > 0) {
+                    wait();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (admissionController != null) admissionController.stop();
+            lightExecutor.shutdownNow();
+            heavyExecutor.shutdownNow();
+        }
+    }
+
+    synchronized Map<State, Integer> getStateCounts() {
+        Map<State, Integer> result = new EnumMap<>(State.class);
+        for (Task task : tasks.values()) {
+            result.merge(task.state, 1, Integer::sum);
+        }
+        return result;
+    }
+
+    private ExecutorService newPriorityExecutor(int threads) {
+        // Runs tasks by the order of their runners, not by when they were queued
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<>());
+    }
+
+    private void start(Task task) {
+        if (task.blocked) {
+            log("Skipping " + task.key + ", a task it needs failed");
+            finish(task, State.SKIPPED);
+            return;
+        }
+        task.state = State.RUNNING;
+        if (task.heavy) {
+            readyHeavyTasks.add(task);
+            dispatchHeavyTasks();
+        } else {
+            lightExecutor.execute(new Runner(task));
+        }
+    }
+
+    private void dispatchHeavyTasks() {
+        while (runningHeavyCount < heavyThreads && !readyHeavyTasks.isEmpty()) {
+            Task task = readyHeavyTasks.peek();
+            if (admissionController != null) {
+                task.ticket = admissionController.tryAdmit(task.key, task.memory);
+                if (task.ticket == null) return;
+            }
+            readyHeavyTasks.poll();
+            task.dispatched = true;
+            runningHeavyCount++;
+            heavyExecutor.execute(new Runner(task));
+        }
+    }
+
+    private void finish(Task task, State state) {
+        task.state = state;
+        unfinishedCount--;
+        if (listener != null) listener.finished(task);
+        if (task.dispatched) {
+            runningHeavyCount--;
+            if (task.ticket != null) admissionController.release(task.ticket);
+            dispatchHeavyTasks();
+        }
+        for (Dependent dependent : task.dependents) {
+            if (dependent.required && state != State.DONE) dependent.task.blocked = true;
+            if (--dependent.task.remainingCount == 0 && dependent.task.state == State.PENDING) start(dependent.task);
+        }
+        notifyAll();
+    }
+
+    private class Runner implements Runnable, Comparable<Runner> {
+        final Task task;
+
+        Runner(Task task) {
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            boolean succeeded = false;
+            if (admissionController != null) admissionController.setCurrent(task.ticket);
+            try {
+                if (listener != null) listener.started(task);
+                succeeded = task.action.run();
+            } catch (Throwable e) {
+                log("Task " + task.key + " failed: " + e);
+                e.printStackTrace();
+            } finally {
+                if (admissionController != null) admissionController.setCurrent(null);
+            }
+            synchronized (TaskGraph.this) {
+                finish(task, succeeded ? State.DONE : State.FAILED);
+            }
+        }
+
+        @Override
+        public int compareTo(Runner other) {
+            return BY_COST.compare(task, other.task);
+        }
+    }
+
+    class Task {
+        final String key;
+        final boolean heavy;
+        final Action action;
+        private final long order;
+        private long cost;
+        private long memory;
+        private AdmissionController.Ticket ticket;
+        private boolean dispatched;
+        private final List<Dependent> dependents = new ArrayList<>();
+        private final Set<Task> dependencies = new HashSet<>();
+        private State state = State.PENDING;
+        // Unfinished dependencies, plus one until the task is submitted
+        private int remainingCount = 1;
+        private boolean submitted;
+        private boolean blocked;
+
+        private Task(String key, boolean heavy, Action action, long order) {
+            this.key = key;
+            this.heavy = heavy;
+            this.action = action;
+            this.order = order;
+        }
+
+        /**
+         * Raises the cost of the task to {@code cost}, e.g. for a task that a costly task needs, so it is not
+         * what holds the costly one back.
+         */
+        Task withCost(long cost) {
+            synchronized (TaskGraph.this) {
+                if (state == State.PENDING) this.cost = Math.max(this.cost, cost);
+            }
+            return this;
+        }
+
+        /**
+         * Sets the heap the task is estimated to need, for admitting heavy tasks.
+         */
+        Task withMemory(long bytes) {
+            synchronized (TaskGraph.this) {
+                if (state == State.PENDING) memory = bytes;
+            }
+            return this;
+        }
+
+        /**
+         * This task runs after {@code task} is done, and is skipped if it fails.
+         */
+        Task dependsOn(Task task) {
+            return addDependency(task, true);
+        }
+
+        /**
+         * This task runs after {@code task} is finished, whether it failed or not.
+         */
+        Task runsAfter(Task task) {
+            return addDependency(task, false);
+        }
+
+        private Task addDependency(Task task, boolean required) {
+            synchronized (TaskGraph.this) {
+                // A task that is added again has the same dependencies, which it may be running with already
+                if (state != State.PENDING || !dependencies.add(task)) return this;
+                switch (task.state) {
+                    case PENDING:
+                    case RUNNING:
+                        task.dependents.add(new Dependent(this, required));
+                        remainingCount++;
+                        break;
+                    case DONE:
+                        break;
+                    default:
+                        if (required) blocked = true;
+                }
+            }
+            return this;
+        }
+
+        /**
+         * Lets the task run once its dependencies are done. Tasks that are not submitted when the graph starts
+         * executing are submitted then.
+         */
+        void submit() {
+            synchronized (TaskGraph.this) {
+                if (submitted) return;
+                submitted = true;
+                if (--remainingCount == 0 && heavyExecutor != null) start(this);
+            }
+        }
+
+        State getState() {
+            synchronized (TaskGraph.this) {
+                return state;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return key;
+        }
+    }
+
+    private static class Dependent {
+        final Task task;
+        final boolean required;
+
+        Dependent(Task task, boolean required) {
+            this.task = task;
+            this.required = required;
+        }
+    }
+}
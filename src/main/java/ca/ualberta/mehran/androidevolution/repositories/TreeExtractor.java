@@ -0,0 +1,180 @@
+package ca.ualberta.mehran.androidevolution.repositories;
+
+import ca.ualberta.mehran.androidevolution.Utils;
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+import static ca.ualberta.mehran.androidevolution.Utils.log;
+
+/**
+ * Writes a folder of a version straight from its git tree, without checking the version out. Unlike a checkout,
+ * this leaves the working copy alone, so several versions of the same repository can be extracted at once. Files
+ * are links to a {@link BlobStore}, so extracted folders are only to be read.
+ */
+class TreeExtractor {
+
+    // Next to a folder whose files are all written, with the names of the folder's blobs
+    static final String EXTRACTED_MARKER = ".extracted";
+    // Links to links are followed this many times at most, so links in a loop end
+    private static final int MAX_LINK_DEPTH = 8;
+
+    private final BlobStore blobStore;
+
+    TreeExtractor(BlobStore blobStore) {
+        this.blobStore = blobStore;
+    }
+
+    /**
+     * Writes the files under {@code relativePath} in the version to {@code destination}. A destination that was
+     * completely extracted before is left as it is.
+     *
+     * @return whether the destination has the files, false if the version or the folder is not in the repository
+     */
+    boolean extract(File repoPath, String version, String relativePath, File destination) {
+        File marker = getMarker(destination);
+        if (marker.exists()) return true;
+        List<String> blobNames = new ArrayList<>();
+        try (Repository repository = ManifestIndex.openRepository(repoPath);
+             RevWalk revWalk = new RevWalk(repository);
+             ObjectReader reader = repository.newObjectReader()) {
+            RevTree tree = ManifestIndex.resolveTree(repository, revWalk, version);
+            if (tree == null) return false;
+            String path = relativePath.replaceAll("^/+", "");
+            try (TreeWalk folderWalk = TreeWalk.forPath(repository, path, tree)) {
+                if (folderWalk == null || !folderWalk.isSubtree()) {
+                    log(relativePath + " is not a folder in " + version + " of " + repoPath);
+                    return false;
+                }
+                // Files of an interrupted extraction are not trusted
+                FileUtils.deleteDirectory(destination);
+                destination.mkdirs();
+                writeTree(reader, tree, path, folderWalk.getObjectId(0), destination, blobNames, 0);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+        Utils.writeToFile(marker, blobNames.isEmpty() ? "" : String.join("\n", blobNames) + "\n");
+        return true;
+    }
+
+    boolean isExtracted(File destination) {
+        return getMarker(destination).exists();
+    }
+
+    /**
+     * Removes an extracted folder, and the files of the blob store that only it had. Extracting it again writes it
+     * from scratch.
+     */
+    void remove(File destination) {
+        File marker = getMarker(destination);
+        List<String> blobNames = marker.exists() ? Utils.readFile(marker) : null;
+        // Without the marker first, a folder that is only partly removed is not taken for a complete one
+        marker.delete();
+        try {
+            FileUtils.deleteDirectory(destination);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        // Markers of older runs have no names; their blobs are left to the prune at the end of the run
+        if (blobNames != null) blobStore.removeUnused(blobNames);
+    }
+
+    private File getMarker(File destination) {
+        return new File(destination.getParentFile(), destination.getName() + EXTRACTED_MARKER);
+    }
+
+    /**
+     * Writes the files of a folder of the version's tree, which is at {@code path} in it, to {@code destination}.
+     */
+    private void writeTree(ObjectReader reader, RevTree tree, String path, ObjectId folderId, File destination,
+                           List<String> blobNames, int linkDepth) throws IOException {
+        try (TreeWalk treeWalk = new TreeWalk(reader)) {
+            treeWalk.addTree(folderId);
+            treeWalk.setRecursive(true);
+            while (treeWalk.next()) {
+                writeEntry(reader, tree, path + "/" + treeWalk.getPathString(), treeWalk.getFileMode(0),
+                        treeWalk.getObjectId(0), new File(destination, treeWalk.getPathString()), blobNames, linkDepth);
+            }
+        }
+    }
+
+    private void writeEntry(ObjectReader reader, RevTree tree, String path, FileMode mode, ObjectId objectId,
+                            File file, List<String> blobNames, int linkDepth) throws IOException {
+        // Submodules have no files in this repository
+        if (mode == FileMode.GITLINK) return;
+        if (mode == FileMode.SYMLINK) {
+            writeLink(reader, tree, path, objectId, file, blobNames, linkDepth);
+            return;
+        }
+        if (mode == FileMode.TREE) {
+            writeTree(reader, tree, path, objectId, file, blobNames, linkDepth);
+            return;
+        }
+        file.getParentFile().mkdirs();
+        blobNames.add(blobStore.materialize(reader, objectId, mode == FileMode.EXECUTABLE_FILE, file));
+    }
+
+    /**
+     * Writes the file or folder a link points to in place of the link. Links are not recreated, as their targets
+     * are often outside the extracted folder, e.g. sources shared by several subsystems, and would dangle there.
+     */
+    private void writeLink(ObjectReader reader, RevTree tree, String path, ObjectId linkId, File file,
+                           List<String> blobNames, int linkDepth) throws IOException {
+        String target = new String(reader.open(linkId).getBytes(), StandardCharsets.UTF_8);
+        String targetPath = resolveLink(path, target);
+        if (targetPath == null) {
+            log("Skipping " + path + ", a link to " + target + " outside the repository");
+            return;
+        }
+        if (linkDepth >= MAX_LINK_DEPTH) {
+            log("Skipping " + path + ", a link to " + target + " through too many links");
+            return;
+        }
+        try (TreeWalk targetWalk = TreeWalk.forPath(reader, targetPath, tree)) {
+            if (targetWalk == null) {
+                log("Skipping " + path + ", a link to " + target + " that is not in the version");
+                return;
+            }
+            writeEntry(reader, tree, targetPath, targetWalk.getFileMode(0), targetWalk.getObjectId(0), file,
+                    blobNames, linkDepth + 1);
+        }
+    }
+
+    /**
+     * @return path in the repository of the target of a link at {@code linkPath}, or null if it is outside the
+     * repository
+     */
+    private static String resolveLink(String linkPath, String target) {
+        if (target.startsWith("/")) return null;
+        Deque<String> names = new ArrayDeque<>(Arrays.asList(linkPath.split("/")));
+        // The target is relative to the folder of the link
+        names.removeLast();
+        for (String name : target.split("/")) {
+            if (name.isEmpty() || name.equals(".")) continue;
+            if (name.equals("..")) {
+                if (names.isEmpty()) return null;
+                names.removeLast();
+            } else {
+                names.addLast(name);
+            }
+        }
+        return names.isEmpty() ? null : String.join("/", names);
+    }
+}
@@ -0,0 +1,249 @@
+package ca.ualberta.mehran.androidevolution.repositories;
+
+import ca.ualberta.mehran.androidevolution.mapping.ResultCache;
+import org.apache.commons.io.FileUtils;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static ca.ualberta.mehran.androidevolution.Utils.log;
+
+/**
+ * Analyses run by {@link QueueWorker}s, on this machine or others, through a folder that all of them share. The
+ * coordinator writes each analysis as an item to {@code pending}. A worker claims an item by moving it to {@code
+ * leased}, and while it works it keeps touching it to hold the lease. When it is done, it writes the response to
+ * {@code results} and removes the item. Files appear in a folder only by a rename, so no one reads a partial file.
+ * <p>
+ * A lease that is not touched for {@link #LEASE_MILLIS}, because its worker died or lost the folder, expires and its
+ * item goes back to {@code pending} for another worker, up to {@link #MAX_ATTEMPTS} times. Leases are timed by the
+ * clock of the coordinator, from when it sees them change, so the clocks of the workers don't matter.
+ * <p>
+ * Only analyses are queued; comparisons of Android versions are done by the workers that analyse them.
+ * <p>
+ * Paths in the items are the coordinator's, so the shared folder and the repositories must be at the same paths on
+ * all machines.
+ */
+class WorkQueue implements AnalysisWorkers {
+
+    static final String PENDING_PATH = "pending";
+    static final String LEASED_PATH = "leased";
+    static final String RESULTS_PATH = "results";
+    // Written when the coordinator is done, for the workers to exit
+    static final String FINISHED_FILE = "finished";
+    // Files that are still being written have this suffix until they are renamed
+    static final String TEMPORARY_SUFFIX = ".tmp";
+    static final long LEASE_MILLIS = 2 * 60 * 1000;
+
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long POLL_MILLIS = 1000;
+    private static final long STATUS_LOG_MILLIS = 60 * 1000;
+
+    private final File pendingDir;
+    private final File leasedDir;
+    private final File resultsDir;
+    private final File finishedFile;
+    private final Map<String, Item> items = new HashMap<>();
+    private final ThreadLocal<Long> lastHeapBytes = ThreadLocal.withInitial(() -> 0L);
+    private final ScheduledExecutorService poller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "work-queue-poller");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Items of earlier runs may still be in the folder, so the names of this run's are unique to it
+    private final String idPrefix = Long.toString(System.currentTimeMillis(), 36);
+    private long itemsCount;
+    private long lastStatusLogMillis;
+
+    WorkQueue(File queueDir) {
+        pendingDir = new File(queueDir, PENDING_PATH);
+        leasedDir = new File(queueDir, LEASED_PATH);
+        resultsDir = new File(queueDir, RESULTS_PATH);
+        finishedFile = new File(queueDir, FINISHED_FILE);
+        // Leftovers of an earlier coordinator are of no use to this one
+        for (File dir : new File[]{pendingDir, leasedDir, resultsDir}) {
+            try {
+                FileUtils.deleteDirectory(dir);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            dir.mkdirs();
+        }
+        finishedFile.delete();
+        lastStatusLogMillis = System.currentTimeMillis();
+        poller.scheduleWithFixedDelay(this::poll, POLL_MILLIS, POLL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Does nothing: a comparison would only be kept by the worker that claimed it, and the analyses that need it may
+     * go to any worker. Each analysis compares its Android versions on its own worker instead, which keeps the
+     * mapping for the analyses of the same versions it claims later.
+     */
+    @Override
+    public boolean compareAndroidVersions(String pathAndroidOldAndNew,
+                                          String pathAndroidOldAndNew_old,
+                                          String pathAndroidOldAndNew_new,
+                                          String sourcererCCPath) {
+        return false;
+    }
+
+    @Override
+    public ResultCache.Result analyse(String subsystemName,
+                                      String pathAndroidOldAndNew,
+                                      String pathAndroidOldAndNew_old,
+                                      String pathAndroidOldAndNew_new,
+                                      String pathAndroidOldAndModified,
+                                      String pathAndroidOldAndModified_old,
+                                      String pathAndroidOldAndModified_new,
+                                      String sourcererCCPath) throws IOException, InterruptedException {
+        return request(AnalysisWorker.ANALYSE, subsystemName, pathAndroidOldAndNew, pathAndroidOldAndNew_old,
+                pathAndroidOldAndNew_new, pathAndroidOldAndModified, pathAndroidOldAndModified_old,
+                pathAndroidOldAndModified_new, sourcererCCPath);
+    }
+
+    @Override
+    public long getFootprint() {
+        return lastHeapBytes.get();
+    }
+
+    /**
+     * Lets the workers know there is nothing more to do.
+     */
+    @Override
+    public void close() {
+        poller.shutdownNow();
+        try {
+            Files.write(finishedFile.toPath(), new byte[0]);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private ResultCache.Result request(byte kind, String... paths) throws IOException, InterruptedException {
+        Item item;
+        synchronized (this) {
+            item = new Item(idPrefix + "-" + String.format("%08d", itemsCount++), kind, paths[0]);
+            items.put(item.id, item);
+        }
+        File temporaryFile = new File(pendingDir, item.id + TEMPORARY_SUFFIX);
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile)))) {
+            AnalysisWorker.writeRequest(output, kind, paths);
+        }
+        try {
+            move(temporaryFile, new File(pendingDir, item.id));
+            synchronized (this) {
+                while (item.response == null && item.failure == null) {
+                    wait();
+                }
+            }
+        } finally {
+            synchronized (this) {
+                items.remove(item.id);
+            }
+        }
+        if (item.failure != null) throw new IOException(item.failure);
+        lastHeapBytes.set(item.response.heapBytes);
+        if (item.response.failure != null) throw new IOException(item.response.failure);
+        return item.response.result;
+    }
+
+    private synchronized void poll() {
+        try {
+            collectResults();
+            expireLeases();
+            long now = System.currentTimeMillis();
+            if (!items.isEmpty() && now - lastStatusLogMillis >= STATUS_LOG_MILLIS) {
+                lastStatusLogMillis = now;
+                log("Work queue: " + count(pendingDir) + " items pending, " + count(leasedDir) + " leased");
+            }
+        } catch (Throwable e) {
+            // The poller must go on, or requests wait for ever
+            e.printStackTrace();
+        }
+    }
+
+    private void collectResults() {
+        File[] resultFiles = resultsDir.listFiles(file -> !file.getName().endsWith(TEMPORARY_SUFFIX));
+        if (resultFiles == null) return;
+        for (File resultFile : resultFiles) {
+            Item item = items.get(resultFile.getName());
+            // Results of items that are done already, e.g. of a worker whose lease expired before it finished
+            if (item == null || item.response != null || item.failure != null) {
+                resultFile.delete();
+                continue;
+            }
+            try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(resultFile)))) {
+                item.response = AnalysisWorker.readResponse(input, item.kind);
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
+                item.failure = "Can't read the result of " + item.name + ": " + e;
+            }
+            resultFile.delete();
+            // The item may be pending again after its lease expired
+            new File(pendingDir, item.id).delete();
+            notifyAll();
+        }
+    }
+
+    private void expireLeases() {
+        long now = System.currentTimeMillis();
+        for (Item item : items.values()) {
+            File leasedFile = new File(leasedDir, item.id);
+            long lastModified = leasedFile.lastModified();
+            if (lastModified == 0) continue;
+            if (lastModified != item.leaseModified) {
+                item.leaseModified = lastModified;
+                item.leaseSeenMillis = now;
+                continue;
+            }
+            if (now - item.leaseSeenMillis < LEASE_MILLIS) continue;
+            item.leaseModified = 0;
+            if (++item.attempts >= MAX_ATTEMPTS) {
+                log("Lease of " + item.name + " expired " + item.attempts + " times, giving up");
+                leasedFile.delete();
+                item.failure = "Lease expired " + item.attempts + " times";
+                notifyAll();
+                continue;
+            }
+            log("Lease of " + item.name + " expired, queueing it again");
+            try {
+                move(leasedFile, new File(pendingDir, item.id));
+            } catch (IOException e) {
+                // Its worker finished or took it back just now
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private int count(File dir) {
+        String[] names = dir.list((parent, name) -> !name.endsWith(TEMPORARY_SUFFIX));
+        return names == null ? 0 : names.length;
+    }
+
+    static void move(File source, File destination) throws IOException {
+        Files.move(source.toPath(), destination.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static class Item {
+        final String id;
+        final byte kind;
+        // For logs
+        final String name;
+        AnalysisWorker.Response response;
+        String failure;
+        int attempts;
+        long leaseModified;
+        long leaseSeenMillis;
+
+        Item(String id, byte kind, String name) {
+            this.id = id;
+            this.kind = kind;
+            this.name = name;
+        }
+    }
+}
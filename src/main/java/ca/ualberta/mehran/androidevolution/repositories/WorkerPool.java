@@ -0,0 +1,224 @@
+package ca.ualberta.mehran.androidevolution.repositories;
+
+import ca.ualberta.mehran.androidevolution.mapping.ResultCache;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static ca.ualberta.mehran.androidevolution.Utils.log;
+
+/**
+ * Child JVMs that run analyses, so an analysis that runs out of heap or never ends takes down its worker and not the
+ * run. Workers are started ahead of the analyses and reused by the ones that follow, so JVM startup and class loading
+ * are paid once per worker. A worker whose analysis fails, crashes or runs out of time is killed and replaced.
+ * <p>
+ * Workers keep the Android mappings they compared, like the analysers of a single JVM do, so an analysis goes to a
+ * worker that compared its Android versions before, and waits for it while it is busy instead of having another worker
+ * compare them again.
+ */
+class WorkerPool implements AnalysisWorkers {
+
+    private final List<String> command;
+    private final long timeoutMillis;
+    private final Deque<Worker> idleWorkers = new ArrayDeque<>();
+    private final Set<Worker> workers = new HashSet<>();
+    private final ThreadLocal<Long> lastHeapBytes = ThreadLocal.withInitial(() -> 0L);
+    private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "worker-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private boolean closed;
+
+    /**
+     * @param workerArgs arguments of {@link RepositoryAutomation} that make it a worker with the run's options
+     * @param maxHeap    -Xmx of each worker, e.g. 4g, or null for the heap of this JVM
+     * @param timeoutMillis time an analysis may take before its worker is killed, or 0 for no limit
+     */
+    WorkerPool(int size, List<String> workerArgs, String maxHeap, long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+        command = new ArrayList<>();
+        command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getAbsolutePath());
+        command.add("-Xmx" + (maxHeap != null ? maxHeap : (Runtime.getRuntime().maxMemory() >> 20) + "m"));
+        // Dies at once instead of limping on when out of heap; the JVM's own messages must not mix with responses
+        command.add("-XX:+IgnoreUnrecognizedVMOptions");
+        command.add("-XX:+ExitOnOutOfMemoryError");
+        command.add("-XX:+DisplayVMOutputToStderr");
+        command.add("-Dfile.encoding=" + System.getProperty("file.encoding"));
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(RepositoryAutomation.class.getName());
+        command.addAll(workerArgs);
+        synchronized (this) {
+            for (int i = 0; i < size; i++) {
+                startWorker();
+            }
+        }
+    }
+
+    @Override
+    public boolean compareAndroidVersions(String pathAndroidOldAndNew,
+                                String pathAndroidOldAndNew_old,
+                                String pathAndroidOldAndNew_new,
+                                String sourcererCCPath) throws IOException, InterruptedException {
+        return !request(pathAndroidOldAndNew, AnalysisWorker.COMPARE, pathAndroidOldAndNew, pathAndroidOldAndNew_old,
+                pathAndroidOldAndNew_new, sourcererCCPath).cached;
+    }
+
+    @Override
+    public ResultCache.Result analyse(String subsystemName,
+                               String pathAndroidOldAndNew,
+                               String pathAndroidOldAndNew_old,
+                               String pathAndroidOldAndNew_new,
+                               String pathAndroidOldAndModified,
+                               String pathAndroidOldAndModified_old,
+                               String pathAndroidOldAndModified_new,
+                               String sourcererCCPath) throws IOException, InterruptedException {
+        return request(pathAndroidOldAndNew, AnalysisWorker.ANALYSE, subsystemName, pathAndroidOldAndNew,
+                pathAndroidOldAndNew_old, pathAndroidOldAndNew_new, pathAndroidOldAndModified,
+                pathAndroidOldAndModified_old, pathAndroidOldAndModified_new, sourcererCCPath).result;
+    }
+
+    @Override
+    public long getFootprint() {
+        return lastHeapBytes.get();
+    }
+
+    @Override
+    public synchronized void close() {
+        watchdog.shutdownNow();
+        for (Worker worker : workers) {
+            // Workers exit when their input is closed
+            try {
+                worker.output.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        workers.clear();
+        idleWorkers.clear();
+        closed = true;
+        notifyAll();
+    }
+
+    private AnalysisWorker.Response request(String affinityKey, byte kind, String... paths)
+            throws IOException, InterruptedException {
+        Worker worker = borrow(affinityKey);
+        ScheduledFuture<?> timeout = timeoutMillis <= 0 ? null : watchdog.schedule(() -> {
+            worker.timedOut = true;
+            worker.process.destroyForcibly();
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+        AnalysisWorker.Response response;
+        try {
+            response = worker.request(kind, paths);
+        } catch (IOException e) {
+            retire(worker);
+            if (worker.timedOut) {
+                throw new IOException("Worker was killed after " + timeoutMillis / 1000 + " seconds");
+            }
+            throw new IOException("Worker exited with " + exitValue(worker), e);
+        } catch (RuntimeException e) {
+            retire(worker);
+            throw e;
+        } finally {
+            if (timeout != null) timeout.cancel(false);
+        }
+        lastHeapBytes.set(response.heapBytes);
+        if (response.failure != null) {
+            // An analysis that failed may have left its worker's heap in any state
+            retire(worker);
+            throw new IOException(response.failure);
+        }
+        worker.affinityKeys.add(affinityKey);
+        giveBack(worker);
+        return response;
+    }
+
+    private synchronized Worker borrow(String affinityKey) throws IOException, InterruptedException {
+        while (true) {
+            if (workers.isEmpty()) throw new IOException("No analysis workers are running");
+            for (Worker worker : idleWorkers) {
+                if (worker.affinityKeys.contains(affinityKey)) {
+                    idleWorkers.remove(worker);
+                    return worker;
+                }
+            }
+            // Comparing the Android versions again takes about as long as the analysis, so a busy worker that has
+            // them is waited for; there are many comparisons, one per subsystem, so the other workers are kept busy
+            if (!isHeldByBusyWorker(affinityKey) && !idleWorkers.isEmpty()) return idleWorkers.poll();
+            wait();
+        }
+    }
+
+    private boolean isHeldByBusyWorker(String affinityKey) {
+        for (Worker worker : workers) {
+            if (worker.affinityKeys.contains(affinityKey) && !idleWorkers.contains(worker)) return true;
+        }
+        return false;
+    }
+
+    private synchronized void giveBack(Worker worker) {
+        if (!workers.contains(worker)) return;
+        idleWorkers.add(worker);
+        notifyAll();
+    }
+
+    private synchronized void retire(Worker worker) {
+        worker.process.destroyForcibly();
+        if (!workers.remove(worker) || closed) return;
+        startWorker();
+        notifyAll();
+    }
+
+    private void startWorker() {
+        try {
+            ProcessBuilder processBuilder = new ProcessBuilder(command);
+            processBuilder.redirectError(ProcessBuilder.Redirect.INHERIT);
+            Worker worker = new Worker(processBuilder.start());
+            workers.add(worker);
+            idleWorkers.add(worker);
+        } catch (IOException e) {
+            log("Can't start an analysis worker: " + e);
+            e.printStackTrace();
+        }
+    }
+
+    private String exitValue(Worker worker) {
+        try {
+            return worker.process.waitFor(10, TimeUnit.SECONDS) ? "status " + worker.process.exitValue() : "no status";
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return "no status";
+        }
+    }
+
+    private static class Worker {
+        final Process process;
+        final DataInputStream input;
+        final DataOutputStream output;
+        // Android versions compared by the worker, which it has in its mapping cache
+        final Set<String> affinityKeys = new HashSet<>();
+        volatile boolean timedOut;
+        boolean ready;
+
+        Worker(Process process) {
+            this.process = process;
+            input = new DataInputStream(new BufferedInputStream(process.getInputStream(), 1 << 16));
+            output = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+        }
+
+        AnalysisWorker.Response request(byte kind, String... paths) throws IOException {
+            if (!ready) {
+                if (input.readInt() != AnalysisWorker.READY) throw new IOException("Worker didn't start properly");
+                ready = true;
+            }
+            AnalysisWorker.writeRequest(output, kind, paths);
+            output.flush();
+            return AnalysisWorker.readResponse(input, kind);
+        }
+    }
+}
@@ -0,0 +1,357 @@
+package ca.ualberta.mehran.androidevolution.repositories;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static ca.ualberta.mehran.androidevolution.Utils.log;
+
+/**
+ * Keeps the folders of a run, the working copies in {@code input/repos} and the versions extracted from them, within
+ * a disk budget. Each folder is held by the tasks that will use it. Before a task writes to the disk, folders that no
+ * task holds are removed, least recently used first, until the workspace is within the budget again. A removed folder
+ * is cloned or extracted again if a later run needs it, which is quick as the mirrors are kept. Mirrors count towards
+ * the budget but are never removed.
+ * <p>
+ * When nothing can be removed, the task waits for the analyses that are running, which release their folders as they
+ * finish. With no analysis running, nothing would be released by waiting, so the task goes on over the budget.
+ */
+class WorkspaceManager implements TaskGraph.Listener {
+
+    private static final Map<Character, Long> UNIT_BYTES = new HashMap<>();
+
+    static {
+        UNIT_BYTES.put('k', 1L << 10);
+        UNIT_BYTES.put('m', 1L << 20);
+        UNIT_BYTES.put('g', 1L << 30);
+        UNIT_BYTES.put('t', 1L << 40);
+    }
+
+    private final TreeExtractor treeExtractor;
+    private final BlobStore blobStore;
+    // 0 for no budget
+    private final long budgetBytes;
+    private final Map<File, Folder> folders = new HashMap<>();
+    private final Map<TaskGraph.Task, List<Folder>> foldersByHolder = new HashMap<>();
+    // Tasks added again after they are finished don't hold anything, as they will not release it
+    private final Set<TaskGraph.Task> finishedTasks = new HashSet<>();
+    private final Set<TaskGraph.Task> runningConsumers = new HashSet<>();
+    private final Map<File, Long> mirrorSizes = new HashMap<>();
+    private long cloneBytes;
+    private long peakBytes;
+    // Orders the folders by when they were last used
+    private long useCount;
+    private int removedCount;
+    private boolean overBudgetLogged;
+
+    /**
+     * @param budgetBytes bytes the workspace may take, or 0 to only keep track of them
+     */
+    WorkspaceManager(TreeExtractor treeExtractor, BlobStore blobStore, long budgetBytes) {
+        this.treeExtractor = treeExtractor;
+        this.blobStore = blobStore;
+        this.budgetBytes = budgetBytes;
+    }
+
+    /**
+     * Parses sizes like {@code 500m} or {@code 50g}; a number alone is in bytes.
+     *
+     * @throws IllegalArgumentException if the size is not a number with one of the units
+     */
+    static long parseSize(String size) {
+        String digits = size.trim().toLowerCase();
+        long unit = 1;
+        if (!digits.isEmpty() && UNIT_BYTES.containsKey(digits.charAt(digits.length() - 1))) {
+            unit = UNIT_BYTES.get(digits.charAt(digits.length() - 1));
+            digits = digits.substring(0, digits.length() - 1);
+        }
+        try {
+            long number = Long.parseLong(digits);
+            if (number < 0 || number > Long.MAX_VALUE / unit) throw new NumberFormatException();
+            return number * unit;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a size in bytes, k, m, g or t: " + size);
+        }
+    }
+
+    /**
+     * Adds the folders that earlier runs extracted under {@code reposDir}. No task of this run holds them unless it
+     * needs them too, so they are the first ones to be removed.
+     */
+    void findExtracted(File reposDir) {
+        if (!reposDir.isDirectory()) return;
+        // Down to input/repos/<repository>/aosp_comparisons/<subsystem>/<versions>/<version>.extracted
+        try (Stream<Path> paths = Files.walk(reposDir.toPath(), 5)) {
+            List<File> markers = paths.map(Path::toFile)
+                    .filter(file -> file.getName().endsWith(TreeExtractor.EXTRACTED_MARKER) &&
+                            file.getName().length() > TreeExtractor.EXTRACTED_MARKER.length() && file.isFile())
+                    .collect(Collectors.toList());
+            synchronized (this) {
+                for (File marker : markers) {
+                    String name = marker.getName();
+                    File folder = new File(marker.getParentFile(), name.substring(0, name.length() - TreeExtractor.EXTRACTED_MARKER.length()));
+                    getFolder(folder).present = true;
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Keeps {@code folders} from being removed until {@code task} is finished.
+     */
+    synchronized void hold(TaskGraph.Task task, File... folders) {
+        if (finishedTasks.contains(task)) return;
+        for (File file : folders) {
+            Folder folder = getFolder(file);
+            if (folder.holders.add(task)) foldersByHolder.computeIfAbsent(task, key -> new ArrayList<>()).add(folder);
+        }
+    }
+
+    /**
+     * Tells where {@code destination} is extracted from, and has {@code extractTask} hold the working copy.
+     */
+    synchronized void planExtraction(TaskGraph.Task extractTask, File repoPath, String version, String relativePath,
+                                     File destination) {
+        Folder folder = getFolder(destination);
+        folder.repoPath = repoPath;
+        folder.version = version;
+        folder.relativePath = relativePath;
+        hold(extractTask, repoPath);
+    }
+
+    /**
+     * Extracts a planned folder, making room for it first.
+     *
+     * @return whether the folder has the files
+     */
+    boolean extract(File destination) {
+        makeRoom();
+        return extract(getPlannedFolder(destination));
+    }
+
+    /**
+     * Extracts the folders that were removed after their extraction task ran, e.g. one that no task held until a
+     * later project planned an analysis that needs it. Room is not made, as the caller holds folders itself.
+     *
+     * @return whether all folders have their files
+     */
+    boolean restore(File... destinations) {
+        for (File destination : destinations) {
+            Folder folder = getPlannedFolder(destination);
+            synchronized (folder) {
+                if (treeExtractor.isExtracted(folder.file)) continue;
+                log("Extracting " + folder.file + " again, it was removed to make room");
+            }
+            if (!extract(folder)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Counts a working copy that was cloned or updated.
+     */
+    void cloned(File workingCopy) {
+        if (!workingCopy.isDirectory()) return;
+        long size = FileUtils.sizeOfDirectory(workingCopy);
+        synchronized (this) {
+            Folder folder = getFolder(workingCopy);
+            folder.clone = true;
+            if (folder.present) cloneBytes -= folder.bytes;
+            folder.bytes = size;
+            cloneBytes += size;
+            used(folder);
+        }
+    }
+
+    void mirrorUpdated(File mirror) {
+        long size = mirror.exists() ? FileUtils.sizeOfDirectory(mirror) : 0;
+        synchronized (this) {
+            mirrorSizes.put(mirror.getAbsoluteFile(), size);
+            updatePeak();
+        }
+    }
+
+    /**
+     * Removes folders no task holds until the workspace is within its budget, waiting for running analyses to
+     * release theirs if there are none.
+     */
+    void makeRoom() {
+        if (budgetBytes <= 0) return;
+        while (true) {
+            Folder victim;
+            synchronized (this) {
+                while (true) {
+                    if (getUsedBytes() <= budgetBytes) return;
+                    victim = findLeastRecentlyUsed();
+                    if (victim != null) break;
+                    if (runningConsumers.isEmpty()) {
+                        if (!overBudgetLogged) {
+                            log("The workspace takes " + formatSize(getUsedBytes()) + ", more than the budget of " +
+                                    formatSize(budgetBytes) + ", and all its folders are needed; going on over the budget");
+                            overBudgetLogged = true;
+                        }
+                        return;
+                    }
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+            remove(victim);
+        }
+    }
+
+    @Override
+    public synchronized void started(TaskGraph.Task task) {
+        if (task.heavy && foldersByHolder.containsKey(task)) runningConsumers.add(task);
+    }
+
+    @Override
+    public synchronized void finished(TaskGraph.Task task) {
+        finishedTasks.add(task);
+        runningConsumers.remove(task);
+        List<Folder> heldFolders = foldersByHolder.remove(task);
+        if (heldFolders != null) {
+            for (Folder folder : heldFolders) {
+                folder.holders.remove(task);
+                folder.lastUsed = ++useCount;
+            }
+        }
+        notifyAll();
+    }
+
+    /**
+     * @return disk usage, for the metrics of the run
+     */
+    synchronized String getReport() {
+        long mirrorBytes = getMirrorBytes();
+        int extractedCount = 0;
+        for (Folder folder : folders.values()) {
+            if (folder.present && !folder.clone) extractedCount++;
+        }
+        updatePeak();
+        return "workspace of " + formatSize(getUsedBytes()) + " (peak " + formatSize(peakBytes) +
+                (budgetBytes > 0 ? ", budget " + formatSize(budgetBytes) : "") + "): mirrors " +
+                formatSize(mirrorBytes) + ", working copies " + formatSize(cloneBytes) + ", " + extractedCount +
+                " extracted folders with " + formatSize(blobStore.getSize()) + " of files; " + removedCount +
+                " folders removed";
+    }
+
+    private static String formatSize(long bytes) {
+        if (bytes < 1 << 20) return (bytes >> 10) + " KB";
+        if (bytes < 1L << 30) return (bytes >> 20) + " MB";
+        return String.format("%.1f GB", bytes / (double) (1L << 30));
+    }
+
+    private boolean extract(Folder folder) {
+        synchronized (folder) {
+            boolean result = treeExtractor.extract(folder.repoPath, folder.version, folder.relativePath, folder.file);
+            if (result) {
+                synchronized (this) {
+                    used(folder);
+                }
+            }
+            return result;
+        }
+    }
+
+    private void remove(Folder folder) {
+        synchronized (folder) {
+            synchronized (this) {
+                // Another task may have removed it, or planned to use it, since it was picked
+                if (!folder.present || !folder.holders.isEmpty()) return;
+                folder.present = false;
+            }
+            log("Removing " + folder.file + " to make room");
+            if (folder.clone) {
+                try {
+                    FileUtils.deleteDirectory(folder.file);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            } else {
+                treeExtractor.remove(folder.file);
+                // Comparison folders that are left empty
+                File parent = folder.file.getParentFile();
+                if (parent.delete()) parent.getParentFile().delete();
+            }
+            synchronized (this) {
+                if (folder.clone) cloneBytes -= folder.bytes;
+                removedCount++;
+            }
+        }
+    }
+
+    private Folder findLeastRecentlyUsed() {
+        Folder result = null;
+        for (Folder folder : folders.values()) {
+            if (!folder.present || !folder.holders.isEmpty()) continue;
+            if (result == null || folder.lastUsed < result.lastUsed) result = folder;
+        }
+        return result;
+    }
+
+    private void used(Folder folder) {
+        folder.present = true;
+        folder.lastUsed = ++useCount;
+        updatePeak();
+    }
+
+    private void updatePeak() {
+        peakBytes = Math.max(peakBytes, getUsedBytes());
+    }
+
+    private long getUsedBytes() {
+        return getMirrorBytes() + cloneBytes + blobStore.getSize();
+    }
+
+    private long getMirrorBytes() {
+        long result = 0;
+        for (long size : mirrorSizes.values()) {
+            result += size;
+        }
+        return result;
+    }
+
+    private synchronized Folder getFolder(File file) {
+        return folders.computeIfAbsent(file.getAbsoluteFile(), Folder::new);
+    }
+
+    private Folder getPlannedFolder(File destination) {
+        Folder folder = getFolder(destination);
+        synchronized (this) {
+            if (folder.repoPath == null) throw new IllegalStateException(destination + " was not planned");
+        }
+        return folder;
+    }
+
+    private static class Folder {
+        final File file;
+        final Set<TaskGraph.Task> holders = new HashSet<>();
+        // Whether the folder is on the disk
+        boolean present;
+        long lastUsed;
+        // A working copy, whose size is counted; extracted folders' files are counted by the blob store
+        boolean clone;
+        long bytes;
+        // Where an extracted folder comes from, or null for one extracted by an earlier run
+        File repoPath;
+        String version;
+        String relativePath;
+
+        Folder(File file) {
+            this.file = file;
+        }
+    }
+}